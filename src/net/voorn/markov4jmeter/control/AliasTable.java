@@ -0,0 +1,194 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.control;
+
+/**
+ * <p>Alias table for sampling from a discrete probability distribution in
+ * constant time, following Vose's variant of Walker's alias method.</p>
+ *
+ * <p>The table is built once from a set of non-negative weights, which do not
+ * need to be normalized; outcomes with a weight of 0 are never returned.
+ * Sampling requires a single uniformly distributed random number and does
+ * not allocate any objects. Instances are immutable and can be shared among
+ * threads.</p>
+ */
+public final class AliasTable {
+
+    /** Probability of keeping the outcome of a column, for each column. */
+    private final double[] probabilities;
+
+    /** Alias column of each column. */
+    private final int[] aliases;
+
+    /** Outcome (index of the related weight) of each column. */
+    private final int[] outcomes;
+
+    /**
+     * Creates a new alias table; use {@link #create(double[])} for creating
+     * instances.
+     */
+    private AliasTable (
+            final double[] probabilities,
+            final int[] aliases,
+            final int[] outcomes) {
+
+        this.probabilities = probabilities;
+        this.aliases = aliases;
+        this.outcomes = outcomes;
+    }
+
+    /**
+     * Builds an alias table for the given weights.
+     *
+     * @param weights
+     *     non-negative weights; the index of a weight denotes its outcome.
+     *
+     * @return
+     *     a valid alias table, or <code>null</code> if the weights do not
+     *     sum up to a positive value.
+     */
+    public static AliasTable create (final double[] weights) {
+
+        int n = 0;
+        double sum = 0.0d;
+
+        for (int i = 0; i < weights.length; i++) {
+
+            if (weights[i] > 0) {
+
+                n++;
+                sum += weights[i];
+            }
+        }
+
+        if (n == 0 || !(sum > 0) || Double.isInfinite(sum)) {
+
+            return null;
+        }
+
+        final double[] probabilities = new double[n];
+        final int[] aliases = new int[n];
+        final int[] outcomes = new int[n];
+
+        // scaled weights, the average column has a scaled weight of 1;
+        final double[] scaled = new double[n];
+
+        for (int i = 0, column = 0; i < weights.length; i++) {
+
+            if (weights[i] > 0) {
+
+                outcomes[column] = i;
+                scaled[column] = weights[i] * n / sum;
+                column++;
+            }
+        }
+
+        // work lists of columns with scaled weights below/above average;
+        final int[] small = new int[n];
+        final int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
+
+        for (int i = 0; i < n; i++) {
+
+            if (scaled[i] < 1.0d) {
+
+                small[numSmall++] = i;
+
+            } else {
+
+                large[numLarge++] = i;
+            }
+        }
+
+        while (numSmall > 0 && numLarge > 0) {
+
+            final int less = small[--numSmall];
+            final int more = large[--numLarge];
+
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0d;
+
+            if (scaled[more] < 1.0d) {
+
+                small[numSmall++] = more;
+
+            } else {
+
+                large[numLarge++] = more;
+            }
+        }
+
+        // remaining columns are full, apart from rounding errors;
+        while (numLarge > 0) {
+
+            final int column = large[--numLarge];
+            probabilities[column] = 1.0d;
+            aliases[column] = column;
+        }
+
+        while (numSmall > 0) {
+
+            final int column = small[--numSmall];
+            probabilities[column] = 1.0d;
+            aliases[column] = column;
+        }
+
+        return new AliasTable(probabilities, aliases, outcomes);
+    }
+
+    /**
+     * Draws an outcome.
+     *
+     * @param random
+     *     a uniformly distributed random number in the range from 0.0 to 1.0
+     *     (exclusive).
+     *
+     * @return
+     *     the index of a weight with positive value, as passed to
+     *     {@link #create(double[])}.
+     */
+    public int sample (final double random) {
+
+        final int n = this.probabilities.length;
+        final double x = random * n;
+
+        int column = (int) x;
+
+        if (column >= n) {  // guard against rounding for random ~ 1.0;
+
+            column = n - 1;
+        }
+
+        // the fractional part is uniformly distributed as well;
+        return (x - column < this.probabilities[column]) ?
+                this.outcomes[column] :
+                this.outcomes[this.aliases[column]];
+    }
+
+    /**
+     * Returns the number of outcomes with positive weight.
+     *
+     * @return  the number of outcomes.
+     */
+    public int size () {
+
+        return this.outcomes.length;
+    }
+}
@@ -62,6 +62,14 @@ public class ApplicationState extends org.apache.jmeter.control.GenericControlle
      * the corresponding destination states aren't created yet.
      */
     private static Map<Integer,Map<Integer,ApplicationStateTransition>> orphanTransitions = Collections.synchronizedMap(new HashMap());
+
+    /**
+     * Runtime index of the state within its MarkovController, assigned at
+     * initialization (during test execution); the exit state has index 0,
+     * so valid indices start at 1. In contrast to the ID, the index is not
+     * persisted.
+     */
+    private transient int index = -1;
     
     /** Creates a new instance of ApplicationState */
     public ApplicationState() {
@@ -130,6 +138,24 @@ public class ApplicationState extends org.apache.jmeter.control.GenericControlle
     public int getId() {
         return getPropertyAsInt(ID);
     }
+
+    /**
+     * Set the runtime index of the state.
+     *
+     * @param newIndex the new index.
+     */
+    public void setIndex(int newIndex) {
+        this.index = newIndex;
+    }
+
+    /**
+     * Return the runtime index of the state.
+     *
+     * @return the index; -1 if not assigned yet.
+     */
+    public int getIndex() {
+        return this.index;
+    }
     
     /**
      * Clears the application state
@@ -16,17 +16,30 @@
 
 package net.voorn.markov4jmeter.control;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.voorn.markov4jmeter.control.gui.GuiLogger;
+import net.voorn.markov4jmeter.util.RandomStreams;
 
 import org.apache.jmeter.testelement.property.CollectionProperty;
 import org.apache.jmeter.testelement.property.PropertyIterator;
 import org.apache.jmeter.testelement.property.TestElementProperty;
+import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.logging.LoggingManager;
 import org.apache.log.Logger;
 
@@ -47,22 +60,36 @@ public class BehaviorMix extends org.apache.jmeter.config.ConfigTestElement impl
     /** Logger for this class. */
     private static Logger logger = LoggingManager.getLoggerForClass();
 
-    /** Random number generator to be used within this class. */
-    protected static java.util.Random rand = new java.util.Random();
 
     /** Property name used to store the list of behavior model entries. */
     public static final String BEHAVIORMIX = "UserBehaviorMix.behaviorEntries";
 
     /**
-     * Contains initialized behavior models (during test execution)
-     * Write access to this list must be synchronized since during test execution
-     * an instance is used by multiple threads!
+     * Name of the JMeter property which limits the number of threads loading
+     * behavior models concurrently; defaults to the number of processors.
      */
-    private transient List<BehaviorMixEntry> behaviorList = new ArrayList();
+    public static final String LOADER_THREADS_PROPERTY = "markov4jmeter.loaderThreads";
+
+    /** Seconds after which idle loader threads terminate. */
+    private static final long LOADER_KEEP_ALIVE = 30;
+
+    /** Pool for loading behavior models; created lazily. */
+    private static ExecutorService loaderPool = null;
+
+    /**
+     * Initialized behavior models and their alias table (during test
+     * execution). The snapshot is replaced as a whole when the behavior
+     * models are reloaded; threads read it without locking, so sessions in
+     * flight finish with the behavior they have been assigned before.
+     */
+    private transient volatile Snapshot snapshot = null;
 
     /** Whether instance initialized (i.e. method initialize() has been called) */
     private boolean initialized = false;
 
+    /** Application model the behavior models have been initialized with. */
+    private transient CompiledApplicationModel applicationModel = null;
+
     private static GuiLogger guiLogger;
 
 
@@ -95,8 +122,8 @@ public class BehaviorMix extends org.apache.jmeter.config.ConfigTestElement impl
         super.clear();
         setProperty(new CollectionProperty(BEHAVIORMIX, new ArrayList()));
         this.initialized = false;
-        if (this.behaviorList != null) // required for distributed mode
-            this.behaviorList.clear();
+        this.snapshot = null;
+        this.applicationModel = null;
     }
 
     /**
@@ -114,7 +141,8 @@ public class BehaviorMix extends org.apache.jmeter.config.ConfigTestElement impl
      * @return the behavior mix as a list.
      */
     public List<BehaviorMixEntry> getBehaviorMixAsList(){
-       return this.behaviorList;
+       Snapshot current = this.snapshot;
+       return (current != null) ? current.behaviors : new ArrayList<BehaviorMixEntry>();
     }
 
     /**
@@ -273,27 +301,115 @@ public class BehaviorMix extends org.apache.jmeter.config.ConfigTestElement impl
     /**
      * Initializes the behavior models (during test execution).
      *
-     * The behavior models are read from file. The map passed as parameter is
-     * used to map the state names contained within the file to the
-     * ApplicationStates.
+     * The behavior models are read from file. The application model passed
+     * as parameter is used to map the state names contained within the file
+     * to the ApplicationStates. Several behavior models are loaded
+     * concurrently on a shared, bounded pool; if any of them fails to load,
+     * all failures are reported together. Afterwards, the behavior mix is
+     * registered for being reloaded during the test run.
      *
-     * @param stateNames2Ids map mapping all ApplicationState names to their ID.
+     * @param model the compiled application model.
      * @throws BehaviorException when an error during initialization occurs.
      */
-    public synchronized void initialize(Map stateNames2Ids) throws BehaviorException {
+    public synchronized void initialize(final CompiledApplicationModel model) throws BehaviorException {
 
         this.initialized = false;
+        this.applicationModel = model;
+        this.snapshot = this.createSnapshot(model, null);
+        this.initialized = true;
+
+        BehaviorMixReloader.getInstance().register(this);
+    }
+
+    /**
+     * Reloads the behavior models in the calling thread and swaps them in
+     * atomically; sessions in flight continue with the previous models. If
+     * any behavior model cannot be loaded, the previous models are kept.
+     *
+     * @param frequencies
+     *     relative frequencies overriding those of the test plan, mapped by
+     *     behavior name; might be <code>null</code>.
+     * @throws BehaviorException if the behavior models cannot be loaded.
+     */
+    synchronized void reload(final Map<String,Double> frequencies) throws BehaviorException {
+
+        if (!this.initialized) {
+            return;
+        }
+
+        this.snapshot = this.createSnapshot(this.applicationModel, frequencies);
+    }
+
+    /**
+     * Checks whether any behavior file has been modified since the behavior
+     * models have been loaded.
+     *
+     * @return true iff any behavior file has been modified.
+     */
+    boolean isModified() {
+        Snapshot current = this.snapshot;
+        if (current == null)
+            return false;
+        for (int i = 0; i < current.files.length; i++) {
+            if (current.files[i].lastModified() != current.lastModified[i])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the latest modification time of the behavior files.
+     *
+     * @return the time in milliseconds; 0 if not initialized.
+     */
+    long getLatestModification() {
+        Snapshot current = this.snapshot;
+        long latest = 0;
+        if (current != null) {
+            for (File file : current.files)
+                latest = Math.max(latest, file.lastModified());
+        }
+        return latest;
+    }
+
+    /**
+     * Loads all behavior models and creates a new snapshot of them.
+     *
+     * @param model the compiled application model.
+     * @param frequencies
+     *     relative frequencies overriding those of the test plan, mapped by
+     *     behavior name; might be <code>null</code>.
+     * @return the snapshot.
+     * @throws BehaviorException when an error during initialization occurs.
+     */
+    private Snapshot createSnapshot(final CompiledApplicationModel model,
+            final Map<String,Double> frequencies) throws BehaviorException {
 
-        this.behaviorList.clear();
         int numBehaviors = this.getBehaviorCount();
+        double[] rfreqs = new double[numBehaviors];
+        File[] files = new File[numBehaviors];
+        long[] lastModified = new long[numBehaviors];
+
+        // modification times before loading, so changes during loading are
+        // detected by the next check;
+        for (int i=0; i<numBehaviors; i++){
+            files[i] = new File(this.getBehaviorEntry(i).getFilename());
+            lastModified[i] = files[i].lastModified();
+        }
+
+        BehaviorMixEntry[] behaviors = this.loadBehaviors(model);
+        List<BehaviorMixEntry> behaviorList = new ArrayList<BehaviorMixEntry>(numBehaviors);
 
         int numberOfThinkTimeBehaviors = 0;
         for (int i=0; i<numBehaviors; i++){
-            BehaviorMixEntry behavior =
-                    (BehaviorMixEntry) this.getBehaviorEntry(i).clone();
+            BehaviorMixEntry behavior = behaviors[i];
+
+            if (frequencies != null && frequencies.containsKey(behavior.getBName())) {
+                behavior.setRFreq(frequencies.get(behavior.getBName()).doubleValue());
+            }
 
-            behavior.initializeModel(stateNames2Ids);
-            this.behaviorList.add(behavior);
+            behaviorList.add(behavior);
+            rfreqs[i] = behavior.getRFreq();
 
             if (behavior.usesThinkTimes()) {
 
@@ -309,7 +425,156 @@ public class BehaviorMix extends org.apache.jmeter.config.ConfigTestElement impl
             this.error(message);
         }
 
-        this.initialized = true;
+        return new Snapshot(
+                Collections.unmodifiableList(behaviorList),
+                AliasTable.create(rfreqs),
+                files,
+                lastModified);
+    }
+
+    /**
+     * Returns the application model the behavior models have been
+     * initialized with.
+     *
+     * @return the compiled application model, or null if the behavior mix
+     *         has not been initialized.
+     */
+    public CompiledApplicationModel getApplicationModel() {
+        return this.applicationModel;
+    }
+
+    /**
+     * Clones and initializes all behavior models; a single model is loaded
+     * by the current thread, several models are loaded concurrently.
+     *
+     * @param model the compiled application model.
+     * @return the initialized behavior models, in the order of the mix.
+     * @throws BehaviorException if any behavior model cannot be loaded.
+     */
+    private BehaviorMixEntry[] loadBehaviors(final CompiledApplicationModel model)
+            throws BehaviorException {
+
+        final int numBehaviors = this.getBehaviorCount();
+        final BehaviorMixEntry[] behaviors = new BehaviorMixEntry[numBehaviors];
+
+        for (int i = 0; i < numBehaviors; i++) {
+
+            behaviors[i] = (BehaviorMixEntry) this.getBehaviorEntry(i).clone();
+        }
+
+        if (numBehaviors == 1) {
+
+            behaviors[0].initializeModel(model);
+            return behaviors;
+        }
+
+        final List<Future<?>> futures = new ArrayList<Future<?>>(numBehaviors);
+        final ExecutorService pool = BehaviorMix.getLoaderPool();
+
+        for (final BehaviorMixEntry behavior : behaviors) {
+
+            futures.add(pool.submit(new Callable<Object>() {
+
+                public Object call() throws BehaviorException {
+
+                    behavior.initializeModel(model);
+                    return null;
+                }
+            }));
+        }
+
+        // wait for all models, even if one has failed already;
+        final List<String> failures = new ArrayList<String>();
+
+        for (int i = 0; i < numBehaviors; i++) {
+
+            try {
+
+                futures.get(i).get();
+
+            } catch (final ExecutionException ex) {
+
+                final Throwable cause = ex.getCause();
+
+                if (!(cause instanceof BehaviorException)) {
+
+                    logger.error("Error while loading behavior \""
+                            + behaviors[i].getBName() + "\"", cause);
+                }
+
+                failures.add("\"" + behaviors[i].getBName() + "\": " + cause.getMessage());
+
+            } catch (final InterruptedException ex) {
+
+                for (final Future<?> future : futures) {
+
+                    future.cancel(true);
+                }
+
+                Thread.currentThread().interrupt();
+                throw new BehaviorException("Interrupted while loading behavior models");
+            }
+        }
+
+        if (!failures.isEmpty()) {
+
+            final StringBuffer message = new StringBuffer();
+
+            for (final String failure : failures) {
+
+                message.append("\n  ").append(failure);
+            }
+
+            this.error("%d of %d behavior models could not be loaded:%s",
+                    failures.size(), numBehaviors, message);
+        }
+
+        return behaviors;
+    }
+
+    /**
+     * Returns the pool for loading behavior models, creating it if
+     * necessary. Its threads are daemon threads which terminate when idle.
+     *
+     * @return the pool.
+     */
+    private static synchronized ExecutorService getLoaderPool() {
+
+        if (BehaviorMix.loaderPool == null) {
+
+            int threads = Runtime.getRuntime().availableProcessors();
+
+            try {
+                threads = Integer.parseInt(JMeterUtils.getPropDefault(
+                        LOADER_THREADS_PROPERTY, String.valueOf(threads)).trim());
+            } catch (final NumberFormatException ex) {
+                logger.warn("Invalid value of property " + LOADER_THREADS_PROPERTY
+                        + "; will use " + threads + " threads");
+            }
+
+            threads = Math.max(1, threads);
+
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    threads, threads,
+                    LOADER_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(final Runnable runnable) {
+                            final Thread thread = new Thread(runnable,
+                                    "Markov4JMeter-Loader-" + this.count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+            pool.allowCoreThreadTimeOut(true);
+            BehaviorMix.loaderPool = pool;
+        }
+
+        return BehaviorMix.loaderPool;
     }
 
     /**
@@ -346,32 +611,68 @@ public class BehaviorMix extends org.apache.jmeter.config.ConfigTestElement impl
      * @throws BehaviorException when an error occurs.
      */
     public BehaviorMixEntry getBehavior() throws BehaviorException {
-        List<Double> cumProbList = new ArrayList();
-        double curCumProb = 0.0;
-
-        for (int i=0; i<this.behaviorList.size(); i++){
-            /* add all to have the same number of entries in
-             * both lists */
-            curCumProb+=this.behaviorList.get(i).getRFreq();
-            cumProbList.add(curCumProb);
-
-        }
-        if(cumProbList.isEmpty() || (cumProbList.get(cumProbList.size()-1) == 0)){
+        Snapshot current = this.snapshot;
+        /* alias table is null if list of behaviors is empty or all entries
+         * have a relative frequency of 0.0 */
+        if(current == null || current.aliasTable == null){
             logger.fatalError("No behavior matches");
             throw new BehaviorException("no behavior matches");
         }
-        //System.out.print("Choosing behavior ... -> cumProbList " + cumProbList.toString() + " ->");
-        double rndVal = rand.nextDouble()*(cumProbList.get(cumProbList.size()-1));
-        //System.out.print("rnd: " + rndVal + " ");
-        BehaviorMixEntry behavior = this.behaviorList.get(0);
-        for (int i=0; i<cumProbList.size()-1; i++){
-            if(rndVal<cumProbList.get(i))
-                break;
-            behavior = this.behaviorList.get(i+1);
-        }
+        BehaviorMixEntry behavior =
+                current.behaviors.get(current.aliasTable.sample(RandomStreams.current().nextDouble()));
         //System.out.println("-> Behavior: " + behavior.getBName());
 
         return behavior;
     }
+
+    /**
+     * Returns the behavior model with the given name, e.g., for replaying a
+     * recorded session.
+     *
+     * @param name the name of the behavior.
+     * @return the behavior model.
+     * @throws BehaviorException if no behavior with the given name exists.
+     */
+    public BehaviorMixEntry getBehavior(String name) throws BehaviorException {
+        Snapshot current = this.snapshot;
+        List<BehaviorMixEntry> behaviors = (current != null) ?
+                current.behaviors : new ArrayList<BehaviorMixEntry>();
+        for (BehaviorMixEntry behavior : behaviors) {
+            if (behavior.getBName().equals(name))
+                return behavior;
+        }
+        throw new BehaviorException("Unknown behavior \"" + name + "\"");
+    }
+
+    /**
+     * Immutable set of initialized behavior models, together with the alias
+     * table over their relative frequencies and the modification times of
+     * their files.
+     */
+    private static final class Snapshot {
+
+        /** The behavior models, in the order of the mix. */
+        final List<BehaviorMixEntry> behaviors;
+
+        /** Alias table over the relative frequencies; null if no behavior
+         *  has a positive relative frequency. */
+        final AliasTable aliasTable;
+
+        /** The behavior files. */
+        final File[] files;
+
+        /** Modification times of the behavior files before loading. */
+        final long[] lastModified;
+
+        Snapshot(final List<BehaviorMixEntry> behaviors,
+                final AliasTable aliasTable,
+                final File[] files,
+                final long[] lastModified) {
+            this.behaviors = behaviors;
+            this.aliasTable = aliasTable;
+            this.files = files;
+            this.lastModified = lastModified;
+        }
+    }
 }
 
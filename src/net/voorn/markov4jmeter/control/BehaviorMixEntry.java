@@ -16,19 +16,19 @@
 
 package net.voorn.markov4jmeter.control;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.Set;
 
 import net.voorn.markov4jmeter.control.gui.GuiLogger;
+import net.voorn.markov4jmeter.util.MappedCsvReader;
 
 import org.apache.jmeter.testelement.AbstractTestElement;
 import org.apache.jmeter.testelement.property.DoubleProperty;
@@ -69,8 +69,8 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
 
     private static GuiLogger guiLogger;
 
-    private final static String TOKEN_SEPARATOR = ",";
-    private final static String PROBABILITY_TT_SEPARATOR = ";";
+    private final static char TOKEN_SEPARATOR = ',';
+    private final static char PROBABILITY_TT_SEPARATOR = ';';
 
     private final static String EXIT_STATE_SYMBOL = "$";
 
@@ -81,26 +81,51 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
     private boolean usesThinkTimes = false;
 
     /**
-     * Maps source state id to state transition probabilities (during test
-     * execution). Write access to this map must be synchronized since an
-     * instance is used by multiple threads.
+     * Whether any think time refers to an empirical distribution file; such
+     * models are not cached, since the files might change independently.
      */
-    private transient Map<Integer,Map<Integer,Double>> probabilityMaps =
-            new HashMap<Integer,Map<Integer,Double>>();
+    private transient boolean usesEmpiricalThinkTimes = false;
 
-    private transient Map<Integer,Map<Integer,ThinkTime>> thinkTimeMaps =
-            new HashMap<Integer,Map<Integer,ThinkTime>>();
+    /**
+     * Transition probabilities and think times, indexed by the state indices
+     * of the compiled application model (during test execution).
+     */
+    private transient TransitionMatrix transitionMatrix = null;
+
+    /**
+     * Application model whose state indices are used by the transition
+     * matrix (during test execution).
+     */
+    private transient CompiledApplicationModel applicationModel = null;
+
+    /**
+     * Transition probabilities of each state, aligned to the transitions of
+     * the compiled application model and indexed by state index (during test
+     * execution).
+     */
+    private transient CompiledRow[] compiledRows = null;
 
     /**
      * Whether the behavior mix has been initialized or not.
      */
     private transient boolean initialized = false;
 
+    /**
+     * Collects the source definition of each parsed think time, if not
+     * <code>null</code>; used for compiling behavior models.
+     */
+    private transient Map<ThinkTime,String> thinkTimeDefinitions = null;
+
     /**
      * Id of the entry state.
      */
     private transient int entryState = -1;
 
+    /**
+     * Index of the entry state within the compiled application model.
+     */
+    private transient int entryStateIndex = -1;
+
     /**
      * Create a new behavior without properties.
      */
@@ -196,43 +221,126 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
 
     /**
      * Returns the map containing the probabilities (values) for transitions
-     * to all states (values) from the given state.
+     * to all states (keys) from the given state. The map is created from the
+     * transition matrix on each call; use {@link #getTransitionMatrix()} for
+     * frequent lookups.
      *
      * @param id  The ID of the source state.
      */
     public Map<Integer,Double> getStateTransitionProbabilitiesMap(int id){
 
-        return this.probabilityMaps.get(id);
+        final int src = this.getRowIndex(id);
+
+        if (src < 0) {
+
+            return null;
+        }
+
+        final Map<Integer,Double> probabilityMap = new HashMap<Integer,Double>();
+
+        for (int dst = 0; dst < this.transitionMatrix.size(); dst++) {
+
+            probabilityMap.put(
+                    this.applicationModel.getStateId(dst),
+                    this.transitionMatrix.getProbability(src, dst));
+        }
+
+        return probabilityMap;
     }
 
     /**
      * Returns the map containing the think times (values) for transitions
-     * to all states (values) from the given state.
+     * to all states (keys) from the given state; think times are only
+     * included for transitions with a non-zero probability. The map is
+     * created from the transition matrix on each call; use
+     * {@link #getTransitionMatrix()} for frequent lookups.
      *
      * @param id  The ID of the source state.
      */
     public Map<Integer,ThinkTime> getStateTransitionThinkTimesMap(int id){
 
-        return this.thinkTimeMaps.get(id);
+        final int src = this.getRowIndex(id);
+
+        if (src < 0) {
+
+            return null;
+        }
+
+        final Map<Integer,ThinkTime> thinkTimeMap = new HashMap<Integer,ThinkTime>();
+
+        for (int dst = 0; dst < this.transitionMatrix.size(); dst++) {
+
+            final ThinkTime thinkTime = this.transitionMatrix.getThinkTime(src, dst);
+
+            if (thinkTime != null) {
+
+                thinkTimeMap.put(this.applicationModel.getStateId(dst), thinkTime);
+            }
+        }
+
+        return thinkTimeMap;
     }
 
     /**
-     * Removes copy with leading and trailing quotes being removed.
+     * Returns the index of the matrix row for the given source state.
+     *
+     * @param id  The ID of the source state.
      *
-     * @param the resulting String.
+     * @return  the row index, or -1 if no row is defined for the state.
      */
-    private String removeQuotes(String str){
+    private int getRowIndex(int id){
+
+        if (this.transitionMatrix == null) {
+
+            return -1;
+        }
 
-        return str.replaceAll("^\"|\"$", "");
-        // int startIdx = str.startsWith("\"")?1:0;
-        // return str.substring(startIdx,str.endsWith("\"")?str.length()-1:str.length());
+        final int src = this.applicationModel.getStateIndex(id);
+
+        return (src >= 0 && this.transitionMatrix.isRowDefined(src)) ? src : -1;
+    }
+
+    /**
+     * Returns the transition probabilities and think times, indexed by the
+     * state indices of the compiled application model.
+     *
+     * @return  the transition matrix, or <code>null</code> if the behavior
+     *          model has not been initialized.
+     */
+    public TransitionMatrix getTransitionMatrix(){
+
+        return this.transitionMatrix;
     }
 
     /**
-     * Collects all state names and IDs from a given header line of a CSV file.
+     * Sets a map which collects the source definition of each think time
+     * parsed while loading a behavior CSV file, as required for writing
+     * precompiled behavior models.
      *
-     * @param headerLine
-     *     The header line of a CSV file to be parsed for state information.
+     * @param definitions  the map to be filled, or <code>null</code>.
+     */
+    void setThinkTimeDefinitions(Map<ThinkTime,String> definitions){
+
+        this.thinkTimeDefinitions = definitions;
+    }
+
+    /**
+     * Returns the compiled transition probabilities of the state with the
+     * given index.
+     *
+     * @param index  The index of the source state.
+     */
+    CompiledRow getCompiledRow(int index){
+
+        return this.compiledRows[index];
+    }
+
+    /**
+     * Collects all state names and IDs from the header line of a CSV file.
+     *
+     * @param reader
+     *     Reader positioned at the header line of a CSV file to be parsed
+     *     for state information.
      * @param stateNames
      *     The state names to be collected; should be empty by default.
      * @param stateIds
@@ -248,29 +356,21 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
      *     the exit state could not be found.
      */
     private int collectStateNamesAndIDs (
-            final String headerLine,
+            final MappedCsvReader reader,
             final List<String> stateNames,
             final List<Integer> stateIds,
             final Map<String,Integer> stateNames2Ids) throws Exception {
 
-        int numberOfStates;  //  to be returned;
-
         boolean foundExitState = false;  //  '$' denotes the final state;
 
-        // StringTokenizer does not consider space as a token;
-        final StringTokenizer tokenizer = new StringTokenizer(
-                headerLine,
-                BehaviorMixEntry.TOKEN_SEPARATOR);
-
-        // calculate number of times nextToken() can be called; current position
-        // (= names column) is not included, since it consists of whitespace
-        // -> number of states = remaining tokens;
-        numberOfStates = tokenizer.countTokens();
+        // register found state names for detecting duplicate occurrences;
+        final Set<String> foundStateNames = new HashSet<String>();
 
-        while( tokenizer.hasMoreTokens() ) {
+        // empty fields are skipped, so the names column is not included,
+        // since it is empty -> number of states = number of fields;
+        while ( reader.nextField() ) {
 
-            final String stateName =
-                    this.removeQuotes(tokenizer.nextToken().trim());
+            final String stateName = reader.getString(true);
 
             if ( this.isExitState(stateName) ) {
 
@@ -281,13 +381,15 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
 
             } else if ( stateNames2Ids.containsKey(stateName) ) {
 
-                this.warnIfStateIsDuplicateOccurrence(stateName, stateNames);
+                this.warnIfStateIsDuplicateOccurrence(
+                        stateName, foundStateNames, reader);
                 stateIds.add( stateNames2Ids.get(stateName) );
 
             } else {
 
                 // throws an Exception;
-                this.error("Unknown state \"%s\".", stateName);
+                this.error("Unknown state \"%s\" in line %d, column %d.",
+                        stateName, reader.getLineNumber(), reader.getColumn());
             }
 
             stateNames.add(stateName);  // also add '$'
@@ -298,7 +400,7 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
             this.error("Could not find exit state.");
         }
 
-        return numberOfStates;
+        return stateNames.size();
     }
 
     /**
@@ -389,75 +491,122 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
 
     /**
      * Writes a warning message for a duplicate state occurrence into the
-     * log, in case the given state is contained in the specified state list.
+     * log, in case the given state has been found before; otherwise, the
+     * state is added to the found states.
      *
-     * @param stateName   State name to be checked.
-     * @param stateNames  List of state names.
+     * @param stateName        State name to be checked.
+     * @param foundStateNames  Set of state names found before.
+     * @param reader           Reader positioned at the state name.
      */
     private void warnIfStateIsDuplicateOccurrence (
-            final String stateName, final List<String> stateNames) {
+            final String stateName,
+            final Set<String> foundStateNames,
+            final MappedCsvReader reader) {
 
         // give warning for any duplicate state name;
-        if ( this.isStateNameInList(stateName, stateNames) ) {
+        if ( !foundStateNames.add(stateName) ) {
 
-            this.warn("Duplicate occurrences for state \"%s\".", stateName);
+            this.warn("Duplicate occurrences for state \"%s\" "
+                    + "in line %d, column %d.",
+                    stateName, reader.getLineNumber(), reader.getColumn());
         }
     }
 
     /**
-     * Checks whether a given state name is contained in the specified list
-     * of state names.
-     *
-     * @param stateName   State name to be checked.
-     * @param stateNames  List of state names.
+     * Loads behavior model from file.
      *
-     * @return
-     *     <code>true</code> if and only if the given state name is contained
-     *     in the specified list.
+     * @param model the compiled application model.
+     * @throws BehaviorException when an errors occurs.
      */
-    private boolean isStateNameInList (
-            final String stateName, final List<String> stateNames) {
+    private synchronized void loadFile(CompiledApplicationModel model)
+            throws BehaviorException {
+
+        final String filename = this.getFilename();
+
+        // think time definitions are only collected while parsing;
+        final boolean useCache =
+                filename != null && this.thinkTimeDefinitions == null;
 
-        for (final String stateNameL : stateNames) {
+        final File file = useCache ? new File(filename) : null;
 
-            if ( stateNameL.equals(stateName) ) {
+        if (useCache) {
 
-                return true;
+            final BehaviorModelCache.Model cached =
+                    BehaviorModelCache.get(file, model);
+
+            if (cached != null) {
+
+                // state IDs differ among test plans, indices do not;
+                this.transitionMatrix = cached.transitionMatrix;
+                this.entryState = model.getStateId(cached.entryStateIndex);
+                this.usesThinkTimes = cached.usesThinkTimes;
+
+                this.info("Reusing cached model of unchanged file for behavior \"%s\".",
+                        this.getBName());
+                return;
             }
         }
 
-        return false;
+        final long length = useCache ? file.length() : 0;
+        final long lastModified = useCache ? file.lastModified() : 0;
+
+        this.info("Loading file for behavior \"%s\".", this.getBName());
+
+        this.usesEmpiricalThinkTimes = false;
+
+        if ( BehaviorModelFile.isCompiled(filename) ) {
+
+            this.loadCompiledFile(model);
+
+        } else {
+
+            this.loadCsvFile(model);
+        }
+
+        if (useCache && !this.usesEmpiricalThinkTimes) {
+
+            BehaviorModelCache.put(file, length, lastModified, model,
+                    new BehaviorModelCache.Model(
+                            this.transitionMatrix,
+                            model.getStateIndex(this.entryState),
+                            this.usesThinkTimes));
+        }
     }
 
     /**
-     * Loads behavior model from file.
+     * Loads behavior model from a CSV file.
      *
-     * @param stateNames2Ids maps state names to their IDs.
+     * @param model the compiled application model.
      * @throws BehaviorException when an errors occurs.
      */
-    private synchronized void loadFile(Map<String,Integer> stateNames2Ids)
+    private void loadCsvFile(CompiledApplicationModel model)
             throws BehaviorException {
 
-        this.info("Loading file for behavior \"%s\".", this.getBName());
+        final Map<String,Integer> stateNames2Ids = model.getStateNames2Ids();
 
         final String filename = this.getFilename();
 
-        BufferedReader reader = null;
+        MappedCsvReader reader = null;
 
         try {
 
-            // throws FileNotFound- or NullPointerException;
-            reader = new BufferedReader(new FileReader(new File(filename)));
+            // throws an IO- or NullPointerException;
+            reader = new MappedCsvReader(
+                    new File(filename),
+                    BehaviorMixEntry.TOKEN_SEPARATOR,
+                    BehaviorMixEntry.PROBABILITY_TT_SEPARATOR);
+
+            if ( !reader.nextLine() ) {
 
-            // read header; might throw an IOException;
-            final String headerLine = reader.readLine();
+                this.error("Missing header line.");
+            }
 
             final List<String>  stateNames = new ArrayList<String>();
             final List<Integer> stateIds   = new ArrayList<Integer>();
 
             // might throw an Exception;
             final int numberOfStates = this.collectStateNamesAndIDs(
-                    headerLine,
+                    reader,
                     stateNames,
                     stateIds,
                     stateNames2Ids);
@@ -478,7 +627,8 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
                     numberOfStates,
                     stateNames,
                     stateIds,
-                    stateNames2Ids);
+                    stateNames2Ids,
+                    model);
 
         } catch (final Exception ex) {
 
@@ -504,14 +654,51 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
         }
     }
 
+    /**
+     * Loads a precompiled behavior model from file.
+     *
+     * @param model the compiled application model.
+     * @throws BehaviorException when an errors occurs.
+     */
+    private void loadCompiledFile(CompiledApplicationModel model)
+            throws BehaviorException {
+
+        try {
+
+            final BehaviorModelFile file = BehaviorModelFile.read(
+                    new File(this.getFilename()), model);
+
+            this.transitionMatrix = file.getTransitionMatrix();
+            this.entryState = file.getEntryState();
+            this.usesThinkTimes = file.usesThinkTimes();
+            this.usesEmpiricalThinkTimes = file.usesEmpiricalThinkTimes();
+
+        } catch (final BehaviorException ex) {
+
+            // throws an Exception;
+            this.error("%s", ex.getMessage());
+
+        } catch (final IOException ex) {
+
+            BehaviorMixEntry.logger.error("Error while loading behavior file. ", ex);
+            this.error("Could not read precompiled behavior model: %s", ex.getMessage());
+        }
+
+        this.info("Loaded %d non-zero transition probabilities of %d states "
+                + "from precompiled behavior model.",
+                this.transitionMatrix.getNonZeroCount(),
+                model.getStateCount());
+    }
+
     /**
      * Collects all probabilities and think time definitions; the source matrix
      * targeted by the given <code>BufferedReader</code> instance must be
      * consistent, that is either all think times must be defined besides the
-     * probabilities, or none must be defined.
+     * probabilities, or none must be defined. Rows are written straight into
+     * the transition matrix builder, without keeping any tokens.
      *
      * @param reader
-     *     Reader targeting the matrix to be parsed.
+     *     Reader positioned at the header line of the matrix to be parsed.
      * @param numberOfStates
      *     Number of states which have been already read from header line.
      * @param stateNames
@@ -521,6 +708,8 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
      *     identified in the header line.
      * @param stateNames2Ids
      *     Map which assigns state IDs to state names.
+     * @param model
+     *     Application model which assigns dense indices to state IDs.
      * @throws Exception
      *     in the following cases:
      *     <ul>
@@ -537,51 +726,71 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
      */
     @SuppressWarnings("unused")  // no warnings for flag THINK_TIMES_TO_EXIT_STATE_OPTIONAL;
     private void collectProbabilitiesAndThinkTimes (
-            final BufferedReader reader,
+            final MappedCsvReader reader,
             final int numberOfStates,
             final List<String> stateNames,
             final List<Integer> stateIds,
-            final Map<String,Integer> stateNames2Ids) throws Exception {
+            final Map<String,Integer> stateNames2Ids,
+            final CompiledApplicationModel model) throws Exception {
 
         boolean foundEntryState = false;  // the trailing '*';
-        int lineNumber = 2;  // header line has been already read before;
+        int rows = 0;
 
         // register found state names for detecting duplicate occurrences;
-        final LinkedList<String> foundStateNames = new LinkedList<String>();
+        final Set<String> foundStateNames = new HashSet<String>();
+
+        final int size = model.getStateCount();
 
-        Map<Integer, Double> probabilityMap;
-        Map<Integer, ThinkTime> thinkTimeMap;
+        final TransitionMatrix.Builder builder = new TransitionMatrix.Builder(size);
+
+        // map columns to state indices; duplicate columns resolve to the
+        // same index, the last one wins;
+        final int[] columnIndices = new int[stateIds.size()];
+
+        for (int i = 0; i < columnIndices.length; i++) {
+
+            columnIndices[i] = model.getStateIndex(stateIds.get(i));
+        }
+
+        // row buffers, indexed by destination state index;
+        final double[] probabilities = new double[size];
+        final ThinkTime[] thinkTimes = new ThinkTime[size];
 
         int thinkTimesNum = 0;
 
         // will be set true, if first think time is detected;
         this.usesThinkTimes = false;
 
-        // readLine() might throw an IOException;
-        for (String line = reader.readLine(); line != null; line = reader.readLine(), lineNumber++) {
+        // think time of the previous cell, re-used for equal definitions;
+        String lastThinkTimeStr = null;
+        ThinkTime lastThinkTime = null;
 
-            probabilityMap = new HashMap<Integer, Double>();
-            thinkTimeMap   = new HashMap<Integer, ThinkTime>();
+        while ( reader.nextLine() ) {
 
-            final StringTokenizer tokenizer = new StringTokenizer(
-                    line,
-                    BehaviorMixEntry.TOKEN_SEPARATOR);
+            final int lineNumber = reader.getLineNumber();
 
-            // +1 ~ first column (state names);
-            if (tokenizer.countTokens() != numberOfStates + 1) {
+            rows++;
 
-                this.error("Invalid column count (found: %d, expected: %d) in row %d.",
-                        tokenizer.countTokens(),
-                        numberOfStates + 1,
-                        lineNumber);
-            }
+            Arrays.fill(probabilities, 0.0d);
+            Arrays.fill(thinkTimes, null);
+            boolean rowHasThinkTimes = false;
 
-            String stateName = this.removeQuotes(tokenizer.nextToken().trim());
+            // a line which is not blank has at least one field;
+            reader.nextField();
+
+            String stateName = reader.getString(true);
 
             // is the state marked as entry state?
             if ( stateName.endsWith("*") ) {
 
                 stateName = stateName.substring(0, stateName.length() - 1);
+
+                if ( !stateNames2Ids.containsKey(stateName) ) {
+
+                    this.error("Unknown state \"%s\" in line %d, column %d.",
+                            stateName, lineNumber, reader.getColumn());
+                }
+
                 this.entryState = stateNames2Ids.get(stateName);
 
                 if (foundEntryState) {
@@ -595,74 +804,103 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
 
             if ( !stateNames2Ids.containsKey(stateName) ) {
 
-                this.error("Unknown state \"%s\".", stateName);
+                this.error("Unknown state \"%s\" in line %d, column %d.",
+                        stateName, lineNumber, reader.getColumn());
             }
 
-            this.warnIfStateIsDuplicateOccurrence(stateName, foundStateNames);
-            foundStateNames.add(stateName);
-
-            for (int i = 0; tokenizer.hasMoreTokens(); i++) {
+            this.warnIfStateIsDuplicateOccurrence(
+                    stateName, foundStateNames, reader);
 
-                Double probability = 0.0d;
-                ThinkTime thinkTime;
-
-                final String token = tokenizer.nextToken();
+            int i = 0;
 
-                final String[] subTokens =
-                        token.split(BehaviorMixEntry.PROBABILITY_TT_SEPARATOR);
+            for (; reader.nextField(); i++) {
 
-                if (subTokens.length == 0) {
+                if (i == numberOfStates) {
 
-                    this.error("No probability value defined for state \"%s\" "
-                            + "in line %d.", stateName, lineNumber);
+                    // +1 ~ first column (state names);
+                    this.error("Invalid column count (found: %d, expected: %d) in line %d.",
+                            reader.countFields(),
+                            numberOfStates + 1,
+                            lineNumber);
                 }
 
-                final String probabilityString = subTokens[0];
+                double probability = 0.0d;
+                ThinkTime thinkTime;
 
                 try {
 
-                    // might throw a (NullPointer- or) NumberFormatException;
-                    probability = Double.parseDouble(probabilityString);
+                    // might throw a NumberFormatException;
+                    probability = reader.getDouble();
 
                 } catch (final NumberFormatException ex) {
 
                     this.error(
-                            "Invalid probability definition in line %d (\"%s\").",
+                            "Invalid probability definition in line %d, column %d (\"%s\").",
                             lineNumber,
-                            probabilityString);
+                            reader.getColumn(),
+                            reader.getString(false));
                 }
 
                 // think times to exit state can be ignored;
                 final String headerStateName = stateNames.get(i);
 
                 // !this.isExitState(...) ~ ignore think time to exit state;
-                if (subTokens.length >= 2 &&
+                final String thinkTimeStr = reader.getSuffix();
+
+                if (thinkTimeStr != null &&
                         (!BehaviorMixEntry.THINK_TIMES_TO_EXIT_STATE_OPTIONAL ||
                                 !this.isExitState(headerStateName))) {
 
-                    final String thinkTimeStr = subTokens[1];
+                    if (thinkTimeStr == lastThinkTimeStr) {  // same instance;
+
+                        thinkTime = lastThinkTime;
+
+                    } else {
+
+                        thinkTime = ThinkTimeParser.parse(thinkTimeStr);
 
-                    thinkTime = ThinkTimeParser.parse(thinkTimeStr);
+                        if (thinkTime == null) {
 
-                    if (thinkTime == null) {
+                            this.error(
+                                    "Invalid think time definition in line %d, column %d (\"%s\").",
+                                    lineNumber,
+                                    reader.getColumn(),
+                                    thinkTimeStr);
+                        }
 
-                        this.error(
-                                "Invalid think time definition in line %d (\"%s\").",
-                                lineNumber,
-                                thinkTimeStr);
+                        lastThinkTimeStr = thinkTimeStr;
+                        lastThinkTime = thinkTime;
+
+                        if (thinkTime instanceof EmpiricalThinkTime) {
+
+                            this.usesEmpiricalThinkTimes = true;
+                        }
+
+                        if (this.thinkTimeDefinitions != null) {
+
+                            this.thinkTimeDefinitions.put(thinkTime, thinkTimeStr);
+                        }
                     }
 
                     this.usesThinkTimes = true;
                     thinkTimesNum++;
-                    thinkTimeMap.put(stateIds.get(i), thinkTime);
+                    rowHasThinkTimes = true;
+                    thinkTimes[columnIndices[i]] = thinkTime;
                 }
 
-                probabilityMap.put(stateIds.get(i), probability);
+                probabilities[columnIndices[i]] = probability;
             }
 
-            // ensure that either none or all think times have been defined;
-            final int rows = lineNumber - 1;
+            // +1 ~ first column (state names);
+            if (i != numberOfStates) {
 
+                this.error("Invalid column count (found: %d, expected: %d) in line %d.",
+                        i + 1,
+                        numberOfStates + 1,
+                        lineNumber);
+            }
+
+            // ensure that either none or all think times have been defined;
             int statesPerRow = numberOfStates;
 
             if (BehaviorMixEntry.THINK_TIMES_TO_EXIT_STATE_OPTIONAL) {
@@ -678,10 +916,20 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
                         lineNumber);
             }
 
-            this.probabilityMaps.put(stateNames2Ids.get(stateName), probabilityMap);
-            this.thinkTimeMaps.put(stateNames2Ids.get(stateName), thinkTimeMap);
+            builder.setRow(
+                    model.getStateIndex(stateNames2Ids.get(stateName)),
+                    probabilities,
+                    rowHasThinkTimes ? thinkTimes : null);
         }
 
+        this.transitionMatrix = builder.build();
+
+        this.info("Stored %d non-zero transition probabilities of %d states "
+                + "in %s layout.",
+                this.transitionMatrix.getNonZeroCount(),
+                size,
+                this.transitionMatrix.isSparse() ? "sparse" : "dense");
+
         // TODO: ensure that not multiple think time distributions are used;
 
         this.info(this.usesThinkTimes ?
@@ -696,19 +944,79 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
 
     /**
      * Instantiates the behavior model by reading the model information from
-     * file.
+     * file. Afterwards, the transition probabilities are aligned to the
+     * transitions of the given application model; rows without any guards
+     * are precomputed into alias tables.
      *
-     * @param stateNames2Ids maps state names to their IDs.
+     * @param model the compiled application model.
      * @throws BehaviorException when an errors occurs.
      */
-    public synchronized void initializeModel(Map<String,Integer> stateNames2Ids) throws BehaviorException{
+    public synchronized void initializeModel(CompiledApplicationModel model) throws BehaviorException{
 
-        this.probabilityMaps.clear();
-        this.thinkTimeMaps.clear();
-        this.loadFile(stateNames2Ids);
+        this.transitionMatrix = null;
+        this.applicationModel = model;
+        this.loadFile(model);
+        this.entryStateIndex = model.getStateIndex(this.entryState);
+        this.compileRows(model);
         this.initialized = true;
     }
 
+    /**
+     * Aligns the transition probabilities of all states to the transitions
+     * of the given application model.
+     *
+     * @param model the compiled application model.
+     */
+    private void compileRows (final CompiledApplicationModel model) {
+
+        final int numberOfStates = model.getStateCount();
+
+        this.compiledRows = new CompiledRow[numberOfStates];
+
+        for (int i = 1; i < numberOfStates; i++) {
+
+            final CompiledApplicationModel.CompiledState state = model.getState(i);
+
+            // slot 0 ~ exit state, slot k + 1 ~ transition at position k;
+            final double[] probabilities = new double[state.size() + 1];
+
+            if (this.transitionMatrix.isRowDefined(i)) {
+
+                probabilities[0] = this.getProbability(
+                        i, CompiledApplicationModel.EXIT_STATE_INDEX);
+
+                for (int k = 0; k < state.size(); k++) {
+
+                    if (!state.disabled[k]) {
+
+                        probabilities[k + 1] =
+                                this.getProbability(i, state.destinations[k]);
+                    }
+                }
+            }
+
+            this.compiledRows[i] = new CompiledRow(
+                    probabilities,
+                    state.unconditional);
+        }
+    }
+
+    /**
+     * Returns the probability for a transition to the given state, whereas
+     * non-positive and undefined probabilities are mapped to 0.
+     *
+     * @param src  the index of the source state.
+     * @param dst  the index of the destination state.
+     *
+     * @return  the probability.
+     */
+    private double getProbability (final int src, final int dst) {
+
+        final double probability = this.transitionMatrix.getProbability(src, dst);
+
+        return (probability > 0) ? probability : 0.0d;
+    }
+
     /**
      * Returns the ID of the entry state.
      *
@@ -723,6 +1031,21 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
         return this.entryState;
     }
 
+    /**
+     * Returns the index of the entry state within the compiled application
+     * model.
+     *
+     * @return the index.
+     */
+    public int getEntryStateIndex() {
+
+        if (!initialized)
+
+            BehaviorMixEntry.logger.fatalError("Behavior mix not yet initialized");
+
+        return this.entryStateIndex;
+    }
+
     /**
      * Clears the behavior entry.
      */
@@ -731,11 +1054,59 @@ public class BehaviorMixEntry extends AbstractTestElement implements Serializabl
 
         this.initialized = false;
 
-        if (this.probabilityMaps != null) // required for distributed mode
-            this.probabilityMaps.clear();
+        this.transitionMatrix = null;
+        this.applicationModel = null;
+        this.compiledRows = null;
+    }
+
+
+    /**
+     * Transition probabilities of a single source state, aligned to the
+     * transitions of the compiled application model: slot 0 denotes the exit
+     * state, slot <i>k + 1</i> denotes the transition at position <i>k</i>.
+     * Instances are immutable.
+     */
+    static final class CompiledRow {
+
+        /** Probability of each slot; 0 for disabled transitions. */
+        final double[] probabilities;
+
+        /** Cumulative probabilities of all slots. */
+        final double[] cumProbs;
+
+        /** Alias table over all slots; <code>null</code> if any transition
+         *  is guarded, or if no slot has a positive probability. */
+        final AliasTable aliasTable;
+
+        /** Alias table over all slots regardless of guards, used for lazy
+         *  guard evaluation; <code>null</code> if no slot has a positive
+         *  probability. */
+        final AliasTable samplingTable;
+
+        /**
+         * Creates a new compiled row.
+         *
+         * @param probabilities  the probabilities of all slots.
+         * @param unconditional
+         *     <code>true</code> if and only if none of the transitions is
+         *     guarded, which allows sampling from an alias table.
+         */
+        CompiledRow (final double[] probabilities, final boolean unconditional) {
 
-        if (this.thinkTimeMaps != null) // required for distributed mode
-            this.thinkTimeMaps.clear();
+            this.probabilities = probabilities;
+            this.cumProbs = new double[probabilities.length];
+
+            double curCumProb = 0.0d;
+
+            for (int i = 0; i < probabilities.length; i++) {
+
+                curCumProb += probabilities[i];
+                this.cumProbs[i] = curCumProb;
+            }
+
+            this.samplingTable = AliasTable.create(probabilities);
+            this.aliasTable = unconditional ? this.samplingTable : null;
+        }
     }
 }
 
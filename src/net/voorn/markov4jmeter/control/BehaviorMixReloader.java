@@ -0,0 +1,477 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.control;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * <p>Reloads behavior models and changes the behavior mix during a test
+ * run, e.g., for shifting the navigation profile of a soak test without
+ * restarting it.</p>
+ *
+ * <p>Behavior mixes register themselves when they are initialized. A
+ * background thread reloads them if</p>
+ * <ul>
+ *   <li>a reload is requested via the MBean registered as
+ *       {@link #OBJECT_NAME}, which also allows to override relative
+ *       frequencies;</li>
+ *   <li>the value of the JMeter property {@link #TRIGGER_PROPERTY} changes,
+ *       e.g., via <code>__setProperty</code>;</li>
+ *   <li>the property {@link #WATCH_FILES_PROPERTY} is <code>true</code> and
+ *       any behavior file of a mix has been modified; a file is only
+ *       reloaded once its modification time has been stable for one polling
+ *       interval.</li>
+ * </ul>
+ *
+ * <p>On each reload, relative frequencies are taken from the test plan,
+ * overridden by the property {@link #WEIGHTS_PROPERTY}, e.g.,
+ * <code>Browser=0.7,Buyer=0.3</code>, and then by the frequencies set via
+ * JMX. Unchanged behavior files are taken from the
+ * {@link BehaviorModelCache}. The reloaded models are swapped in by
+ * {@link BehaviorMix#reload(Map)}; if loading fails, the previous models
+ * remain in use.</p>
+ */
+public final class BehaviorMixReloader implements BehaviorMixReloaderMBean {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** Name of the property whose changes trigger a reload. */
+    public static final String TRIGGER_PROPERTY = "markov4jmeter.reloadTrigger";
+
+    /** Name of the property which overrides relative frequencies. */
+    public static final String WEIGHTS_PROPERTY = "markov4jmeter.mixWeights";
+
+    /** Name of the property which enables watching behavior files. */
+    public static final String WATCH_FILES_PROPERTY = "markov4jmeter.watchBehaviorFiles";
+
+    /** Name of the property which defines the polling interval (ms). */
+    public static final String INTERVAL_PROPERTY = "markov4jmeter.reloadInterval";
+
+    /** Default polling interval (ms). */
+    private static final long DEFAULT_INTERVAL = 1000;
+
+    /** Name of the MBean. */
+    public static final String OBJECT_NAME = "net.voorn.markov4jmeter:type=BehaviorMixReloader";
+
+    /** The only instance of this class. */
+    private static final BehaviorMixReloader instance = new BehaviorMixReloader();
+
+    /** Behavior mixes initialized during the test run. */
+    private final List<BehaviorMix> mixes = new CopyOnWriteArrayList<BehaviorMix>();
+
+    /** Relative frequencies set via JMX, mapped by behavior name. */
+    private final Map<String,Double> frequencies = new HashMap<String,Double>();
+
+    /** Modification times of modified mixes, awaiting stability. */
+    private final Map<BehaviorMix,Long> pendingModifications =
+            new IdentityHashMap<BehaviorMix,Long>();
+
+    /** Modification times of mixes whose reload has failed. */
+    private final Map<BehaviorMix,Long> failedModifications =
+            new IdentityHashMap<BehaviorMix,Long>();
+
+    /** Thread performing the reloads; null if not running. */
+    private Thread thread = null;
+
+    /** Whether a reload of all mixes has been requested. */
+    private boolean reloadRequested = false;
+
+    /** Value of the trigger property when last checked. */
+    private String triggerValue = null;
+
+    /** Whether behavior files are watched. */
+    private boolean watchFiles = false;
+
+    /** Polling interval (ms). */
+    private long interval = DEFAULT_INTERVAL;
+
+    /** Number of successful reloads. */
+    private volatile int reloadCount = 0;
+
+    /** Outcome of the last reload. */
+    private volatile String lastStatus = "No reload yet";
+
+
+    /**
+     * Private constructor, since the class is used in singleton mode.
+     */
+    private BehaviorMixReloader () { }
+
+    /**
+     * Returns the only instance of this class.
+     *
+     * @return  the reloader of the test run.
+     */
+    public static BehaviorMixReloader getInstance () {
+
+        return BehaviorMixReloader.instance;
+    }
+
+    /**
+     * Reads the properties, starts the reloading thread and registers the
+     * MBean; must be called on test start.
+     */
+    static void testStarted () {
+
+        final BehaviorMixReloader reloader = BehaviorMixReloader.instance;
+
+        synchronized (reloader) {
+
+            reloader.watchFiles = JMeterUtils.getPropDefault(
+                    BehaviorMixReloader.WATCH_FILES_PROPERTY, false);
+            reloader.interval = Math.max(10, JMeterUtils.getPropDefault(
+                    BehaviorMixReloader.INTERVAL_PROPERTY,
+                    BehaviorMixReloader.DEFAULT_INTERVAL));
+            reloader.triggerValue = JMeterUtils.getPropDefault(
+                    BehaviorMixReloader.TRIGGER_PROPERTY, (String) null);
+
+            if (reloader.thread == null) {
+
+                reloader.mixes.clear();
+                reloader.frequencies.clear();
+                reloader.pendingModifications.clear();
+                reloader.failedModifications.clear();
+                reloader.reloadRequested = false;
+                reloader.reloadCount = 0;
+                reloader.lastStatus = "No reload yet";
+
+                reloader.thread = new Thread(new Runnable() {
+
+                    public void run () {
+
+                        reloader.poll(Thread.currentThread());
+                    }
+
+                }, "Markov4JMeter-Reloader");
+
+                reloader.thread.setDaemon(true);
+                reloader.thread.start();
+            }
+        }
+
+        try {
+
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(BehaviorMixReloader.OBJECT_NAME);
+
+            if (!server.isRegistered(name)) {
+
+                server.registerMBean(reloader, name);
+            }
+
+        } catch (final JMException ex) {
+
+            BehaviorMixReloader.logger.warn("Could not register MBean "
+                    + BehaviorMixReloader.OBJECT_NAME + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Stops the reloading thread, releases all mixes and unregisters the
+     * MBean; must be called on test end.
+     */
+    static void testEnded () {
+
+        final BehaviorMixReloader reloader = BehaviorMixReloader.instance;
+
+        synchronized (reloader) {
+
+            if (reloader.thread != null) {
+
+                reloader.thread.interrupt();
+                reloader.thread = null;
+            }
+
+            reloader.mixes.clear();
+            reloader.pendingModifications.clear();
+            reloader.failedModifications.clear();
+        }
+
+        try {
+
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(BehaviorMixReloader.OBJECT_NAME);
+
+            if (server.isRegistered(name)) {
+
+                server.unregisterMBean(name);
+            }
+
+        } catch (final JMException ex) {
+
+            BehaviorMixReloader.logger.warn("Could not unregister MBean "
+                    + BehaviorMixReloader.OBJECT_NAME + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Registers a behavior mix for being reloaded.
+     *
+     * @param mix  the initialized behavior mix.
+     */
+    void register (final BehaviorMix mix) {
+
+        if (!this.mixes.contains(mix)) {
+
+            this.mixes.add(mix);
+        }
+    }
+
+    @Override
+    public synchronized void reload () {
+
+        this.reloadRequested = true;
+        this.notifyAll();
+    }
+
+    @Override
+    public synchronized void setRelativeFrequency (
+            final String behavior,
+            final double rfreq) {
+
+        if (!(rfreq >= 0) || Double.isInfinite(rfreq)) {
+
+            throw new IllegalArgumentException(
+                    "relative frequency must be non-negative and finite: " + rfreq);
+        }
+
+        this.frequencies.put(behavior, rfreq);
+        this.reload();
+    }
+
+    @Override
+    public synchronized void resetRelativeFrequencies () {
+
+        this.frequencies.clear();
+        this.reload();
+    }
+
+    @Override
+    public int getReloadCount () {
+
+        return this.reloadCount;
+    }
+
+    @Override
+    public String getLastReloadStatus () {
+
+        return this.lastStatus;
+    }
+
+    /**
+     * Checks for reload requests until the given thread is replaced or
+     * interrupted.
+     *
+     * @param self  the current thread.
+     */
+    private void poll (final Thread self) {
+
+        while (true) {
+
+            final boolean reloadAll;
+            final boolean watch;
+
+            synchronized (this) {
+
+                try {
+
+                    if (!this.reloadRequested) {
+
+                        this.wait(this.interval);
+                    }
+
+                } catch (final InterruptedException ex) {
+
+                    return;
+                }
+
+                if (this.thread != self) {
+
+                    return;
+                }
+
+                final String value = JMeterUtils.getPropDefault(
+                        BehaviorMixReloader.TRIGGER_PROPERTY, (String) null);
+
+                if (value != null && !value.equals(this.triggerValue)) {
+
+                    BehaviorMixReloader.logger.info("Property "
+                            + BehaviorMixReloader.TRIGGER_PROPERTY
+                            + " changed; reloading behavior mixes.");
+                    this.reloadRequested = true;
+                }
+
+                this.triggerValue = value;
+                reloadAll = this.reloadRequested;
+                this.reloadRequested = false;
+                watch = this.watchFiles;
+            }
+
+            for (final BehaviorMix mix : this.mixes) {
+
+                if (reloadAll) {
+
+                    this.reload(mix);
+
+                } else if (watch && mix.isModified()) {
+
+                    this.reloadIfStable(mix);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reloads a modified behavior mix, once the modification time of its
+     * files has been stable for one polling interval; a failed reload is
+     * not repeated until the files are modified again.
+     *
+     * @param mix  the modified behavior mix.
+     */
+    private void reloadIfStable (final BehaviorMix mix) {
+
+        final Long modification = mix.getLatestModification();
+
+        if (modification.equals(this.failedModifications.get(mix))) {
+
+            return;
+        }
+
+        if (!modification.equals(this.pendingModifications.put(mix, modification))) {
+
+            return;  // wait for another interval;
+        }
+
+        BehaviorMixReloader.logger.info("Behavior files modified; reloading behavior mix.");
+
+        if (!this.reload(mix)) {
+
+            this.failedModifications.put(mix, modification);
+        }
+    }
+
+    /**
+     * Reloads a behavior mix, applying the overridden relative frequencies.
+     *
+     * @param mix  the behavior mix.
+     *
+     * @return  <code>true</code> if and only if the reload succeeded.
+     */
+    private boolean reload (final BehaviorMix mix) {
+
+        this.pendingModifications.remove(mix);
+
+        final Map<String,Double> overrides = BehaviorMixReloader.readWeights();
+
+        synchronized (this) {
+
+            overrides.putAll(this.frequencies);
+        }
+
+        final long start = System.currentTimeMillis();
+
+        try {
+
+            mix.reload(overrides);
+
+            this.failedModifications.remove(mix);
+            this.reloadCount++;
+            this.lastStatus = "Reloaded " + mix.getBehaviorMixAsList().size()
+                    + " behavior models in "
+                    + (System.currentTimeMillis() - start) + " ms";
+
+            BehaviorMixReloader.logger.info(this.lastStatus);
+
+            return true;
+
+        } catch (final BehaviorException ex) {
+
+            this.lastStatus = "Reload failed, keeping previous models: "
+                    + ex.getMessage();
+
+            BehaviorMixReloader.logger.error(this.lastStatus);
+
+            return false;
+        }
+    }
+
+    /**
+     * Reads the relative frequencies defined by the property
+     * {@link #WEIGHTS_PROPERTY}.
+     *
+     * @return  the frequencies, mapped by behavior name.
+     */
+    private static Map<String,Double> readWeights () {
+
+        final Map<String,Double> weights = new HashMap<String,Double>();
+        final String value = JMeterUtils.getPropDefault(
+                BehaviorMixReloader.WEIGHTS_PROPERTY, (String) null);
+
+        if (value == null) {
+
+            return weights;
+        }
+
+        for (final String weight : value.split(",")) {
+
+            final int separator = weight.lastIndexOf('=');
+
+            try {
+
+                if (separator <= 0) {
+
+                    throw new NumberFormatException();
+                }
+
+                final double rfreq =
+                        Double.parseDouble(weight.substring(separator + 1).trim());
+
+                if (!(rfreq >= 0) || Double.isInfinite(rfreq)) {
+
+                    throw new NumberFormatException();
+                }
+
+                weights.put(weight.substring(0, separator).trim(), rfreq);
+
+            } catch (final NumberFormatException ex) {
+
+                if (weight.trim().length() > 0) {
+
+                    BehaviorMixReloader.logger.warn("Invalid weight \"" + weight
+                            + "\" in property " + BehaviorMixReloader.WEIGHTS_PROPERTY
+                            + "; will be ignored.");
+                }
+            }
+        }
+
+        return weights;
+    }
+}
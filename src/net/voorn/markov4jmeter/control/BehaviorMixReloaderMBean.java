@@ -0,0 +1,58 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.control;
+
+/**
+ * Management interface of the {@link BehaviorMixReloader}, for reloading
+ * behavior models and changing the behavior mix during a test run via JMX.
+ */
+public interface BehaviorMixReloaderMBean {
+
+    /**
+     * Requests all behavior mixes to be reloaded in the background.
+     */
+    void reload ();
+
+    /**
+     * Overrides the relative frequency of a behavior in all behavior mixes
+     * and requests them to be reloaded in the background.
+     *
+     * @param behavior  the name of the behavior.
+     * @param rfreq     a non-negative relative frequency.
+     */
+    void setRelativeFrequency (String behavior, double rfreq);
+
+    /**
+     * Removes all relative frequencies set via JMX and requests the
+     * behavior mixes to be reloaded in the background.
+     */
+    void resetRelativeFrequencies ();
+
+    /**
+     * Returns the number of successful reloads during the test run.
+     *
+     * @return  the number of reloads.
+     */
+    int getReloadCount ();
+
+    /**
+     * Returns the outcome of the last reload.
+     *
+     * @return  a status message.
+     */
+    String getLastReloadStatus ();
+}
@@ -0,0 +1,542 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.control;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * <p>JVM-wide cache of loaded behavior models, which survives the end of a
+ * test run, so that subsequent runs within the same JMeter instance (GUI
+ * or server) do not need to parse unchanged behavior files again.</p>
+ *
+ * <p>Models are cached per file and application model, i.e., the state
+ * names in index order. A cached model is reused if the file's size and
+ * modification time are unchanged. Otherwise, the file's content hash is
+ * compared with the hash of the cached content, so that a touched but
+ * unchanged file is not parsed again either, while any modified file is
+ * reloaded.</p>
+ *
+ * <p>The cache is bounded by a memory budget, in megabytes, which is set
+ * via the JMeter property {@link #CACHE_SIZE_PROPERTY} and defaults to an
+ * eighth of the maximum heap size; 0 disables the cache. Least recently
+ * used models are evicted first. Models referring to empirical think time
+ * files are not cached, since those files might change independently.</p>
+ */
+public final class BehaviorModelCache {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** Name of the JMeter property which defines the memory budget (MB). */
+    public static final String CACHE_SIZE_PROPERTY = "markov4jmeter.modelCacheSize";
+
+    /** Assumed memory occupied by an entry apart from the matrix. */
+    private static final long ENTRY_OVERHEAD = 256;
+
+    /** Algorithm of the content hash. */
+    private static final String HASH_ALGORITHM = "MD5";
+
+    /** Cached models, mapped by canonical file path, in access order. */
+    private static final LinkedHashMap<String,Entry> entries =
+            new LinkedHashMap<String,Entry>(16, 0.75f, true);
+
+    /** Estimated memory occupied by all cached models. */
+    private static long totalSize = 0;
+
+
+    /**
+     * Private constructor, since all methods are static.
+     */
+    private BehaviorModelCache () { }
+
+    /**
+     * Returns the cached model of the given file, if the file is unchanged
+     * and has been loaded for the same application model before.
+     *
+     * @param file   the behavior file.
+     * @param model  the application model.
+     *
+     * @return  the cached model, or <code>null</code> if none is available.
+     */
+    static Model get (final File file, final CompiledApplicationModel model) {
+
+        if (BehaviorModelCache.getBudget() <= 0) {
+
+            return null;
+        }
+
+        final String key = BehaviorModelCache.getKey(file);
+
+        if (key == null) {
+
+            return null;
+        }
+
+        final Entry entry;
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+
+        synchronized (BehaviorModelCache.entries) {
+
+            entry = BehaviorModelCache.entries.get(key);
+
+            if (entry == null
+                    || !Arrays.equals(entry.stateNames,
+                            BehaviorModelCache.getStateNames(model))) {
+
+                return null;
+            }
+
+            if (entry.length == length && entry.lastModified == lastModified) {
+
+                return entry.model;
+            }
+
+            if (entry.length != length) {
+
+                BehaviorModelCache.remove(key);
+                return null;
+            }
+        }
+
+        // modified or touched; compare the content;
+        final byte[] hash = BehaviorModelCache.hash(file);
+
+        synchronized (BehaviorModelCache.entries) {
+
+            if (BehaviorModelCache.entries.get(key) != entry) {
+
+                return null;  // replaced in the meantime;
+            }
+
+            if (hash != null && Arrays.equals(entry.hash, hash)) {
+
+                entry.lastModified = lastModified;
+                return entry.model;
+            }
+
+            BehaviorModelCache.remove(key);
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds a loaded model to the cache, evicting least recently used models
+     * if the memory budget is exceeded. The model is not cached if the file
+     * has been modified since it was loaded.
+     *
+     * @param file          the behavior file.
+     * @param length        the file size before loading.
+     * @param lastModified  the modification time before loading.
+     * @param model         the application model.
+     * @param loaded        the loaded model.
+     */
+    static void put (
+            final File file,
+            final long length,
+            final long lastModified,
+            final CompiledApplicationModel model,
+            final Model loaded) {
+
+        final long budget = BehaviorModelCache.getBudget();
+
+        if (budget <= 0) {
+
+            return;
+        }
+
+        final long size = loaded.transitionMatrix.getEstimatedSize()
+                + BehaviorModelCache.ENTRY_OVERHEAD;
+
+        if (size > budget) {
+
+            BehaviorModelCache.logger.info("Behavior model \"" + file
+                    + "\" exceeds the model cache size and will not be cached.");
+            return;
+        }
+
+        final String key = BehaviorModelCache.getKey(file);
+        final byte[] hash = BehaviorModelCache.hash(file);
+
+        if (key == null || hash == null
+                || file.length() != length || file.lastModified() != lastModified) {
+
+            return;
+        }
+
+        final Entry entry = new Entry(
+                length, lastModified, hash,
+                BehaviorModelCache.getStateNames(model), loaded, size);
+
+        synchronized (BehaviorModelCache.entries) {
+
+            BehaviorModelCache.remove(key);
+            BehaviorModelCache.entries.put(key, entry);
+            BehaviorModelCache.totalSize += size;
+
+            final Iterator<Map.Entry<String,Entry>> iterator =
+                    BehaviorModelCache.entries.entrySet().iterator();
+
+            while (BehaviorModelCache.totalSize > budget && iterator.hasNext()) {
+
+                final Map.Entry<String,Entry> eldest = iterator.next();
+
+                if (eldest.getValue() != entry) {
+
+                    BehaviorModelCache.totalSize -= eldest.getValue().size;
+                    iterator.remove();
+
+                    BehaviorModelCache.logger.info("Evicted behavior model \""
+                            + eldest.getKey() + "\" from the model cache.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all cached models.
+     */
+    public static void clear () {
+
+        synchronized (BehaviorModelCache.entries) {
+
+            BehaviorModelCache.entries.clear();
+            BehaviorModelCache.totalSize = 0;
+        }
+    }
+
+    /**
+     * Returns the number of cached models.
+     *
+     * @return  the number of models.
+     */
+    public static int size () {
+
+        synchronized (BehaviorModelCache.entries) {
+
+            return BehaviorModelCache.entries.size();
+        }
+    }
+
+    /**
+     * Returns the estimated memory occupied by all cached models.
+     *
+     * @return  the size in bytes.
+     */
+    public static long getEstimatedSize () {
+
+        synchronized (BehaviorModelCache.entries) {
+
+            return BehaviorModelCache.totalSize;
+        }
+    }
+
+    /**
+     * Removes the entry with the given key; must be called while holding
+     * the lock of the entries.
+     *
+     * @param key  the key of the entry.
+     */
+    private static void remove (final String key) {
+
+        final Entry entry = BehaviorModelCache.entries.remove(key);
+
+        if (entry != null) {
+
+            BehaviorModelCache.totalSize -= entry.size;
+        }
+    }
+
+    /**
+     * Returns the memory budget, as defined by the JMeter property
+     * {@link #CACHE_SIZE_PROPERTY}.
+     *
+     * @return  the budget in bytes; 0 if the cache is disabled.
+     */
+    private static long getBudget () {
+
+        final String value =
+                JMeterUtils.getPropDefault(CACHE_SIZE_PROPERTY, (String) null);
+
+        if (value != null) {
+
+            try {
+
+                return Math.max(0, Long.parseLong(value.trim())) * 1024 * 1024;
+
+            } catch (final NumberFormatException ex) {
+
+                BehaviorModelCache.logger.warn("Invalid value of property "
+                        + CACHE_SIZE_PROPERTY + " (\"" + value
+                        + "\"); will use the default size.");
+            }
+        }
+
+        return Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    /**
+     * Returns the key of the given file.
+     *
+     * @param file  the file.
+     *
+     * @return  the canonical path, or <code>null</code> if it cannot be
+     *          determined.
+     */
+    private static String getKey (final File file) {
+
+        try {
+
+            return file.getCanonicalPath();
+
+        } catch (final IOException ex) {
+
+            return null;
+        }
+    }
+
+    /**
+     * Returns the state names of the given application model in index
+     * order.
+     *
+     * @param model  the application model.
+     *
+     * @return  the state names.
+     */
+    private static String[] getStateNames (final CompiledApplicationModel model) {
+
+        final String[] stateNames = new String[model.getStateCount()];
+
+        for (int i = 0; i < stateNames.length; i++) {
+
+            stateNames[i] = model.getStateName(i);
+        }
+
+        return stateNames;
+    }
+
+    /**
+     * Computes the content hash of the given file.
+     *
+     * @param file  the file.
+     *
+     * @return  the hash, or <code>null</code> if the file cannot be read.
+     */
+    private static byte[] hash (final File file) {
+
+        try {
+
+            final MessageDigest digest =
+                    MessageDigest.getInstance(BehaviorModelCache.HASH_ALGORITHM);
+            final InputStream in = new FileInputStream(file);
+
+            try {
+
+                final byte[] buffer = new byte[65536];
+
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+
+                    digest.update(buffer, 0, n);
+                }
+
+            } finally {
+
+                in.close();
+            }
+
+            return digest.digest();
+
+        } catch (final IOException ex) {
+
+            return null;
+
+        } catch (final NoSuchAlgorithmException ex) {
+
+            // every Java platform supports MD5;
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    /**
+     * Main method which loads a behavior file twice, for two application
+     * models with equal state names but renumbered state IDs, as assigned
+     * by different test plans; for testing purposes only. The second load
+     * must be served from the cache and yield the same entry state.
+     *
+     * @param argv  arguments; not used.
+     *
+     * @throws Exception  if loading fails.
+     */
+    public static void main (final String[] argv) throws Exception {
+
+        final String[] names = { "Login", "Browse", "Logout" };
+        final File file = File.createTempFile("m4j-cache", ".csv");
+        file.deleteOnExit();
+
+        final PrintWriter writer = new PrintWriter(new FileWriter(file));
+
+        try {
+
+            writer.println(",\"Login\",\"Browse\",\"Logout\",\"$\"");
+            writer.println("\"Login\",0.0,1.0,0.0,0.0");
+            writer.println("\"Browse*\",0.0,0.5,0.5,0.0");
+            writer.println("\"Logout\",0.0,0.0,0.0,1.0");
+
+        } finally {
+
+            writer.close();
+        }
+
+        BehaviorModelCache.clear();
+
+        final BehaviorMixEntry first = new BehaviorMixEntry("first", 1.0, file.getPath());
+        final BehaviorMixEntry second = new BehaviorMixEntry("second", 1.0, file.getPath());
+
+        first.initializeModel(BehaviorModelCache.createModel(names, 100));
+
+        final CompiledApplicationModel renumbered =
+                BehaviorModelCache.createModel(names, 7000);
+
+        second.initializeModel(renumbered);
+
+        final boolean cached =
+                second.getTransitionMatrix() == first.getTransitionMatrix();
+        final boolean entryState =
+                second.getEntryStateIndex() == first.getEntryStateIndex()
+                && renumbered.getStateId(second.getEntryStateIndex())
+                        == second.getEntryState();
+
+        System.out.println("cache hit: " + cached
+                + ", entry state after renumbering: "
+                + (entryState ? "ok" : "WRONG"));
+
+        if (!cached || !entryState) {
+
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates an application model without transitions; for testing
+     * purposes only.
+     *
+     * @param names    the state names.
+     * @param firstId  the ID of the first state; IDs ascend from there.
+     *
+     * @return  the compiled application model.
+     */
+    private static CompiledApplicationModel createModel (
+            final String[] names,
+            final int firstId) {
+
+        final List<ApplicationState> states = new ArrayList<ApplicationState>();
+
+        for (int i = 0; i < names.length; i++) {
+
+            final ApplicationState state = new ApplicationState();
+
+            state.setName(names[i]);
+            state.setId(firstId + i);
+            state.setTransitions(new ApplicationStateTransitions());
+            states.add(state);
+        }
+
+        return CompiledApplicationModel.compile(states);
+    }
+
+    /**
+     * A loaded behavior model, as stored in the cache; instances are
+     * immutable.
+     */
+    static final class Model {
+
+        /** Transition probabilities and think times. */
+        final TransitionMatrix transitionMatrix;
+
+        /** Index of the entry state; state IDs are not stable among test
+         *  plans with equal state names, state indices are. */
+        final int entryStateIndex;
+
+        /** Whether think times are defined. */
+        final boolean usesThinkTimes;
+
+        /**
+         * Creates a new model.
+         *
+         * @param transitionMatrix  the transition matrix.
+         * @param entryStateIndex   the index of the entry state.
+         * @param usesThinkTimes    whether think times are defined.
+         */
+        Model (
+                final TransitionMatrix transitionMatrix,
+                final int entryStateIndex,
+                final boolean usesThinkTimes) {
+
+            this.transitionMatrix = transitionMatrix;
+            this.entryStateIndex = entryStateIndex;
+            this.usesThinkTimes = usesThinkTimes;
+        }
+    }
+
+    /**
+     * A cache entry, describing the cached file content.
+     */
+    private static final class Entry {
+
+        final long length;
+        long lastModified;
+        final byte[] hash;
+        final String[] stateNames;
+        final Model model;
+        final long size;
+
+        Entry (
+                final long length,
+                final long lastModified,
+                final byte[] hash,
+                final String[] stateNames,
+                final Model model,
+                final long size) {
+
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.stateNames = stateNames;
+            this.model = model;
+            this.size = size;
+        }
+    }
+}
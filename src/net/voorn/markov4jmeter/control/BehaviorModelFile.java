@@ -0,0 +1,748 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.control;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import net.voorn.markov4jmeter.util.MappedCsvReader;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * <p>Reads and writes precompiled behavior models (<code>.m4jb</code>
+ * files), which can be loaded without parsing a behavior CSV file.</p>
+ *
+ * <p>A file consists of a magic number, a format version, the length of
+ * the payload, the payload and its CRC32 checksum. The payload holds the
+ * state names in dense index order, the entry state, the distinct think
+ * time definitions, and the non-zero probabilities of each row together
+ * with the indices of their think time definitions. State names are mapped
+ * to the states of the application model when loading, exactly like the
+ * header of a CSV file. Alias tables are not stored, since they depend on
+ * the transitions and guards of the application model; they are built
+ * from the loaded rows in linear time.</p>
+ *
+ * <p>Files are created by {@link #compile(File, List, File)}, which is
+ * also available from the command line:</p>
+ *
+ * <pre>
+ * java net.voorn.markov4jmeter.control.BehaviorModelFile behavior.csv [behavior.m4jb]
+ * </pre>
+ */
+public final class BehaviorModelFile {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** Extension of precompiled behavior model files. */
+    public static final String FILE_EXTENSION = ".m4jb";
+
+    /** Magic number, the ASCII characters "M4JB". */
+    private static final int MAGIC = 0x4D344A42;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Number of bytes preceding the payload. */
+    private static final int HEADER_SIZE = 12;
+
+    /** Symbol of the exit state. */
+    private static final String EXIT_STATE_SYMBOL = "$";
+
+    /** Transition probabilities and think times of the loaded model. */
+    private final TransitionMatrix transitionMatrix;
+
+    /** ID of the entry state. */
+    private final int entryState;
+
+    /** Whether think times are defined. */
+    private final boolean usesThinkTimes;
+
+    /** Whether any think time refers to an empirical distribution file. */
+    private final boolean usesEmpiricalThinkTimes;
+
+    /**
+     * Creates a new instance holding a loaded model.
+     *
+     * @param transitionMatrix  the transition matrix.
+     * @param entryState        the ID of the entry state.
+     * @param usesThinkTimes    whether think times are defined.
+     * @param usesEmpiricalThinkTimes
+     *     whether any think time refers to an empirical distribution file.
+     */
+    private BehaviorModelFile (
+            final TransitionMatrix transitionMatrix,
+            final int entryState,
+            final boolean usesThinkTimes,
+            final boolean usesEmpiricalThinkTimes) {
+
+        this.transitionMatrix = transitionMatrix;
+        this.entryState = entryState;
+        this.usesThinkTimes = usesThinkTimes;
+        this.usesEmpiricalThinkTimes = usesEmpiricalThinkTimes;
+    }
+
+    /**
+     * Returns the transition probabilities and think times, indexed by the
+     * state indices of the application model passed for loading.
+     *
+     * @return  the transition matrix.
+     */
+    public TransitionMatrix getTransitionMatrix () {
+
+        return this.transitionMatrix;
+    }
+
+    /**
+     * Returns the ID of the entry state.
+     *
+     * @return  the ID.
+     */
+    public int getEntryState () {
+
+        return this.entryState;
+    }
+
+    /**
+     * Returns whether think times are defined.
+     *
+     * @return  <code>true</code> if and only if think times are defined.
+     */
+    public boolean usesThinkTimes () {
+
+        return this.usesThinkTimes;
+    }
+
+    /**
+     * Returns whether any think time refers to an empirical distribution
+     * file.
+     *
+     * @return  <code>true</code> if and only if empirical think times are
+     *          defined.
+     */
+    public boolean usesEmpiricalThinkTimes () {
+
+        return this.usesEmpiricalThinkTimes;
+    }
+
+    /**
+     * Checks whether the given filename denotes a precompiled behavior
+     * model.
+     *
+     * @param filename  the filename to be checked; might be
+     *                  <code>null</code>.
+     *
+     * @return  <code>true</code> if and only if the filename ends with
+     *          {@link #FILE_EXTENSION}.
+     */
+    public static boolean isCompiled (final String filename) {
+
+        return filename != null && filename.toLowerCase().endsWith(
+                BehaviorModelFile.FILE_EXTENSION);
+    }
+
+    /**
+     * Compiles a behavior CSV file into a precompiled behavior model.
+     *
+     * @param csvFile     the behavior CSV file.
+     * @param stateNames
+     *     the names of the states of the application model, excluding the
+     *     exit state; if <code>null</code>, the states named in the header
+     *     of the CSV file are used.
+     * @param outputFile
+     *     the file to be written; if <code>null</code>, the CSV file's name
+     *     with extension {@link #FILE_EXTENSION} is used.
+     *
+     * @return  the written file.
+     *
+     * @throws BehaviorException if the CSV file is invalid.
+     * @throws IOException if any file cannot be read or written.
+     */
+    public static File compile (
+            final File csvFile,
+            List<String> stateNames,
+            File outputFile) throws BehaviorException, IOException {
+
+        if (stateNames == null) {
+
+            stateNames = BehaviorModelFile.readStateNames(csvFile);
+        }
+
+        if (outputFile == null) {
+
+            String name = csvFile.getName();
+            final int dot = name.lastIndexOf('.');
+
+            if (dot > 0) {
+
+                name = name.substring(0, dot);
+            }
+
+            outputFile = new File(
+                    csvFile.getAbsoluteFile().getParentFile(),
+                    name + BehaviorModelFile.FILE_EXTENSION);
+        }
+
+        // the application model assigns the indices 1..n in the given order;
+        final List<ApplicationState> states = new ArrayList<ApplicationState>();
+
+        for (int i = 0; i < stateNames.size(); i++) {
+
+            final ApplicationState state = new ApplicationState();
+
+            state.setName(stateNames.get(i));
+            state.setId(i + 1);
+            state.setTransitions(new ApplicationStateTransitions());
+            states.add(state);
+        }
+
+        final CompiledApplicationModel model =
+                CompiledApplicationModel.compile(states);
+
+        final Map<ThinkTime,String> definitions =
+                new IdentityHashMap<ThinkTime,String>();
+
+        final BehaviorMixEntry behavior =
+                new BehaviorMixEntry(csvFile.getName(), 1.0d, csvFile.getPath());
+
+        behavior.setThinkTimeDefinitions(definitions);
+        behavior.initializeModel(model);
+
+        final byte[] payload = BehaviorModelFile.createPayload(
+                csvFile,
+                model,
+                behavior.getTransitionMatrix(),
+                behavior.getEntryStateIndex(),
+                behavior.usesThinkTimes(),
+                definitions);
+
+        BehaviorModelFile.write(outputFile, payload);
+
+        return outputFile;
+    }
+
+    /**
+     * Reads the state names from the header line of a behavior CSV file.
+     *
+     * @param csvFile  the behavior CSV file.
+     *
+     * @return  the state names, excluding the exit state.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    private static List<String> readStateNames (final File csvFile)
+            throws IOException {
+
+        final Set<String> stateNames = new LinkedHashSet<String>();
+        final MappedCsvReader reader = new MappedCsvReader(csvFile, ',', ';');
+
+        try {
+
+            if (reader.nextLine()) {
+
+                while (reader.nextField()) {
+
+                    final String stateName = reader.getString(true);
+
+                    if (!BehaviorModelFile.EXIT_STATE_SYMBOL.equals(stateName)) {
+
+                        stateNames.add(stateName);
+                    }
+                }
+            }
+
+        } finally {
+
+            reader.close();
+        }
+
+        return new ArrayList<String>(stateNames);
+    }
+
+    /**
+     * Serializes a loaded behavior model.
+     *
+     * @param csvFile         the source file.
+     * @param model           the application model.
+     * @param matrix          the transition matrix.
+     * @param entryIndex      the index of the entry state.
+     * @param usesThinkTimes  whether think times are defined.
+     * @param definitions     the definitions of all think times.
+     *
+     * @return  the payload.
+     *
+     * @throws IOException if the payload cannot be written.
+     */
+    private static byte[] createPayload (
+            final File csvFile,
+            final CompiledApplicationModel model,
+            final TransitionMatrix matrix,
+            final int entryIndex,
+            final boolean usesThinkTimes,
+            final Map<ThinkTime,String> definitions) throws IOException {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final int size = model.getStateCount();
+
+        // source file, for detecting outdated files;
+        out.writeUTF(csvFile.getAbsolutePath());
+        out.writeLong(csvFile.lastModified());
+        out.writeLong(csvFile.length());
+
+        // states; index 0 ~ exit state;
+        out.writeInt(size);
+
+        for (int i = 1; i < size; i++) {
+
+            out.writeUTF(model.getStateName(i));
+        }
+
+        out.writeInt(entryIndex);
+        out.writeBoolean(usesThinkTimes);
+
+        // distinct think time definitions;
+        final Map<String,Integer> definitionIndices =
+                new LinkedHashMap<String,Integer>();
+
+        if (usesThinkTimes) {
+
+            for (int src = 1; src < size; src++) {
+
+                for (int dst = 0; dst < size; dst++) {
+
+                    final ThinkTime thinkTime = matrix.getThinkTime(src, dst);
+
+                    if (thinkTime != null && matrix.getProbability(src, dst) != 0) {
+
+                        final String definition = definitions.get(thinkTime);
+
+                        if (!definitionIndices.containsKey(definition)) {
+
+                            definitionIndices.put(definition, definitionIndices.size());
+                        }
+                    }
+                }
+            }
+        }
+
+        out.writeInt(definitionIndices.size());
+
+        for (final String definition : definitionIndices.keySet()) {
+
+            out.writeUTF(definition);
+        }
+
+        // rows;
+        int definedRows = 0;
+
+        for (int src = 1; src < size; src++) {
+
+            if (matrix.isRowDefined(src)) {
+
+                definedRows++;
+            }
+        }
+
+        out.writeInt(definedRows);
+
+        final int[] columns = new int[size];
+
+        for (int src = 1; src < size; src++) {
+
+            if (!matrix.isRowDefined(src)) {
+
+                continue;
+            }
+
+            int count = 0;
+
+            for (int dst = 0; dst < size; dst++) {
+
+                if (matrix.getProbability(src, dst) != 0) {
+
+                    columns[count++] = dst;
+                }
+            }
+
+            out.writeInt(src);
+            out.writeInt(count);
+
+            for (int k = 0; k < count; k++) {
+
+                out.writeInt(columns[k]);
+                out.writeDouble(matrix.getProbability(src, columns[k]));
+
+                if (usesThinkTimes) {
+
+                    final ThinkTime thinkTime = matrix.getThinkTime(src, columns[k]);
+
+                    out.writeInt((thinkTime != null) ?
+                            definitionIndices.get(definitions.get(thinkTime)) :
+                            -1);
+                }
+            }
+        }
+
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the given payload, framed by header and checksum.
+     *
+     * @param file     the file to be written.
+     * @param payload  the payload.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    private static void write (final File file, final byte[] payload)
+            throws IOException {
+
+        final CRC32 crc = new CRC32();
+
+        crc.update(payload);
+
+        final OutputStream stream = new FileOutputStream(file);
+
+        try {
+
+            final DataOutputStream out = new DataOutputStream(stream);
+
+            out.writeInt(BehaviorModelFile.MAGIC);
+            out.writeInt(BehaviorModelFile.VERSION);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeInt((int) crc.getValue());
+            out.flush();
+
+        } finally {
+
+            stream.close();
+        }
+    }
+
+    /**
+     * Loads a precompiled behavior model, mapping its states to the states
+     * of the given application model.
+     *
+     * @param file   the precompiled behavior model.
+     * @param model  the application model.
+     *
+     * @return  the loaded model.
+     *
+     * @throws BehaviorException
+     *     if the file is corrupt, of an unsupported version, or does not
+     *     match the application model.
+     * @throws IOException if the file cannot be read.
+     */
+    public static BehaviorModelFile read (
+            final File file,
+            final CompiledApplicationModel model)
+                    throws BehaviorException, IOException {
+
+        final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(BehaviorModelFile.readPayload(file)));
+
+        try {
+
+            return BehaviorModelFile.readPayload(in, model);
+
+        } catch (final EOFException ex) {
+
+            throw new BehaviorException("Corrupt file: unexpected end of payload.");
+        }
+    }
+
+    /**
+     * Reads the payload of the given file, checking header and checksum.
+     *
+     * @param file  the file to be read.
+     *
+     * @return  the payload.
+     *
+     * @throws BehaviorException if the file is corrupt or of an unsupported
+     *     version.
+     * @throws IOException if the file cannot be read.
+     */
+    private static byte[] readPayload (final File file)
+            throws BehaviorException, IOException {
+
+        final long length = file.length();
+        final InputStream stream = new FileInputStream(file);
+
+        try {
+
+            final DataInputStream in = new DataInputStream(stream);
+
+            if (length < BehaviorModelFile.HEADER_SIZE + 4
+                    || in.readInt() != BehaviorModelFile.MAGIC) {
+
+                throw new BehaviorException(
+                        "Not a precompiled behavior model.");
+            }
+
+            final int version = in.readInt();
+
+            if (version != BehaviorModelFile.VERSION) {
+
+                throw new BehaviorException(String.format(
+                        "Unsupported file format version %d (expected: %d); "
+                        + "please recompile the behavior model.",
+                        version, BehaviorModelFile.VERSION));
+            }
+
+            final int payloadLength = in.readInt();
+
+            if (payloadLength < 0
+                    || payloadLength != length - BehaviorModelFile.HEADER_SIZE - 4) {
+
+                throw new BehaviorException(
+                        "Corrupt file: invalid payload length.");
+            }
+
+            final byte[] payload = new byte[payloadLength];
+
+            in.readFully(payload);
+
+            final CRC32 crc = new CRC32();
+
+            crc.update(payload);
+
+            if (in.readInt() != (int) crc.getValue()) {
+
+                throw new BehaviorException("Corrupt file: checksum mismatch.");
+            }
+
+            return payload;
+
+        } finally {
+
+            stream.close();
+        }
+    }
+
+    /**
+     * Reads a verified payload.
+     *
+     * @param in     the stream providing the payload.
+     * @param model  the application model.
+     *
+     * @return  the loaded model.
+     *
+     * @throws BehaviorException if the payload does not match the
+     *     application model.
+     * @throws IOException if the payload is truncated.
+     */
+    private static BehaviorModelFile readPayload (
+            final DataInputStream in,
+            final CompiledApplicationModel model)
+                    throws BehaviorException, IOException {
+
+        final String source = in.readUTF();
+        final long sourceLastModified = in.readLong();
+        final long sourceLength = in.readLong();
+
+        final File sourceFile = new File(source);
+
+        if (sourceFile.isFile() && (sourceFile.lastModified() != sourceLastModified
+                || sourceFile.length() != sourceLength)) {
+
+            BehaviorModelFile.logger.warn("Source file \"" + source
+                    + "\" has been modified since the behavior model was "
+                    + "compiled; the compiled model will be used anyway.");
+        }
+
+        // map the stored indices to the indices of the application model;
+        final Map<String,Integer> stateNames2Ids = model.getStateNames2Ids();
+        final int size = in.readInt();
+
+        if (size - 1 != stateNames2Ids.size()) {
+
+            throw new BehaviorException(String.format(
+                    "Invalid number of states (found: %d, expected: %d).",
+                    size - 1, stateNames2Ids.size()));
+        }
+
+        final int[] indices = new int[size];
+
+        indices[0] = CompiledApplicationModel.EXIT_STATE_INDEX;
+
+        for (int i = 1; i < size; i++) {
+
+            final String stateName = in.readUTF();
+            final Integer id = stateNames2Ids.get(stateName);
+
+            if (id == null) {
+
+                throw new BehaviorException(String.format(
+                        "Unknown state \"%s\".", stateName));
+            }
+
+            indices[i] = model.getStateIndex(id);
+        }
+
+        final int entryIndex = BehaviorModelFile.checkIndex(in.readInt(), size);
+        final boolean usesThinkTimes = in.readBoolean();
+
+        final ThinkTime[] definedThinkTimes = new ThinkTime[in.readInt()];
+        boolean usesEmpiricalThinkTimes = false;
+
+        for (int i = 0; i < definedThinkTimes.length; i++) {
+
+            final String definition = in.readUTF();
+
+            definedThinkTimes[i] = ThinkTimeParser.parse(definition);
+
+            if (definedThinkTimes[i] == null) {
+
+                throw new BehaviorException(String.format(
+                        "Invalid think time definition (\"%s\").", definition));
+            }
+
+            usesEmpiricalThinkTimes |=
+                    definedThinkTimes[i] instanceof EmpiricalThinkTime;
+        }
+
+        final int modelSize = model.getStateCount();
+        final TransitionMatrix.Builder builder =
+                new TransitionMatrix.Builder(modelSize);
+
+        final double[] probabilities = new double[modelSize];
+        final ThinkTime[] thinkTimes =
+                usesThinkTimes ? new ThinkTime[modelSize] : null;
+
+        final int rows = in.readInt();
+
+        for (int r = 0; r < rows; r++) {
+
+            final int src = BehaviorModelFile.checkIndex(in.readInt(), size);
+            final int count = in.readInt();
+
+            Arrays.fill(probabilities, 0.0d);
+
+            if (thinkTimes != null) {
+
+                Arrays.fill(thinkTimes, null);
+            }
+
+            for (int k = 0; k < count; k++) {
+
+                final int dst = indices[BehaviorModelFile.checkIndex(in.readInt(), size)];
+
+                probabilities[dst] = in.readDouble();
+
+                if (thinkTimes != null) {
+
+                    final int definition = in.readInt();
+
+                    if (definition >= 0) {
+
+                        thinkTimes[dst] = definedThinkTimes[
+                                BehaviorModelFile.checkIndex(definition,
+                                        definedThinkTimes.length)];
+                    }
+                }
+            }
+
+            builder.setRow(indices[src], probabilities, thinkTimes);
+        }
+
+        return new BehaviorModelFile(
+                builder.build(),
+                model.getStateId(indices[entryIndex]),
+                usesThinkTimes,
+                usesEmpiricalThinkTimes);
+    }
+
+    /**
+     * Checks whether the given index is within the given bounds.
+     *
+     * @param index  the index to be checked.
+     * @param size   the exclusive upper bound.
+     *
+     * @return  the index.
+     *
+     * @throws BehaviorException if the index is out of bounds.
+     */
+    private static int checkIndex (final int index, final int size)
+            throws BehaviorException {
+
+        if (index < 0 || index >= size) {
+
+            throw new BehaviorException("Corrupt file: index out of bounds.");
+        }
+
+        return index;
+    }
+
+    /**
+     * Compiles the behavior CSV file passed as first argument; the output
+     * file might be passed as second argument.
+     *
+     * @param argv  the arguments.
+     */
+    public static void main (final String[] argv) {
+
+        if (argv.length < 1 || argv.length > 2) {
+
+            System.err.println("Usage: java " + BehaviorModelFile.class.getName()
+                    + " <behavior.csv> [<behavior" + FILE_EXTENSION + ">]");
+            System.exit(1);
+        }
+
+        try {
+
+            final long start = System.currentTimeMillis();
+
+            final File output = BehaviorModelFile.compile(
+                    new File(argv[0]),
+                    null,
+                    (argv.length > 1) ? new File(argv[1]) : null);
+
+            System.out.println("Compiled \"" + argv[0] + "\" into \"" + output
+                    + "\" (" + output.length() + " bytes) in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+
+        } catch (final Exception ex) {
+
+            System.err.println("Compilation failed: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,800 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TreeSet;
+
+import net.voorn.markov4jmeter.control.expression.Expression;
+import net.voorn.markov4jmeter.control.expression.ExpressionCompiler;
+import net.voorn.markov4jmeter.control.expression.ExpressionException;
+
+import org.apache.jmeter.engine.util.CompoundVariable;
+import org.apache.jmeter.testelement.property.FunctionProperty;
+import org.apache.jmeter.testelement.property.JMeterProperty;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * <p>Frozen representation of the application model, i.e. the
+ * ApplicationStates of a MarkovController and their outgoing transitions
+ * (during test execution).</p>
+ *
+ * <p>An instance is compiled once per application at test start and shared
+ * by all thread clones of the MarkovController. Each state is assigned an
+ * index, whereas index 0 denotes the exit state; the transitions of a state
+ * are stored in primitive arrays, ordered as in the test plan. Guards and
+ * actions which do not contain any JMeter variable or function references
+ * are pre-parsed; all others need to be requested from the thread's own
+ * ApplicationStateTransition, since their values depend on the thread
+ * context.</p>
+ *
+ * <p>Guards and action expressions which consist of simple comparisons,
+ * logical and arithmetic operations, literals and plain variable references
+ * are additionally compiled by the {@link ExpressionCompiler}, so that they
+ * can be evaluated without the JavaScript engine. This also applies to
+ * dynamic guards and actions, whose variable references are then resolved
+ * against the current variable values.</p>
+ *
+ * <p>Instances of this class are immutable and therewith thread-safe.</p>
+ */
+public final class CompiledApplicationModel {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** Index of the exit state. */
+    public static final int EXIT_STATE_INDEX = 0;
+
+    /** ID of the exit state, as used within behavior models. */
+    public static final int EXIT_STATE_ID = 0;
+
+    /** Maps state indices to the (persisted) state IDs. */
+    private final int[] stateIds;
+
+    /** Maps state indices to the state names. */
+    private final String[] stateNames;
+
+    /** Maps state IDs to state indices. */
+    private final Map<Integer,Integer> stateIndices;
+
+    /** Maps state names to state IDs (without the exit state). */
+    private final Map<String,Integer> stateNames2Ids;
+
+    /** Compiled transitions of each state; entry 0 (exit state) is null. */
+    private final CompiledState[] states;
+
+    /** Maximum number of outgoing transitions of any state. */
+    private final int maxTransitionCount;
+
+    /** Total number of transitions of all states. */
+    private final int transitionCount;
+
+    /** Names of all variables read by natively compiled guards, indexed by
+     *  variable index. */
+    private final String[] guardVariableNames;
+
+    /**
+     * Creates a new instance; use {@link #compile(List)} for creating
+     * instances.
+     */
+    private CompiledApplicationModel(
+            final int[] stateIds,
+            final String[] stateNames,
+            final Map<Integer,Integer> stateIndices,
+            final Map<String,Integer> stateNames2Ids,
+            final CompiledState[] states,
+            final int maxTransitionCount,
+            final int transitionCount,
+            final String[] guardVariableNames) {
+
+        this.stateIds = stateIds;
+        this.stateNames = stateNames;
+        this.stateIndices = stateIndices;
+        this.stateNames2Ids = stateNames2Ids;
+        this.states = states;
+        this.maxTransitionCount = maxTransitionCount;
+        this.transitionCount = transitionCount;
+        this.guardVariableNames = guardVariableNames;
+    }
+
+    /**
+     * Compiles the given ApplicationStates into a new model instance. The
+     * states are indexed in the given order, starting with index 1.
+     *
+     * @param applicationStates
+     *     the ApplicationStates, as located underneath a MarkovController.
+     *
+     * @return
+     *     a valid instance of {@link CompiledApplicationModel}.
+     */
+    public static CompiledApplicationModel compile (
+            final List<ApplicationState> applicationStates) {
+
+        final int numberOfStates = applicationStates.size() + 1;
+
+        final int[] stateIds = new int[numberOfStates];
+        final String[] stateNames = new String[numberOfStates];
+        final Map<Integer,Integer> stateIndices =
+                new HashMap<Integer,Integer>(numberOfStates * 2);
+        final Map<String,Integer> stateNames2Ids =
+                new HashMap<String,Integer>(numberOfStates * 2);
+
+        stateIds[EXIT_STATE_INDEX] = EXIT_STATE_ID;
+        stateNames[EXIT_STATE_INDEX] = "$";
+        stateIndices.put(EXIT_STATE_ID, EXIT_STATE_INDEX);
+
+        for (int i = 1; i < numberOfStates; i++) {
+
+            final ApplicationState state = applicationStates.get(i - 1);
+
+            stateIds[i] = state.getId();
+            stateNames[i] = state.getName();
+            stateIndices.put(state.getId(), i);
+            stateNames2Ids.put(state.getName(), state.getId());
+        }
+
+        final CompiledState[] states = new CompiledState[numberOfStates];
+        int maxTransitionCount = 0;
+        int transitionCount = 0;
+
+        // indices of all variables read by natively compiled guards;
+        final Map<String,Integer> variableIndices =
+                new LinkedHashMap<String,Integer>();
+
+        for (int i = 1; i < numberOfStates; i++) {
+
+            states[i] = CompiledApplicationModel.compileState(
+                    applicationStates.get(i - 1),
+                    stateIndices,
+                    variableIndices,
+                    transitionCount);
+
+            maxTransitionCount =
+                    Math.max(maxTransitionCount, states[i].size());
+            transitionCount += states[i].size();
+        }
+
+        return new CompiledApplicationModel(
+                stateIds,
+                stateNames,
+                Collections.unmodifiableMap(stateIndices),
+                Collections.unmodifiableMap(stateNames2Ids),
+                states,
+                maxTransitionCount,
+                transitionCount,
+                variableIndices.keySet().toArray(new String[variableIndices.size()]));
+    }
+
+    /**
+     * Compiles the outgoing transitions of a single state.
+     *
+     * @param state         the state whose transitions shall be compiled.
+     * @param stateIndices  maps state IDs to state indices.
+     * @param variableIndices
+     *     maps the names of variables read by guards to variable indices;
+     *     will be extended by the variables of this state's guards.
+     * @param transitionOffset
+     *     number of transitions of all previously compiled states.
+     *
+     * @return  a valid instance of {@link CompiledState}.
+     */
+    private static CompiledState compileState (
+            final ApplicationState state,
+            final Map<Integer,Integer> stateIndices,
+            final Map<String,Integer> variableIndices,
+            final int transitionOffset) {
+
+        final ApplicationStateTransitions transitions = state.getTransitions();
+        final int size = transitions.getTransitionCount();
+
+        final int[] destinations = new int[size];
+        final boolean[] disabled = new boolean[size];
+        final String[] guards = new String[size];
+        final boolean[] dynamicGuards = new boolean[size];
+        final Expression[] guardExpressions = new Expression[size];
+        final int[][] guardDependencies = new int[size][];
+        final Set<Integer> dependencies = new TreeSet<Integer>();
+        final Statement[][] actions = new Statement[size][];
+
+        for (int i = 0; i < size; i++) {
+
+            final ApplicationStateTransition transition =
+                    transitions.getTransition(i);
+
+            final Integer dstIndex =
+                    stateIndices.get(transition.getDstStateId());
+
+            if (dstIndex == null) {
+
+                CompiledApplicationModel.logger.warn(
+                        "Transition of state \"" + state.getName() + "\" "
+                        + "targets unknown state ID "
+                        + transition.getDstStateId() + "; will be ignored.");
+
+                destinations[i] = -1;
+                disabled[i] = true;
+
+            } else {
+
+                destinations[i] = dstIndex.intValue();
+                disabled[i] = transition.isDisabled();
+            }
+
+            final JMeterProperty guard =
+                    transition.getProperty(ApplicationStateTransition.GUARD);
+
+            if ( CompiledApplicationModel.isDynamic(guard) ) {
+
+                dynamicGuards[i] = true;
+                guardExpressions[i] = CompiledApplicationModel.compileExpression(
+                        CompiledApplicationModel.getRawString(guard),
+                        "Guard",
+                        state);
+
+            } else {
+
+                final String guardString = guard.getStringValue();
+
+                // the empty guard is equivalent to "true";
+                guards[i] = "".equals(guardString) ? null : guardString;
+
+                if (guards[i] != null) {
+
+                    guardExpressions[i] = CompiledApplicationModel.compileExpression(
+                            guardString, "Guard", state);
+                }
+            }
+
+            if (guardExpressions[i] != null) {
+
+                guardDependencies[i] = CompiledApplicationModel.indexVariables(
+                        guardExpressions[i].getVariableNames(),
+                        variableIndices,
+                        dependencies);
+            }
+
+            final JMeterProperty action =
+                    transition.getProperty(ApplicationStateTransition.ACTION);
+
+            if ( !CompiledApplicationModel.isDynamic(action) ) {
+
+                actions[i] = CompiledApplicationModel.compileAction(
+                        action.getStringValue(), state);
+
+            } else {
+
+                // natively compiled only if no statement requires JMeter's
+                // own substitution;
+                actions[i] = CompiledApplicationModel.compileDynamicAction(
+                        CompiledApplicationModel.getRawString(action), state);
+            }
+        }
+
+        return new CompiledState(
+                destinations,
+                disabled,
+                guards,
+                dynamicGuards,
+                guardExpressions,
+                guardDependencies,
+                CompiledApplicationModel.toArray(dependencies),
+                transitionOffset,
+                actions);
+    }
+
+    /**
+     * Assigns indices to the given variable names.
+     *
+     * @param names            the variable names.
+     * @param variableIndices  maps variable names to indices; will be
+     *                         extended by any new names.
+     * @param dependencies     set to be extended by the assigned indices.
+     *
+     * @return  the indices of the given variables.
+     */
+    private static int[] indexVariables (
+            final Set<String> names,
+            final Map<String,Integer> variableIndices,
+            final Set<Integer> dependencies) {
+
+        final int[] indices = new int[names.size()];
+        int i = 0;
+
+        for (final String name : names) {
+
+            Integer index = variableIndices.get(name);
+
+            if (index == null) {
+
+                index = variableIndices.size();
+                variableIndices.put(name, index);
+            }
+
+            indices[i++] = index;
+            dependencies.add(index);
+        }
+
+        return indices;
+    }
+
+    /**
+     * Converts a set of integers into an array, in iteration order.
+     *
+     * @param set  the set to be converted.
+     *
+     * @return  the array.
+     */
+    private static int[] toArray (final Set<Integer> set) {
+
+        final int[] array = new int[set.size()];
+        int i = 0;
+
+        for (final Integer value : set) {
+
+            array[i++] = value;
+        }
+
+        return array;
+    }
+
+    /**
+     * Returns the raw value of a property, that is the value before any
+     * variable or function references have been substituted.
+     *
+     * @param property  the property whose raw value shall be returned.
+     *
+     * @return  the raw value.
+     */
+    private static String getRawString (final JMeterProperty property) {
+
+        final Object value = property.getObjectValue();
+
+        return (value instanceof CompoundVariable) ?
+                ((CompoundVariable) value).getRawParameters() :
+                property.getStringValue();
+    }
+
+    /**
+     * Compiles an expression natively, if possible, and logs which engine
+     * will be used for its evaluation.
+     *
+     * @param source  the expression to be compiled.
+     * @param kind    the kind of the expression, for logging purposes.
+     * @param state   the state whose transition contains the expression.
+     *
+     * @return  the compiled expression, or <code>null</code> if the
+     *          expression needs to be evaluated by the JavaScript engine.
+     */
+    private static Expression compileExpression (
+            final String source,
+            final String kind,
+            final ApplicationState state) {
+
+        try {
+
+            final Expression expression = ExpressionCompiler.compile(source);
+
+            CompiledApplicationModel.logger.info(
+                    kind + " \"" + source + "\" of state \"" + state.getName()
+                    + "\" will be evaluated natively.");
+
+            return expression;
+
+        } catch (final ExpressionException ex) {
+
+            CompiledApplicationModel.logger.info(
+                    kind + " \"" + source + "\" of state \"" + state.getName()
+                    + "\" will be evaluated by JavaScript ("
+                    + ex.getMessage() + ")");
+
+            return null;
+        }
+    }
+
+    /**
+     * Parses a static transition action and compiles its expressions
+     * natively, where possible.
+     *
+     * @param actionStr  the action String.
+     * @param state      the state whose transition contains the action.
+     *
+     * @return  the list of parsed statements.
+     */
+    private static Statement[] compileAction (
+            final String actionStr,
+            final ApplicationState state) {
+
+        final Statement[] statements =
+                CompiledApplicationModel.parseAction(actionStr);
+
+        for (int i = 0; i < statements.length; i++) {
+
+            final Statement statement = statements[i];
+
+            if (statement.expression != null) {
+
+                statements[i] = new Statement(
+                        statement.source,
+                        statement.variable,
+                        statement.expression,
+                        CompiledApplicationModel.compileExpression(
+                                statement.expression, "Action", state));
+            }
+        }
+
+        return statements;
+    }
+
+    /**
+     * Parses the raw value of a dynamic transition action; this succeeds
+     * only if all of its expressions can be compiled natively, since the
+     * JavaScript engine requires the values substituted by JMeter.
+     *
+     * @param rawActionStr  the raw action String.
+     * @param state         the state whose transition contains the action.
+     *
+     * @return  the list of parsed statements, or <code>null</code> if the
+     *          action needs to be requested from the thread context.
+     */
+    private static Statement[] compileDynamicAction (
+            final String rawActionStr,
+            final ApplicationState state) {
+
+        final Statement[] statements =
+                CompiledApplicationModel.compileAction(rawActionStr, state);
+
+        for (final Statement statement : statements) {
+
+            if (statement.compiled == null ||
+                    (statement.variable != null && statement.variable.indexOf('$') >= 0)) {
+
+                CompiledApplicationModel.logger.info(
+                        "Action \"" + rawActionStr + "\" of state \""
+                        + state.getName() + "\" will be evaluated by "
+                        + "JavaScript after substitution.");
+
+                return null;
+            }
+        }
+
+        return statements;
+    }
+
+    /**
+     * Checks whether the value of the given property depends on the thread
+     * context, which is the case if it contains any variable or function
+     * references.
+     *
+     * @param property  the property to be checked.
+     *
+     * @return
+     *     <code>true</code> if and only if the property value needs to be
+     *     evaluated for each request.
+     */
+    private static boolean isDynamic (final JMeterProperty property) {
+
+        return property instanceof FunctionProperty;
+    }
+
+    /**
+     * Parses a transition action, which is a list of variable assignments
+     * and function expressions separated by ';'. An invalid statement is
+     * represented by a statement without expression and terminates the list.
+     *
+     * @param actionStr  the action String.
+     *
+     * @return  the list of parsed statements.
+     */
+    static Statement[] parseAction (final String actionStr) {
+
+        final List<Statement> statements = new ArrayList<Statement>();
+
+        final StringTokenizer actionsTokenizer =
+                new StringTokenizer(actionStr, ";");
+
+        while ( actionsTokenizer.hasMoreTokens() ) {
+
+            final String curAction = actionsTokenizer.nextToken();
+
+            final StringTokenizer actionTokenizer =
+                    new StringTokenizer(curAction, "=");
+
+            final int count = actionTokenizer.countTokens();
+
+            if (count == 2) {
+
+                /** Assignment var=expr */
+                final String leftSide = actionTokenizer.nextToken().trim();
+                final String rightSide = actionTokenizer.nextToken().trim();
+
+                statements.add(new Statement(curAction, leftSide, rightSide));
+
+            } else if (count == 1) {
+
+                /** Function expression (e.g. a function call) */
+                statements.add(new Statement(
+                        curAction, null, actionTokenizer.nextToken().trim()));
+
+            } else {
+
+                statements.add(new Statement(curAction, null, null));
+                break;
+            }
+        }
+
+        return statements.toArray(new Statement[statements.size()]);
+    }
+
+    /**
+     * Returns the number of states, including the exit state.
+     *
+     * @return  the number of states.
+     */
+    public int getStateCount () {
+
+        return this.stateIds.length;
+    }
+
+    /**
+     * Returns the index of the state with the given ID.
+     *
+     * @param stateId  the state ID.
+     *
+     * @return  the index, or -1 if the state is unknown.
+     */
+    public int getStateIndex (final int stateId) {
+
+        final Integer index = this.stateIndices.get(stateId);
+        return (index != null) ? index.intValue() : -1;
+    }
+
+    /**
+     * Returns the ID of the state with the given index.
+     *
+     * @param index  the state index.
+     *
+     * @return  the state ID.
+     */
+    public int getStateId (final int index) {
+
+        return this.stateIds[index];
+    }
+
+    /**
+     * Returns the name of the state with the given index.
+     *
+     * @param index  the state index.
+     *
+     * @return  the state name; the exit state is named "$".
+     */
+    public String getStateName (final int index) {
+
+        return this.stateNames[index];
+    }
+
+    /**
+     * Returns the map which assigns state IDs to state names; the exit state
+     * is not included.
+     *
+     * @return  an unmodifiable map.
+     */
+    public Map<String,Integer> getStateNames2Ids () {
+
+        return this.stateNames2Ids;
+    }
+
+    /**
+     * Returns the compiled transitions of the state with the given index.
+     *
+     * @param index  the state index; must not denote the exit state.
+     *
+     * @return  the compiled state.
+     */
+    CompiledState getState (final int index) {
+
+        return this.states[index];
+    }
+
+    /**
+     * Returns the maximum number of outgoing transitions of any state.
+     *
+     * @return  the maximum transition count.
+     */
+    public int getMaxTransitionCount () {
+
+        return this.maxTransitionCount;
+    }
+
+    /**
+     * Returns the total number of transitions of all states.
+     *
+     * @return  the transition count.
+     */
+    public int getTransitionCount () {
+
+        return this.transitionCount;
+    }
+
+    /**
+     * Returns the number of distinct variables read by natively compiled
+     * guards.
+     *
+     * @return  the variable count.
+     */
+    public int getGuardVariableCount () {
+
+        return this.guardVariableNames.length;
+    }
+
+    /**
+     * Returns the name of a variable read by natively compiled guards.
+     *
+     * @param index  the index of the variable.
+     *
+     * @return  the variable name.
+     */
+    public String getGuardVariableName (final int index) {
+
+        return this.guardVariableNames[index];
+    }
+
+
+    /**
+     * Outgoing transitions of a single state; each array is indexed by the
+     * position of the transition within the state's transition list.
+     */
+    static final class CompiledState {
+
+        /** Destination state indices; -1 for unknown states. */
+        final int[] destinations;
+
+        /** Disabled flags. */
+        final boolean[] disabled;
+
+        /** Static guards; <code>null</code> if a transition has no guard, or
+         *  if its guard is dynamic. */
+        final String[] guards;
+
+        /** Flags indicating guards which must be evaluated per request. */
+        final boolean[] dynamicGuards;
+
+        /** Natively compiled guards, static or dynamic ones; <code>null</code>
+         *  if a guard needs to be evaluated by the JavaScript engine. */
+        final Expression[] guardExpressions;
+
+        /** Indices of the variables read by each natively compiled guard;
+         *  <code>null</code> for guards whose dependencies are unknown. */
+        final int[][] guardDependencies;
+
+        /** Indices of all variables read by the natively compiled guards of
+         *  this state, in ascending order. */
+        final int[] dependencies;
+
+        /** Number of transitions of all states with lower index; offset
+         *  <i>+ k</i> uniquely identifies the transition at position
+         *  <i>k</i> within the model. */
+        final int transitionOffset;
+
+        /** Pre-parsed static actions; <code>null</code> for dynamic ones. */
+        final Statement[][] actions;
+
+        /** Flag indicating that no enabled transition has a guard. */
+        final boolean unconditional;
+
+        /**
+         * Creates a new compiled state.
+         */
+        CompiledState (
+                final int[] destinations,
+                final boolean[] disabled,
+                final String[] guards,
+                final boolean[] dynamicGuards,
+                final Expression[] guardExpressions,
+                final int[][] guardDependencies,
+                final int[] dependencies,
+                final int transitionOffset,
+                final Statement[][] actions) {
+
+            this.destinations = destinations;
+            this.disabled = disabled;
+            this.guards = guards;
+            this.dynamicGuards = dynamicGuards;
+            this.guardExpressions = guardExpressions;
+            this.guardDependencies = guardDependencies;
+            this.dependencies = dependencies;
+            this.transitionOffset = transitionOffset;
+            this.actions = actions;
+
+            boolean unconditional = true;
+
+            for (int i = 0; i < destinations.length; i++) {
+
+                if (!disabled[i] && (guards[i] != null || dynamicGuards[i])) {
+
+                    unconditional = false;
+                }
+            }
+
+            this.unconditional = unconditional;
+        }
+
+        /**
+         * Returns the number of outgoing transitions.
+         *
+         * @return  the transition count.
+         */
+        int size () {
+
+            return this.destinations.length;
+        }
+    }
+
+    /**
+     * A single statement of a transition action.
+     */
+    static final class Statement {
+
+        /** The statement as specified in the action String. */
+        final String source;
+
+        /** Name of the variable to be assigned; <code>null</code> for
+         *  function expressions. */
+        final String variable;
+
+        /** Expression to be evaluated; <code>null</code> for invalid
+         *  statements. */
+        final String expression;
+
+        /** Natively compiled expression; <code>null</code> if the expression
+         *  needs to be evaluated by the JavaScript engine. */
+        final Expression compiled;
+
+        /**
+         * Creates a new statement.
+         */
+        Statement (
+                final String source,
+                final String variable,
+                final String expression) {
+
+            this(source, variable, expression, null);
+        }
+
+        /**
+         * Creates a new statement with a natively compiled expression.
+         */
+        Statement (
+                final String source,
+                final String variable,
+                final String expression,
+                final Expression compiled) {
+
+            this.source = source;
+            this.variable = variable;
+            this.expression = expression;
+            this.compiled = compiled;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.voorn.markov4jmeter.control;
+
+/**
+ * This class represents a constant think time.
+ */
+public class ConstantThinkTime extends ThinkTime {
+
+    /** Function descriptor which indicates the distribution function type.
+     *  This must be <code>protected</code> for the {@link ThinkTimeParser},
+     *  which needs access to it for identifying think time types. */
+    protected final static String FUNCTION_DESCRIPTOR = "const";
+
+    /** Think time value which is greater or equal 0. */
+    private final double value;
+
+    /** Delay in milliseconds, rounded from the think time value. */
+    private final long delay;
+
+
+    /**
+     * Constructor for a constant think time.
+     *
+     * @param value
+     *     A <code>double</code> value which is greater or equal 0.
+     */
+    public ConstantThinkTime (final double value) {
+
+        this.value = value;
+        this.delay = Math.round(value);
+    }
+
+
+    /**
+     * Returns the think time value.
+     *
+     * @return A <code>double</code> value which is greater or equal 0.
+     */
+    public double getValue() {
+
+        return this.value;
+    }
+
+    @Override
+    public String getFunctionDescriptor () {
+
+        return ConstantThinkTime.FUNCTION_DESCRIPTOR;
+    }
+
+    @Override
+    public String toString () {
+
+        return ConstantThinkTime.FUNCTION_DESCRIPTOR +
+                "(value: " + this.value + ")";
+    }
+
+    @Override
+    public long getDelay() {
+
+        return this.delay;
+    }
+}
\ No newline at end of file
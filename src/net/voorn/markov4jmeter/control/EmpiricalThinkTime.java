@@ -0,0 +1,414 @@
+package net.voorn.markov4jmeter.control;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.voorn.markov4jmeter.util.RandomStream;
+import net.voorn.markov4jmeter.util.RandomStreams;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * This class represents a think time which follows an empirical
+ * distribution, as read from a file. The first line of the file, apart from
+ * empty lines and comments starting with '#', is a header which indicates
+ * the file type by its column names:
+ * <ul>
+ *   <li> <code>value,weight</code> -- histogram of discrete think times;
+ *   <li> <code>lower,upper,weight</code> -- histogram of bins, think times
+ *        are uniformly distributed within a bin;
+ *   <li> <code>quantile,value</code> -- quantile table with ascending
+ *        probabilities in [0, 1] and non-decreasing think times, which are
+ *        interpolated linearly.
+ * </ul>
+ * Columns might be separated by commas, semicolons or whitespace; weights
+ * do not need to be normalized. Histograms are sampled through an alias
+ * table, quantile tables by binary search. Files are loaded once and cached
+ * by path, so that all matrix cells which refer to the same file share one
+ * instance; a file is reloaded if it has been modified.
+ */
+public class EmpiricalThinkTime extends ThinkTime {
+
+    /** Function descriptor which indicates the distribution function type.
+     *  This must be <code>protected</code> for the {@link ThinkTimeParser},
+     *  which needs access to it for identifying think time types. */
+    protected final static String FUNCTION_DESCRIPTOR = "empirical";
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** Regular expression specifying the separator for columns. */
+    private final static String COLUMN_SEPARATOR = "[,;\\s]+";
+
+    /** Loaded think times, mapped by canonical file path. */
+    private final static ConcurrentMap<String,EmpiricalThinkTime> cache =
+            new ConcurrentHashMap<String,EmpiricalThinkTime>();
+
+    /** Path of the file, as specified. */
+    private final String path;
+
+    /** Modification time of the file when it was loaded. */
+    private final long lastModified;
+
+    /** Alias table over the histogram bins; <code>null</code> for quantile
+     *  tables. */
+    private final AliasTable aliasTable;
+
+    /** Histogram: lower bound of each bin; quantile table: probabilities. */
+    private final double[] keys;
+
+    /** Histogram: width of each bin, 0 for discrete values; quantile table:
+     *  think times. */
+    private final double[] values;
+
+
+    /**
+     * Constructor for an empirical think time; use {@link #load(String)} for
+     * creating instances.
+     */
+    private EmpiricalThinkTime (
+            final String path,
+            final long lastModified,
+            final AliasTable aliasTable,
+            final double[] keys,
+            final double[] values) {
+
+        this.path = path;
+        this.lastModified = lastModified;
+        this.aliasTable = aliasTable;
+        this.keys = keys;
+        this.values = values;
+    }
+
+
+    /**
+     * Returns the think time defined by the given file, loading the file if
+     * it has not been loaded before or has been modified since.
+     *
+     * @param path
+     *     Path of the histogram or quantile table file.
+     *
+     * @return
+     *     A valid instance of {@link EmpiricalThinkTime}, or
+     *     <code>null</code> if the file cannot be read or is invalid.
+     */
+    public static EmpiricalThinkTime load (final String path) {
+
+        final File file = new File(path);
+
+        String key;
+
+        try {
+
+            key = file.getCanonicalPath();
+
+        } catch (final IOException ex) {
+
+            key = file.getAbsolutePath();
+        }
+
+        final EmpiricalThinkTime cached = EmpiricalThinkTime.cache.get(key);
+
+        if (cached != null && cached.lastModified == file.lastModified()) {
+
+            return cached;
+        }
+
+        try {
+
+            final EmpiricalThinkTime thinkTime =
+                    EmpiricalThinkTime.read(path, file);
+
+            EmpiricalThinkTime.cache.put(key, thinkTime);
+
+            return thinkTime;
+
+        } catch (final IOException ex) {
+
+            EmpiricalThinkTime.logger.error("Could not load think time "
+                    + "distribution from \"" + path + "\": " + ex.getMessage());
+
+            return null;
+        }
+    }
+
+    /**
+     * Reads a histogram or quantile table file.
+     *
+     * @throws IOException  if the file cannot be read or is invalid.
+     */
+    private static EmpiricalThinkTime read (final String path, final File file)
+            throws IOException {
+
+        final long lastModified = file.lastModified();
+        final List<double[]> rows = new ArrayList<double[]>();
+
+        String header = null;
+        int lineNumber = 0;
+
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+
+                lineNumber++;
+                line = line.trim();
+
+                if (line.length() == 0 || line.startsWith("#")) {
+
+                    continue;
+                }
+
+                final String[] columns =
+                        line.split(EmpiricalThinkTime.COLUMN_SEPARATOR);
+
+                if (header == null) {
+
+                    header = EmpiricalThinkTime.join(columns).toLowerCase();
+                    continue;
+                }
+
+                final double[] row = new double[columns.length];
+
+                try {
+
+                    for (int i = 0; i < columns.length; i++) {
+
+                        row[i] = Double.parseDouble(columns[i]);
+
+                        if (Double.isNaN(row[i]) || Double.isInfinite(row[i])) {
+
+                            throw new NumberFormatException();
+                        }
+                    }
+
+                } catch (final NumberFormatException ex) {
+
+                    throw new IOException("Invalid number in line " + lineNumber);
+                }
+
+                rows.add(row);
+            }
+
+        } finally {
+
+            reader.close();
+        }
+
+        if (rows.isEmpty()) {
+
+            throw new IOException("No values defined");
+        }
+
+        if ("value,weight".equals(header)) {
+
+            return EmpiricalThinkTime.createHistogram(path, lastModified, rows, false);
+        }
+
+        if ("lower,upper,weight".equals(header)) {
+
+            return EmpiricalThinkTime.createHistogram(path, lastModified, rows, true);
+        }
+
+        if ("quantile,value".equals(header)) {
+
+            return EmpiricalThinkTime.createQuantileTable(path, lastModified, rows);
+        }
+
+        throw new IOException("Unknown header \"" + header + "\"");
+    }
+
+    /**
+     * Creates a think time from histogram rows.
+     *
+     * @throws IOException  if any row is invalid.
+     */
+    private static EmpiricalThinkTime createHistogram (
+            final String path,
+            final long lastModified,
+            final List<double[]> rows,
+            final boolean binned) throws IOException {
+
+        final int n = rows.size();
+        final int columns = binned ? 3 : 2;
+
+        final double[] lowers = new double[n];
+        final double[] widths = new double[n];
+        final double[] weights = new double[n];
+
+        for (int i = 0; i < n; i++) {
+
+            final double[] row = rows.get(i);
+
+            if (row.length != columns) {
+
+                throw new IOException("Row " + (i + 1) + " must have "
+                        + columns + " columns");
+            }
+
+            lowers[i] = row[0];
+            widths[i] = binned ? row[1] - row[0] : 0.0d;
+            weights[i] = row[columns - 1];
+
+            if (lowers[i] < 0 || widths[i] < 0 || weights[i] < 0) {
+
+                throw new IOException("Invalid values in row " + (i + 1));
+            }
+        }
+
+        final AliasTable aliasTable = AliasTable.create(weights);
+
+        if (aliasTable == null) {
+
+            throw new IOException("Weights do not sum up to a positive value");
+        }
+
+        return new EmpiricalThinkTime(path, lastModified, aliasTable, lowers, widths);
+    }
+
+    /**
+     * Creates a think time from quantile table rows.
+     *
+     * @throws IOException  if any row is invalid.
+     */
+    private static EmpiricalThinkTime createQuantileTable (
+            final String path,
+            final long lastModified,
+            final List<double[]> rows) throws IOException {
+
+        final int n = rows.size();
+
+        final double[] probabilities = new double[n];
+        final double[] thinkTimes = new double[n];
+
+        for (int i = 0; i < n; i++) {
+
+            final double[] row = rows.get(i);
+
+            if (row.length != 2) {
+
+                throw new IOException("Row " + (i + 1) + " must have 2 columns");
+            }
+
+            probabilities[i] = row[0];
+            thinkTimes[i] = row[1];
+
+            if (probabilities[i] < 0 || probabilities[i] > 1 || thinkTimes[i] < 0 ||
+                    (i > 0 && (probabilities[i] <= probabilities[i - 1] ||
+                               thinkTimes[i] < thinkTimes[i - 1]))) {
+
+                throw new IOException("Invalid values in row " + (i + 1) + "; "
+                        + "quantiles and values must be ascending");
+            }
+        }
+
+        return new EmpiricalThinkTime(path, lastModified, null, probabilities, thinkTimes);
+    }
+
+    /**
+     * Joins the given columns by commas.
+     */
+    private static String join (final String[] columns) {
+
+        final StringBuilder stringBuilder = new StringBuilder();
+
+        for (int i = 0; i < columns.length; i++) {
+
+            if (i > 0) {
+
+                stringBuilder.append(',');
+            }
+
+            stringBuilder.append(columns[i]);
+        }
+
+        return stringBuilder.toString();
+    }
+
+
+    /**
+     * Returns the path of the file which defines the distribution.
+     *
+     * @return A valid <code>String</code> instance.
+     */
+    public String getPath() {
+
+        return this.path;
+    }
+
+    @Override
+    public String getFunctionDescriptor () {
+
+        return EmpiricalThinkTime.FUNCTION_DESCRIPTOR;
+    }
+
+    @Override
+    public String toString () {
+
+        return EmpiricalThinkTime.FUNCTION_DESCRIPTOR +
+                "(file: " + this.path + ", " +
+                ((this.aliasTable != null) ? "bins: " : "quantiles: ") +
+                this.keys.length + ")";
+    }
+
+    @Override
+    public long getDelay() {
+
+        final RandomStream random = RandomStreams.current();
+
+        if (this.aliasTable != null) {
+
+            final int bin = this.aliasTable.sample(random.nextDouble());
+            final double width = this.values[bin];
+
+            return Math.round((width > 0) ?
+                    this.keys[bin] + width * random.nextDouble() :
+                    this.keys[bin]);
+        }
+
+        final double p = random.nextDouble();
+        final int last = this.keys.length - 1;
+
+        if (p <= this.keys[0]) {
+
+            return Math.round(this.values[0]);
+        }
+
+        if (p >= this.keys[last]) {
+
+            return Math.round(this.values[last]);
+        }
+
+        // binary search for the last quantile less than p;
+        int low = 0;
+        int high = last;
+
+        while (high - low > 1) {
+
+            final int mid = (low + high) >>> 1;
+
+            if (this.keys[mid] < p) {
+
+                low = mid;
+
+            } else {
+
+                high = mid;
+            }
+        }
+
+        final double fraction =
+                (p - this.keys[low]) / (this.keys[high] - this.keys[low]);
+
+        return Math.round(this.values[low] +
+                fraction * (this.values[high] - this.values[low]));
+    }
+}
\ No newline at end of file
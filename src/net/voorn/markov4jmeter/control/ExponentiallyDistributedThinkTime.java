@@ -0,0 +1,66 @@
+package net.voorn.markov4jmeter.control;
+
+import net.voorn.markov4jmeter.util.RandomStreams;
+
+/**
+ * This class represents an exponentially distributed think time, as
+ * resulting from users who act independently of the time already waited.
+ */
+public class ExponentiallyDistributedThinkTime extends ThinkTime {
+
+    /** Function descriptor which indicates the distribution function type.
+     *  This must be <code>protected</code> for the {@link ThinkTimeParser},
+     *  which needs access to it for identifying think time types. */
+    protected final static String FUNCTION_DESCRIPTOR = "exp";
+
+    /** Mean value which is greater or equal 0. */
+    private final double mean;
+
+
+    /**
+     * Constructor for an exponentially distributed think time with a mean
+     * value.
+     *
+     * @param mean
+     *     A <code>double</code> value which is greater or equal 0.
+     */
+    public ExponentiallyDistributedThinkTime (final double mean) {
+
+        this.mean = mean;
+    }
+
+
+    /**
+     * Returns the mean value.
+     *
+     * @return A <code>double</code> value which is greater or equal 0.
+     */
+    public double getMean() {
+
+        return this.mean;
+    }
+
+    @Override
+    public String getFunctionDescriptor () {
+
+        return ExponentiallyDistributedThinkTime.FUNCTION_DESCRIPTOR;
+    }
+
+    @Override
+    public String toString () {
+
+        return ExponentiallyDistributedThinkTime.FUNCTION_DESCRIPTOR +
+                "(mean: " + this.mean + ")";
+    }
+
+    @Override
+    public long getDelay() {
+
+        // inversion method; 1 - nextDouble() lies in (0, 1], thus the
+        // logarithm is finite;
+        final double value = -this.mean *
+                Math.log(1.0d - RandomStreams.current().nextDouble());
+
+        return Math.round(value);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package net.voorn.markov4jmeter.control;
+
+import net.voorn.markov4jmeter.util.RandomStreams;
+
+/**
+ * This class represents a log-normally distributed think time, i.e., the
+ * logarithm of the think time is normally distributed. The parameters refer
+ * to that normal distribution, not to the think time itself.
+ */
+public class LogNormallyDistributedThinkTime extends ThinkTime {
+
+    /** Function descriptor which indicates the distribution function type.
+     *  This must be <code>protected</code> for the {@link ThinkTimeParser},
+     *  which needs access to it for identifying think time types. */
+    protected final static String FUNCTION_DESCRIPTOR = "lognorm";
+
+    /** Mean value of the logarithm. */
+    private final double mu;
+
+    /** Standard deviation of the logarithm, greater or equal 0. */
+    private final double sigma;
+
+
+    /**
+     * Constructor for a log-normally distributed think time with the mean
+     * and standard deviation of the logarithm.
+     *
+     * @param mu
+     *     Mean value of the logarithm.
+     * @param sigma
+     *     Standard deviation of the logarithm, greater or equal 0.
+     */
+    public LogNormallyDistributedThinkTime (
+            final double mu,
+            final double sigma) {
+
+        this.mu = mu;
+        this.sigma = sigma;
+    }
+
+
+    /**
+     * Returns the mean value of the logarithm.
+     *
+     * @return A <code>double</code> value.
+     */
+    public double getMu() {
+
+        return this.mu;
+    }
+
+    /**
+     * Returns the standard deviation of the logarithm.
+     *
+     * @return A <code>double</code> value which is greater or equal 0.
+     */
+    public double getSigma() {
+
+        return this.sigma;
+    }
+
+    @Override
+    public String getFunctionDescriptor () {
+
+        return LogNormallyDistributedThinkTime.FUNCTION_DESCRIPTOR;
+    }
+
+    @Override
+    public String toString () {
+
+        return LogNormallyDistributedThinkTime.FUNCTION_DESCRIPTOR +
+                "(mu: " + this.mu + ", sigma: " + this.sigma + ")";
+    }
+
+    @Override
+    public long getDelay() {
+
+        final double value = Math.exp(this.mu +
+                this.sigma * RandomStreams.current().nextGaussian());
+
+        return Math.round(value);
+    }
+}
\ No newline at end of file
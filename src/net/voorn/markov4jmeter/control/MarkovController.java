@@ -16,13 +16,22 @@
 
 package net.voorn.markov4jmeter.control;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import net.voorn.markov4jmeter.control.expression.Expression;
+import net.voorn.markov4jmeter.control.expression.ExpressionException;
+import net.voorn.markov4jmeter.util.Pacer;
+import net.voorn.markov4jmeter.util.RandomStream;
+import net.voorn.markov4jmeter.util.RandomStreams;
 
 import org.apache.jmeter.control.Controller;
 import org.apache.jmeter.control.NextIsNullException;
@@ -41,9 +50,7 @@ import org.apache.jorphan.logging.LoggingManager;
 import org.apache.jorphan.util.JMeterStopTestException;
 import org.apache.jorphan.util.JMeterStopThreadException;
 import org.apache.log.Logger;
-import org.mozilla.javascript.Context;
 import org.mozilla.javascript.JavaScriptException;
-import org.mozilla.javascript.Scriptable;
 
 /**
  * <p>The class represents a Markov Model and contains the definition
@@ -82,8 +89,6 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
     /** Logger for this class */
     private static final Logger logger = LoggingManager.getLoggerForClass();
 
-    /** Random number generator to be used within this class. */
-    private static java.util.Random rand = new java.util.Random();
 
     /** Property name used to store the ID. */
     public final static String ID = "MarkovController.id";
@@ -102,13 +107,34 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
     public final static String ENABLE_ARRIVAL_CTRL_LOGGING = "MarkovController.arrivalCtrlLogging";
     /** Property name used to store the arrival controllers log filename. */
     public final static String ARRIVAL_CTRL_LOGFILE = "MarkovController.arrivalCtrlLogFile";
+    /** Property name used to store whether guards are evaluated lazily. */
+    public final static String LAZY_GUARD_EVALUATION = "MarkovController.lazyGuardEvaluation";
+    /** Property name used to store whether think times are paced precisely. */
+    public final static String PRECISE_THINK_TIMES = "MarkovController.preciseThinkTimes";
+    /** Property name used to store whether think times are ignored. */
+    public final static String STRESS_MODE = "MarkovController.stressMode";
+    /** Property name used to store the maximum number of requests per second and thread. */
+    public final static String MAX_REQUESTS_PER_SECOND = "MarkovController.maxRequestsPerSecond";
+    /** Property name used to store whether the intended schedule is published. */
+    public final static String INTENDED_SCHEDULE = "MarkovController.intendedSchedule";
+    /** Property name used to store the expected service time of the intended schedule. */
+    public final static String EXPECTED_SERVICE_TIME = "MarkovController.expectedServiceTime";
+
+    /** Variable holding the intended start time (ms) of the current request. */
+    public final static String INTENDED_START_VARIABLE = "M4J.INTENDED.START.MS";
+    /** Variable holding the lag (ms) of the current request behind its intended start. */
+    public final static String SCHEDULE_LAG_VARIABLE = "M4J.SCHEDULE.LAG.MS";
 
     /*
-     * Contains user behavior mixes for all applications (during test execution).
-     * This map is cleared after each test execution.
+     * Contains the initialization of the user behavior mix, including the
+     * compiled application model, for all applications (during test
+     * execution). The first thread of an application runs the task, all
+     * further threads of the application wait for its result; threads of
+     * other applications are not blocked. This map is cleared after each
+     * test execution.
      */
-    private static Map<Integer, BehaviorMix>  applicationBehaviorMixes =
-            Collections.synchronizedMap(new HashMap());
+    private static ConcurrentMap<Integer, FutureTask<BehaviorMix>> applicationBehaviorMixes =
+            new ConcurrentHashMap<Integer, FutureTask<BehaviorMix>>();
 
     /** To make sure that exitSession of the session arrival controller is
       * called only once. */
@@ -120,12 +146,63 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
     /* Needed while creating test plan in GUI (to export template behavior file) */
     private transient List<String> stateNames = new ArrayList();
 
-    /* Maps state IDs to state objects (during test execution) */
-    private transient Map<Integer,ApplicationState> stateMap = new HashMap();
+    /* Maps state indices to state objects, index 0 denotes the exit state
+       (during test execution) */
+    private transient ApplicationState[] states = null;
+    /* References application's compiled model (during test execution) */
+    private transient CompiledApplicationModel applicationModel = null;
+    /* Transition positions of the candidates for the next state; -1 denotes
+       the exit state (during test execution) */
+    private transient int[] candidates = null;
+    /* Cumulative probabilities of the candidates (during test execution) */
+    private transient double[] cumProbs = null;
+    /* Flags of the row slots whose guards have been rejected within the
+       current step, used by lazy guard evaluation (during test execution) */
+    private transient boolean[] rejected = null;
+    /* Row slots whose guards have been rejected within the current step
+       (during test execution) */
+    private transient int[] rejectedSlots = null;
+    /* Whether guards are evaluated lazily (during test execution) */
+    private transient boolean lazyGuardEvaluation = false;
+    /* Last seen values of the variables read by natively compiled guards,
+       indexed by variable index (during test execution) */
+    private transient String[] guardVariableValues = null;
+    /* Logical time of the last change of each guard variable (during test
+       execution) */
+    private transient long[] guardVariableChanged = null;
+    /* Logical time at which each guard result has been memoized, indexed by
+       transition; 0 if none (during test execution) */
+    private transient long[] guardEvaluated = null;
+    /* Memoized guard results, indexed by transition (during test execution) */
+    private transient boolean[] guardResults = null;
+    /* Logical clock for guard memoization (during test execution) */
+    private transient long guardClock = 0;
     /* References application's behavior mix (during test execution)  */
     private transient BehaviorMix behaviorMix = null;
     /* References thread behavior (during test execution) */
     private transient BehaviorMixEntry behavior = null;
+    /* Random stream of the thread (during test execution) */
+    private transient RandomStream random = null;
+    /* Applies think times precisely; null if Thread.sleep() is used */
+    private transient Pacer pacer = null;
+    /* Think time metrics of the behavior below, looked up on change */
+    private transient ThinkTimeMetrics.BehaviorMetrics thinkTimeMetrics = null;
+    private transient BehaviorMixEntry thinkTimeMetricsBehavior = null;
+    private transient boolean stressMode = false;
+    /* Minimum interval (ns) between two requests of this thread; 0 if none */
+    private transient long requestInterval = 0;
+    /* Earliest start (System.nanoTime()) of the next request */
+    private transient long nextRequestStart = 0;
+    private transient boolean intendedSchedule = false;
+    private transient long expectedServiceTime = 0;
+    /* Intended start (ms) of the last request of the session; -1 if none */
+    private transient long intendedStart = -1;
+    /* Think times (ms) sampled since the last request of the session */
+    private transient long scheduledThinkTime = 0;
+    /* Writes the decisions of this thread; null if recording is disabled */
+    private transient SessionLog.Recorder sessionRecorder = null;
+    /* Provides the decisions of this thread; null if replay is disabled */
+    private transient SessionLog.Replayer sessionReplayer = null;
     /* References current state (during test execution) */
     private transient ApplicationState currentState = null;
 
@@ -256,6 +333,134 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
         return getPropertyAsString(ARRIVAL_CTRL_LOGFILE);
     }
 
+    /**
+     * Enables or disables lazy guard evaluation: the next transition is
+     * sampled first, and only its guard is evaluated; rejected transitions
+     * are removed and sampling is repeated. The resulting distribution is
+     * the same as with eager evaluation of all guards.
+     *
+     * @param enabled iff true, guards are evaluated lazily.
+     */
+    public void setLazyGuardEvaluationEnabled(boolean enabled){
+        setProperty(new BooleanProperty(LAZY_GUARD_EVALUATION, enabled));
+    }
+
+    /**
+     * Returns whether guards are evaluated lazily.
+     *
+     * @return true iff guards are evaluated lazily.
+     */
+    public boolean isLazyGuardEvaluationEnabled(){
+        return getPropertyAsBoolean(LAZY_GUARD_EVALUATION, false);
+    }
+
+    /**
+     * Enables or disables precise think times: think times are applied by
+     * a {@link Pacer} with sub-millisecond precision, which compensates
+     * late wake-ups in subsequent think times. This applies only if the
+     * think times are not passed to a {@link MarkovThinkTimer}.
+     *
+     * @param enabled iff true, think times are paced precisely.
+     */
+    public void setPreciseThinkTimesEnabled(boolean enabled){
+        setProperty(new BooleanProperty(PRECISE_THINK_TIMES, enabled));
+    }
+
+    /**
+     * Returns whether think times are paced precisely.
+     *
+     * @return true iff think times are paced precisely.
+     */
+    public boolean isPreciseThinkTimesEnabled(){
+        return getPropertyAsBoolean(PRECISE_THINK_TIMES, false);
+    }
+
+    /**
+     * Enables or disables the stress mode: think times are neither sampled
+     * nor applied, while transitions are still chosen according to the
+     * probabilities of the behavior models. The number of requests might be
+     * limited via {@link #setMaxRequestsPerSecond(String)}.
+     *
+     * @param enabled iff true, think times are ignored.
+     */
+    public void setStressModeEnabled(boolean enabled){
+        setProperty(new BooleanProperty(STRESS_MODE, enabled));
+    }
+
+    /**
+     * Returns whether think times are ignored.
+     *
+     * @return true iff think times are ignored.
+     */
+    public boolean isStressModeEnabled(){
+        return getPropertyAsBoolean(STRESS_MODE, false);
+    }
+
+    /**
+     * Sets the maximum number of requests per second each thread executes;
+     * 0 for no limit.
+     *
+     * @param rate the maximum number of requests per second.
+     */
+    public void setMaxRequestsPerSecond(String rate){
+        setProperty(new StringProperty(MAX_REQUESTS_PER_SECOND, rate));
+    }
+
+    /**
+     * Returns the maximum number of requests per second each thread
+     * executes.
+     *
+     * @return the maximum number of requests per second; 0 for no limit.
+     */
+    public String getMaxRequestsPerSecond(){
+        return getPropertyAsString(MAX_REQUESTS_PER_SECOND, "0");
+    }
+
+    /**
+     * Enables or disables the intended schedule: each session keeps the
+     * times at which its requests were intended to start, had the system
+     * under test responded within the expected service time. The intended
+     * start of each request and its lag behind that start are published as
+     * the variables {@link #INTENDED_START_VARIABLE} and
+     * {@link #SCHEDULE_LAG_VARIABLE}, which might be saved via the JMeter
+     * property <code>sample_variables</code>; adding the lag to the latency
+     * of a request yields the latency corrected for coordinated omission.
+     *
+     * @param enabled iff true, the intended schedule is published.
+     */
+    public void setIntendedScheduleEnabled(boolean enabled){
+        setProperty(new BooleanProperty(INTENDED_SCHEDULE, enabled));
+    }
+
+    /**
+     * Returns whether the intended schedule is published.
+     *
+     * @return true iff the intended schedule is published.
+     */
+    public boolean isIntendedScheduleEnabled(){
+        return getPropertyAsBoolean(INTENDED_SCHEDULE, false);
+    }
+
+    /**
+     * Sets the expected service time of the intended schedule, i.e., the
+     * time between the intended starts of two subsequent requests, apart
+     * from think times.
+     *
+     * @param time the time in milliseconds.
+     */
+    public void setExpectedServiceTime(String time){
+        setProperty(new StringProperty(EXPECTED_SERVICE_TIME, time));
+    }
+
+    /**
+     * Returns the expected service time of the intended schedule.
+     *
+     * @return the time in milliseconds.
+     */
+    public String getExpectedServiceTime(){
+        return getPropertyAsString(EXPECTED_SERVICE_TIME, "0");
+    }
+
     /**
      * Sets the name of the child application states. Called by the model
      * listener when changes in terms of application state changes occur.
@@ -286,47 +491,91 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
             logger.fatalError("behavior is null");
             return;
         }
-        this.currentState = this.stateMap.get(this.behavior.getEntryState());
+        this.currentState = this.states[this.behavior.getEntryStateIndex()];
     }
 
     /**
-     * Returns the state name to state ID map.
+     * Returns the list of child application states.
      *
-     * @return the map.
+     * @return the list.
      */
-    private Map<String,Integer> getStateName2IdMap(){
-        Map<String,Integer> map = new HashMap(subControllersAndSamplers.size(),1);
+    private List<ApplicationState> getApplicationStates(){
+        List<ApplicationState> states = new ArrayList(subControllersAndSamplers.size());
 
         for (int i = 0; i < subControllersAndSamplers.size(); i++) {
             TestElement elem = subControllersAndSamplers.get(i);
             if (elem instanceof ApplicationState) {
-                ApplicationState state = (ApplicationState) elem;
-                map.put(new String(state.getName()),state.getId());
+                states.add((ApplicationState) elem);
             }
         }
-        return map;
+        return states;
     }
 
     /**
-     * Initializes the behavior mix including behavior model instantiation
-     * (during test execution).
+     * Assigns the runtime indices of the compiled application model to the
+     * child application states, so that all per-state lookups during test
+     * execution are array reads; index 0 denotes the exit state.
+     */
+    private void indexStates(){
+        this.states = new ApplicationState[this.applicationModel.getStateCount()];
+        List<ApplicationState> applicationStates = this.getApplicationStates();
+        for (int i = 0; i < applicationStates.size(); i++) {
+            ApplicationState state = applicationStates.get(i);
+            int index = this.applicationModel.getStateIndex(state.getId());
+            if (index <= CompiledApplicationModel.EXIT_STATE_INDEX) {
+                logger.error("State \"" + state.getName() + "\" is unknown to the application model");
+                continue;
+            }
+            state.setIndex(index);
+            this.states[index] = state;
+        }
+    }
+
+    /**
+     * Initializes the compiled application model as well as the behavior mix
+     * including behavior model instantiation (during test execution).
      *
      * @throws BehaviorException when an error occurs.
      */
     private void initializeBehaviorMix() throws BehaviorException{
-        /** @TODO lock access to ApplicationController.applicationBehaviorMixes
-         *        based on application ids (semaphores) */
-        synchronized(this.getClass()){
+        Integer id = new Integer(this.getId());
+        FutureTask<BehaviorMix> task = MarkovController.applicationBehaviorMixes.get(id);
+        if (task == null) {
             /* note: executed once per application */
-            this.behaviorMix = MarkovController.applicationBehaviorMixes.get(new Integer(this.getId()));
-            if(this.behaviorMix==null){
-                /* behavior mix for application id not yet initialized */
-                this.behaviorMix = (BehaviorMix) this.getBehaviorMix().clone();
-                this.behaviorMix.initialize(this.getStateName2IdMap());
-                /* Add to map */
-                MarkovController.applicationBehaviorMixes.put(new Integer(this.getId()),this.behaviorMix);
+            final BehaviorMix mix = (BehaviorMix) this.getBehaviorMix().clone();
+            final List<ApplicationState> applicationStates = this.getApplicationStates();
+            FutureTask<BehaviorMix> newTask = new FutureTask<BehaviorMix>(new Callable<BehaviorMix>() {
+                public BehaviorMix call() throws BehaviorException {
+                    mix.initialize(CompiledApplicationModel.compile(applicationStates));
+                    return mix;
+                }
+            });
+            task = MarkovController.applicationBehaviorMixes.putIfAbsent(id, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
             }
         }
+        try {
+            this.behaviorMix = task.get();
+        } catch (ExecutionException ex) {
+            /* initialization failed; reported to every thread of the application */
+            if (ex.getCause() instanceof BehaviorException)
+                throw (BehaviorException) ex.getCause();
+            throw new BehaviorException(String.valueOf(ex.getCause().getMessage()), ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BehaviorException("Interrupted while waiting for behavior mix initialization");
+        }
+        this.applicationModel = this.behaviorMix.getApplicationModel();
+        this.candidates = new int[this.applicationModel.getMaxTransitionCount()+1];
+        this.cumProbs = new double[this.applicationModel.getMaxTransitionCount()+1];
+        this.rejected = new boolean[this.applicationModel.getMaxTransitionCount()+1];
+        this.rejectedSlots = new int[this.applicationModel.getMaxTransitionCount()+1];
+        this.guardVariableValues = new String[this.applicationModel.getGuardVariableCount()];
+        this.guardVariableChanged = new long[this.applicationModel.getGuardVariableCount()];
+        this.guardEvaluated = new long[this.applicationModel.getTransitionCount()];
+        this.guardResults = new boolean[this.applicationModel.getTransitionCount()];
     }
 
     /**
@@ -341,10 +590,20 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
             if (this.behaviorMix == null)
                 this.initializeBehaviorMix();
 
-            this.behavior = this.behaviorMix.getBehavior();
+            if (this.sessionReplayer != null) {
+                this.behavior = this.replayBehavior();
+            } else {
+                this.behavior = this.behaviorMix.getBehavior();
+            }
 
             if (this.behavior == null) {
                 logger.fatalError("No behavior assigned");
+            } else if (this.sessionRecorder != null) {
+                try {
+                    this.sessionRecorder.recordBehavior(this.behavior.getBName());
+                } catch (final IOException ex) {
+                    this.stopRecording(ex);
+                }
             }
 
         } catch (final BehaviorException ex) {
@@ -354,6 +613,118 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
         }
     }
 
+    /**
+     * Opens the session log of this thread, if recording or replay is
+     * enabled; replay takes precedence.
+     *
+     * @throws JMeterStopThreadException if replay is enabled, but no log
+     *         exists for this thread.
+     */
+    private void openSessionLog() throws JMeterStopThreadException {
+        if (this.sessionRecorder != null || this.sessionReplayer != null)
+            return;
+
+        File directory = SessionLog.getReplayDirectory();
+        if (directory != null) {
+            File file = SessionLog.getThreadFile(directory, this.getName());
+            try {
+                this.sessionReplayer = new SessionLog.Replayer(file);
+            } catch (final IOException ex) {
+                logger.warn("Cannot replay session log \"" + file + "\": " + ex.getMessage());
+                throw new JMeterStopThreadException(ex.getMessage());
+            }
+            return;
+        }
+
+        directory = SessionLog.getRecordDirectory();
+        if (directory != null) {
+            File file = SessionLog.getThreadFile(directory, this.getName());
+            try {
+                this.sessionRecorder = new SessionLog.Recorder(file);
+            } catch (final IOException ex) {
+                logger.error("Cannot record session log \"" + file + "\": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the session log of this thread, if any.
+     */
+    private void closeSessionLog() {
+        try {
+            if (this.sessionRecorder != null)
+                this.sessionRecorder.close();
+            if (this.sessionReplayer != null)
+                this.sessionReplayer.close();
+        } catch (final IOException ex) {
+            logger.error("Cannot close session log: " + ex.getMessage());
+        }
+        this.sessionRecorder = null;
+        this.sessionReplayer = null;
+    }
+
+    /**
+     * Disables recording for this thread after a write error.
+     *
+     * @param ex the cause.
+     */
+    private void stopRecording(IOException ex) {
+        logger.error("Recording of session log failed, will stop recording: " + ex.getMessage());
+        this.closeSessionLog();
+    }
+
+    /**
+     * Returns the behavior of the next recorded session.
+     *
+     * @return the behavior.
+     * @throws BehaviorException if the recorded behavior is unknown.
+     * @throws JMeterStopThreadException if the log contains no further
+     *         session.
+     */
+    private BehaviorMixEntry replayBehavior() throws BehaviorException, JMeterStopThreadException {
+        String name;
+        try {
+            name = this.sessionReplayer.nextBehavior();
+        } catch (final IOException ex) {
+            logger.error("Cannot read session log: " + ex.getMessage());
+            name = null;
+        }
+        if (name == null) {
+            logger.info("Session log of thread " + Thread.currentThread().getName() + " exhausted");
+            this.closeSessionLog();
+            throw new JMeterStopThreadException("Session log exhausted");
+        }
+        return this.behaviorMix.getBehavior(name);
+    }
+
+    /**
+     * Returns the next transition of the current state as recorded.
+     *
+     * @param state the compiled current state.
+     * @return the position of the recorded transition; -1 denotes the exit
+     *         state, which is also chosen if the session has no further
+     *         transitions.
+     */
+    private int replayTransition(CompiledApplicationModel.CompiledState state){
+        try {
+            if (!this.sessionReplayer.nextTransition())
+                return -1;
+        } catch (final IOException ex) {
+            logger.error("Cannot read session log: " + ex.getMessage());
+            return -1;
+        }
+        int destination = this.sessionReplayer.getDestination();
+        if (destination == CompiledApplicationModel.EXIT_STATE_INDEX)
+            return -1;
+        for (int i = 0; i < state.size(); i++) {
+            if (state.destinations[i] == destination)
+                return i;
+        }
+        logger.error("Recorded transition from state \"" + this.currentState.getName()
+                + "\" to state index " + destination + " does not exist; will exit session");
+        return -1;
+    }
+
     /**
      * Initialize instance. Contains behavior assignment and model
      * initialization.
@@ -375,15 +746,36 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
         // Markov4JMeter 1.0 which wrote multiple entries into the log only;
 
 //        System.out.println(Thread.activeCount() + " " + Thread.currentThread().getId());
-        TestElement elem;
-        for (int i = 0; i < subControllersAndSamplers.size(); i++) {
-            elem = subControllersAndSamplers.get(i);
-            if (elem instanceof ApplicationState) {
-                ApplicationState state = (ApplicationState) elem;
-                this.stateMap.put(state.getId(),state);
+        this.random = RandomStreams.current();
+        this.openSessionLog();
+        this.lazyGuardEvaluation = this.isLazyGuardEvaluationEnabled();
+        this.stressMode = this.isStressModeEnabled();
+        this.requestInterval = 0;
+        try {
+            final double rate = Double.parseDouble(this.getMaxRequestsPerSecond().trim());
+            if (rate > 0)
+                this.requestInterval = Math.max(1, (long) (1000000000.0d / rate));
+            else if (rate < 0 || Double.isNaN(rate))
+                logger.warn("Invalid maximum number of requests per second \"" + this.getMaxRequestsPerSecond() + "\"; will use no limit");
+        } catch (final NumberFormatException ex) {
+            logger.warn("Invalid maximum number of requests per second \"" + this.getMaxRequestsPerSecond() + "\"; will use no limit");
+        }
+        this.nextRequestStart = System.nanoTime();
+        this.intendedSchedule = this.isIntendedScheduleEnabled();
+        if (this.intendedSchedule) {
+            try {
+                this.expectedServiceTime = Long.parseLong(this.getExpectedServiceTime().trim());
+            } catch (final NumberFormatException ex) {
+                logger.warn("Invalid expected service time \"" + this.getExpectedServiceTime() + "\"; will use 0");
+                this.expectedServiceTime = 0;
             }
         }
-
+        if (this.isPreciseThinkTimesEnabled()) {
+            if (this.pacer == null)
+                this.pacer = new Pacer();
+        } else {
+            this.pacer = null;
+        }
         this.sessionArrivalControllerEnabled = this.isArrivalCtrlEnabled();
         if (this.sessionArrivalControllerEnabled){
             this.sessionArrivalController = SessionArrivalController.getInstance();
@@ -394,8 +786,11 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
         try {
 
             this.assignBehavior();
+            this.indexStates();
             this.setEntryState();
             this.inSession = false;
+            this.intendedStart = -1;
+            this.scheduledThinkTime = 0;
 
         } catch (final JMeterStopTestException ex) {
 
@@ -416,6 +811,8 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
         this.assignBehavior();
         this.setEntryState();
         this.inSession = false;
+        this.intendedStart = -1;
+        this.scheduledThinkTime = 0;
     }
 
     /**
@@ -425,33 +822,42 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
      * @return the random number.
      */
     private double nextDouble(double d){
-        return rand.nextDouble() * d;
+        return this.random.nextDouble() * d;
     }
 
     /**
-     * Evaluate expression using JavaScript.
+     * Evaluate expression using JavaScript. Scripts are compiled once and
+     * cached by the {@link ScriptEvaluator}.
      *
      * @param expr the String to evaluate.
      * @return the evaluation result.
      * @throws JavaScriptException when a Javascript error occurs.
      */
     private String evaluateExpression(String expr) throws JavaScriptException {
-        String resultStr = "";
         try{
-            Context cx = Context.enter();
-            Scriptable scope = cx.initStandardObjects(null);
-            Object cxResultObject = cx.evaluateString(scope, expr
-                    /** * conditionString ** */
-                    , "<cmd>", 1, null);
-            resultStr = Context.toString(cxResultObject);
+            return ScriptEvaluator.evaluate(expr);
         }catch(JavaScriptException ex){
             logger.error(ex.getMessage(), ex);
             throw ex;
-        } finally {
-            Context.exit();
         }
+    }
 
-        return resultStr;
+    /**
+     * Evaluate a natively compiled expression; falls back to JavaScript if
+     * the current variable values cannot be handled natively.
+     *
+     * @param expr the expression to evaluate.
+     * @return the evaluation result.
+     * @throws JavaScriptException when a Javascript error occurs.
+     */
+    private String evaluateExpression(Expression expr) throws JavaScriptException {
+        JMeterVariables threadVars = this.getThreadContext().getVariables();
+        try{
+            return expr.evaluateToString(threadVars);
+        }catch(ExpressionException ex){
+            logger.debug("Evaluating \"" + expr + "\" by JavaScript: " + ex.getMessage());
+            return evaluateExpression(expr.substitute(threadVars));
+        }
     }
 
     /**
@@ -463,28 +869,52 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
     private boolean evaluateCondition(String cond) {
         logger.debug("    getCondition() : [" + cond + "]");
 
-        String resultStr = "";
-        boolean result = false;
-
         // now evaluate the condition using JavaScript
         if(cond.equals(""))
             return true;
 
         try{
-            resultStr = evaluateExpression(cond);
+            return toCondition(cond, evaluateExpression(cond));
+        } catch (Exception ex){
+            logger.error(ex.getMessage(), ex);
+            return false;
+        }
+    }
 
-            if (resultStr.equals("false")) {
-                result = false;
-            } else if (resultStr.equals("true")) {
-                result = true;
-            } else {
-                throw new Exception(" BAD CONDITION :: " + cond);
-            }
+    /**
+     * Evaluate the natively compiled condition and return boolean evaluation
+     * value.
+     *
+     * @param cond condition to evaluate.
+     * @return evaluation result.
+     */
+    private boolean evaluateCondition(Expression cond) {
+        logger.debug("    getCondition() : [" + cond + "]");
+
+        try{
+            return toCondition(cond.getSource(), evaluateExpression(cond));
         } catch (Exception ex){
             logger.error(ex.getMessage(), ex);
+            return false;
         }
+    }
 
-        return result;
+    /**
+     * Converts the evaluation result of a condition to a boolean value.
+     *
+     * @param cond the condition, for error reporting.
+     * @param resultStr the evaluation result.
+     * @return the boolean value.
+     * @throws Exception if the result is no boolean value.
+     */
+    private boolean toCondition(String cond, String resultStr) throws Exception {
+        if (resultStr.equals("false")) {
+            return false;
+        } else if (resultStr.equals("true")) {
+            return true;
+        } else {
+            throw new Exception(" BAD CONDITION :: " + cond);
+        }
     }
 
     /**
@@ -495,37 +925,38 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
      * @return true iff execution successful.
      */
     private boolean executeAction(String actionStr){
-        StringTokenizer actionsTokenizer = new StringTokenizer(actionStr, ";");
-        StringTokenizer actionTokenizer;
-        boolean result = false;
+        return this.executeAction(CompiledApplicationModel.parseAction(actionStr));
+    }
+
+    /**
+     * Execute the pre-parsed statements of a transition action.
+     *
+     * @param statements the statements.
+     * @return true iff execution successful.
+     */
+    private boolean executeAction(CompiledApplicationModel.Statement[] statements){
         JMeterVariables threadVars = this.getThreadContext().getVariables();
 
-        while (actionsTokenizer.hasMoreTokens()){
-            String curAction = actionsTokenizer.nextToken();
+        for (int i = 0; i < statements.length; i++){
+            CompiledApplicationModel.Statement statement = statements[i];
 
-            actionTokenizer = new StringTokenizer(curAction, "=");
             /**
              * @ TODO allow
              */
-            if (actionTokenizer.countTokens() != 2 && actionTokenizer.countTokens() != 1){
-                logger.error("Invalid action: " + curAction);
+            if (statement.expression == null){
+                logger.error("Invalid action: " + statement.source);
                 return false;
             }
 
             try{
-                if (actionTokenizer.countTokens() == 2){
+                String value = (statement.compiled != null) ?
+                        evaluateExpression(statement.compiled) :
+                        evaluateExpression(statement.expression);
+                if (statement.variable != null){
                     /** Assignment var=expr */
-                    String leftSide, rightSide;
-
-                    leftSide = actionTokenizer.nextToken().trim();
-
-                    rightSide = evaluateExpression(actionTokenizer.nextToken().trim());
-
-                    threadVars.put(leftSide, rightSide);
-                }else{
-                    /** Function expression (e.g. a function call) */
-                    evaluateExpression(actionTokenizer.nextToken().trim());
+                    threadVars.put(statement.variable, value);
                 }
+                /** otherwise function expression (e.g. a function call) */
             } catch (Exception ex){
                 logger.error(ex.getMessage(), ex);
                 return false;
@@ -535,88 +966,367 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
         return true;
     }
 
+    /**
+     * Evaluates the guard of the transition at the given position of the
+     * current state's transition list.
+     *
+     * @param state the compiled current state.
+     * @param position the position of the transition.
+     * @return evaluation result.
+     */
+    private boolean evaluateGuard(CompiledApplicationModel.CompiledState state, int position){
+        if (state.guardDependencies[position] != null){
+            return evaluateMemoizedGuard(state, position);
+        }
+        if (state.guardExpressions[position] != null){
+            /* natively compiled, reads the current variable values */
+            return evaluateCondition(state.guardExpressions[position]);
+        }
+        if (state.dynamicGuards[position]){
+            /* depends on the thread context, request the thread's own copy */
+            return evaluateCondition(this.currentState.getTransitions().getTransition(position).getGuard());
+        }
+        return state.guards[position] == null || evaluateCondition(state.guards[position]);
+    }
+
+    /**
+     * Evaluates a natively compiled guard, reusing its memoized result if
+     * none of the variables it reads has changed since. Results are only
+     * memoized if the guard could be evaluated natively, since a JavaScript
+     * fallback might depend on more than the variable values.
+     *
+     * @param state the compiled current state.
+     * @param position the position of the transition.
+     * @return evaluation result.
+     */
+    private boolean evaluateMemoizedGuard(CompiledApplicationModel.CompiledState state, int position){
+        final int transition = state.transitionOffset + position;
+        final long evaluated = this.guardEvaluated[transition];
+
+        if (evaluated > 0){
+            final int[] dependencies = state.guardDependencies[position];
+            boolean valid = true;
+            for (int i = 0; i < dependencies.length && valid; i++){
+                valid = this.guardVariableChanged[dependencies[i]] < evaluated;
+            }
+            if (valid)
+                return this.guardResults[transition];
+        }
+
+        final Expression guard = state.guardExpressions[position];
+        final String resultStr;
+        try{
+            resultStr = guard.evaluateToString(this.getThreadContext().getVariables());
+        }catch(ExpressionException ex){
+            return evaluateCondition(guard);
+        }
+
+        boolean result;
+        try{
+            result = toCondition(guard.getSource(), resultStr);
+        }catch(Exception ex){
+            logger.error(ex.getMessage(), ex);
+            result = false;
+        }
+
+        this.guardResults[transition] = result;
+        this.guardEvaluated[transition] = ++this.guardClock;
+        return result;
+    }
+
+    /**
+     * Detects changes of the variables read by the natively compiled guards
+     * of the given state, which invalidate the related memoized results.
+     * Values are compared by reference first, so unchanged variables cost a
+     * single lookup.
+     *
+     * @param state the compiled current state.
+     */
+    private void refreshGuardVariables(CompiledApplicationModel.CompiledState state){
+        final int[] dependencies = state.dependencies;
+        if (dependencies.length == 0)
+            return;
+
+        final JMeterVariables threadVars = this.getThreadContext().getVariables();
+        for (int i = 0; i < dependencies.length; i++){
+            final int variable = dependencies[i];
+            final String value = threadVars.get(this.applicationModel.getGuardVariableName(variable));
+            final String lastValue = this.guardVariableValues[variable];
+            if (value != lastValue && (value == null || !value.equals(lastValue))){
+                this.guardVariableValues[variable] = value;
+                this.guardVariableChanged[variable] = ++this.guardClock;
+            }
+        }
+    }
+
+    /**
+     * Executes the action of the transition at the given position of the
+     * current state's transition list.
+     *
+     * @param state the compiled current state.
+     * @param position the position of the transition.
+     * @return true iff execution successful.
+     */
+    private boolean executeAction(CompiledApplicationModel.CompiledState state, int position){
+        if (state.actions[position] == null){
+            /* depends on the thread context, request the thread's own copy */
+            return executeAction(this.currentState.getTransitions().getTransition(position).getAction());
+        }
+        return executeAction(state.actions[position]);
+    }
+
+    /**
+     * Chooses the next transition of a state which has guarded transitions.
+     * The candidate set consists of the exit state and all transitions with
+     * positive probability whose guards evaluate to true.
+     *
+     * @param state the compiled current state.
+     * @param row the transition probabilities of the current state.
+     * @return the position of the chosen transition; -1 denotes the exit
+     *         state.
+     */
+    private int chooseGuardedTransition(CompiledApplicationModel.CompiledState state,
+            BehaviorMixEntry.CompiledRow row){
+
+        /* add final state 0 to the candidates and init curCumProb with its probability*/
+        int numCandidates = 1;
+        boolean rejected = false;
+        this.candidates[0] = -1;
+        double curCumProb = row.probabilities[0];
+        this.cumProbs[0] = curCumProb;
+        for(int i=0; i<state.size(); i++){
+            double curProb = row.probabilities[i+1];
+            if (curProb > 0) {
+                if (evaluateGuard(state, i)) {
+                    this.candidates[numCandidates] = i;
+                    curCumProb+=curProb;
+                    this.cumProbs[numCandidates++] = curCumProb;
+                } else {
+                    rejected = true;
+                }
+            }
+        }
+
+        if (!rejected) {
+            /* all guards passed, use the row's cached cumulative probabilities */
+            return this.pick(row.cumProbs, row.cumProbs.length) - 1;
+        }
+
+        return this.candidates[this.pick(this.cumProbs, numCandidates)];
+    }
+
+    /**
+     * Chooses the next transition of a state which has guarded transitions
+     * by rejection sampling: a slot is sampled from the whole row and only
+     * its guard is evaluated. If the guard is rejected, the slot is removed
+     * and sampling is repeated among the remaining slots, which yields the
+     * same distribution as {@link #chooseGuardedTransition}.
+     *
+     * @param state the compiled current state.
+     * @param row the transition probabilities of the current state.
+     * @return the position of the chosen transition; -1 denotes the exit
+     *         state.
+     */
+    private int chooseGuardedTransitionLazily(CompiledApplicationModel.CompiledState state,
+            BehaviorMixEntry.CompiledRow row){
+
+        if (row.samplingTable == null)
+            return -1; // all probabilities are 0
+
+        final double total = row.cumProbs[row.cumProbs.length-1];
+        int numRejected = 0;
+        double rejectedMass = 0.0d;
+        int chosen = -1;
+
+        while (numRejected < row.samplingTable.size()){
+            int slot;
+            if (rejectedMass <= 0.5d * total){
+                /* redraw rejected slots, at most 2 draws are expected */
+                do {
+                    slot = row.samplingTable.sample(this.random.nextDouble());
+                } while (this.rejected[slot]);
+            } else {
+                /* most of the mass is rejected, renormalize explicitly */
+                int numCandidates = 0;
+                double curCumProb = 0.0d;
+                for (int i = 0; i < row.probabilities.length; i++){
+                    if (row.probabilities[i] > 0 && !this.rejected[i]){
+                        this.candidates[numCandidates] = i;
+                        curCumProb += row.probabilities[i];
+                        this.cumProbs[numCandidates++] = curCumProb;
+                    }
+                }
+                slot = this.candidates[this.pick(this.cumProbs, numCandidates)];
+            }
+
+            if (slot == 0 || evaluateGuard(state, slot-1)){
+                chosen = slot-1;
+                break;
+            }
+
+            this.rejected[slot] = true;
+            this.rejectedSlots[numRejected++] = slot;
+            rejectedMass += row.probabilities[slot];
+        }
+
+        for (int i = 0; i < numRejected; i++)
+            this.rejected[this.rejectedSlots[i]] = false;
+
+        return chosen;
+    }
+
+    /**
+     * Picks an index based on the given cumulative probabilities.
+     *
+     * @param cumProbs the cumulative probabilities.
+     * @param size the number of valid entries; must be at least 1.
+     * @return the chosen index; 0 if all probabilities are 0.
+     */
+    private int pick(double[] cumProbs, int size){
+        if (!(cumProbs[size-1] > 0))
+            return 0;
+
+        double rndVal = nextDouble(cumProbs[size-1]);
+
+        /* binary search for the first entry greater than rndVal */
+        int low = 0, high = size-1;
+        while (low < high){
+            int mid = (low + high) >>> 1;
+            if (rndVal < cumProbs[mid])
+                high = mid;
+            else
+                low = mid+1;
+        }
+        return low;
+    }
+
     /**
      * Sets the next state based on the current.
      */
     public void transition(){
 
-        Map<Integer,Double> transitionsProbabilitiesMap;
-        Map<Integer,ThinkTime> transitionsThinkTimesMap;
+        final int stateIndex = this.currentState.getIndex();
 
-        ApplicationStateTransitions transitions = this.currentState.getTransitions();
+        final CompiledApplicationModel.CompiledState state =
+                this.applicationModel.getState(stateIndex);
+        final BehaviorMixEntry.CompiledRow row =
+                this.behavior.getCompiledRow(stateIndex);
 
         //System.out.print(Thread.currentThread().getName() + "-" + this.testIteration +
         //        "(" + (this.behavior!=null?this.behavior.getBName():"<NULL>") +")" + "::" +
         //        this.currentState.getName()+" -> ");
-        //System.out.println("Transition probabilities:");
-        transitionsProbabilitiesMap = this.behavior.getStateTransitionProbabilitiesMap(this.currentState.getId());
-        transitionsThinkTimesMap = this.behavior.getStateTransitionThinkTimesMap(this.currentState.getId());
-        //System.out.println(transitionsProbabilityMap.toString());
-
-        List<ApplicationStateTransition> truelist = new ArrayList();
-        List<Double> cumProbList = new ArrayList();
-        List<ApplicationStateTransition> transitionslist = transitions.getTransitionsAsList();
-        Iterator<ApplicationStateTransition> it = transitionslist.listIterator();
-        /* add final state 0 to truelist and init curCumProb with its probability*/
-        truelist.add(null);
-        double curCumProb = transitionsProbabilitiesMap.get(0);
-        cumProbList.add(curCumProb);
-        for(int i=0; it.hasNext(); i++){
-            ApplicationStateTransition cur = it.next();
-
-            double curProb = transitionsProbabilitiesMap.get(cur.getDstStateId());
-            if (!cur.isDisabled() && !(curProb<=0) && evaluateCondition(cur.getGuard())) {
-                truelist.add(cur);
-                curCumProb+=curProb;
-                cumProbList.add(curCumProb);
-            }
-        }
-
-        // cumProbList contains at least one entry!
-        double rndVal = nextDouble(cumProbList.get(cumProbList.size()-1));
 
-        //System.out.print("rndVal:" + rndVal + "->" /* + "\ncumProbList: " +
-        //cumProbList.toString() + "\ntruelist: " + truelist.toString()*/);
-        /* pick next state based on rndVal */
-        ApplicationStateTransition nextTransition = truelist.get(0);
-        for (int i=0; i<truelist.size()-1; i++){
-            if(rndVal<cumProbList.get(i))
-                break;
-            nextTransition = truelist.get(i+1);
+        final int nextPosition;
+        if (this.sessionReplayer != null){
+            /* follow the recorded decision */
+            nextPosition = this.replayTransition(state);
+        } else if (row.aliasTable != null){
+            /* no guards, sample in constant time */
+            nextPosition = row.aliasTable.sample(this.random.nextDouble()) - 1;
+        } else {
+            this.refreshGuardVariables(state);
+            nextPosition = this.lazyGuardEvaluation ?
+                    this.chooseGuardedTransitionLazily(state, row) :
+                    this.chooseGuardedTransition(state, row);
         }
 
         /**
          * @TODO - execute action
          */
-        if (nextTransition != null){
+        if (nextPosition >= 0){
 
-            if (!this.executeAction(nextTransition.getAction())){
+            if (!this.executeAction(state, nextPosition)){
                 ;
             }
         }
         final ApplicationState oldState = this.currentState;
 
-        this.currentState = nextTransition!=null?this.stateMap.get(nextTransition.getDstStateId()):null;
+        this.currentState = nextPosition>=0?this.states[state.destinations[nextPosition]]:null;
 
         // after the new current state has been determined, the think time
         // which might be alternatively modeled via "Gaussian Random Timer"
-        // will cause a delay at this point -> insert own think time delay here;
+        // will cause a delay at this point -> insert own think time delay here,
+        // unless a MarkovThinkTimer applies it before the next sampler;
+
+        long delay = -1;
+
+        // in stress mode, think times are neither sampled nor replayed;
+        if (this.currentState != null && !this.stressMode) {
+
+            if (this.sessionReplayer != null) {
+
+                delay = this.sessionReplayer.getDelay();
+
+            } else {
+
+                final ThinkTime thinkTime = this.behavior.getTransitionMatrix()
+                        .getThinkTime(stateIndex, state.destinations[nextPosition]);
+
+                // old matrix format did not support think times, in that case
+                // null will be returned;
+                if (thinkTime != null) {
+
+                    delay = thinkTime.getDelay();
+                }
+            }
+        }
+
+        if (this.sessionRecorder != null) {
+
+            try {
+
+                this.sessionRecorder.recordTransition(
+                        (this.currentState != null) ?
+                                this.currentState.getIndex() :
+                                CompiledApplicationModel.EXIT_STATE_INDEX,
+                        delay);
+
+            } catch (final IOException ex) {
+
+                this.stopRecording(ex);
+            }
+        }
+
+        if (delay > 0) {
+
+            // recorded think times remain unscaled;
+            delay = TimeScale.getInstance().scaleThinkTime(delay);
+
+            if (this.intendedSchedule) {
+
+                this.scheduledThinkTime += delay;
+            }
+        }
 
         if (this.currentState != null) {
 
-            final ThinkTime thinkTime =
-                    transitionsThinkTimesMap.get(this.currentState.getId());
+            if (delay >= 0 && MarkovThinkTimer.isActive()) {
 
-            // old matrix format did not support think times, in that case null
-            // will be returned;
-            if (thinkTime != null) {
+                // the delay will be applied by the timer before the next
+                // sampler is executed;
+                MarkovThinkTimer.addDelay(delay);
 
-                final long delay = thinkTime.getDelay();
+            } else if (delay >= 0) {
 
                 try {
 
+                    final long start = System.nanoTime();
+
                     // throws an IllegalArgument- or InterruptedException;
-                    Thread.sleep(delay);
+                    if (this.pacer != null) {
+
+                        this.pacer.pause(delay);
+
+                    } else {
+
+                        Thread.sleep(delay);
+                    }
+
+                    if (ThinkTimeMetrics.isEnabled()) {
+
+                        this.recordThinkTime(stateIndex, state, nextPosition,
+                                delay, System.nanoTime() - start);
+                    }
 
                 } catch (final Exception ex) {
 
@@ -633,6 +1343,75 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
         // System.out.println(this.currentState!=null?this.currentState.getName():new String("<EXIT>"));
     }
 
+    /**
+     * Records a think time in the metrics of the current behavior.
+     *
+     * @param stateIndex the index of the source state.
+     * @param state the compiled source state.
+     * @param position the position of the transition.
+     * @param requested the requested delay in milliseconds.
+     * @param actual the elapsed delay in nanoseconds.
+     */
+    private void recordThinkTime(int stateIndex, CompiledApplicationModel.CompiledState state,
+            int position, long requested, long actual){
+        if (this.thinkTimeMetricsBehavior != this.behavior) {
+            this.thinkTimeMetrics = ThinkTimeMetrics.getBehaviorMetrics(
+                    this.getName(), this.behavior, this.applicationModel);
+            this.thinkTimeMetricsBehavior = this.behavior;
+        }
+        this.thinkTimeMetrics.record(state.transitionOffset + position,
+                stateIndex, state.destinations[position], requested, actual);
+    }
+
+    /**
+     * Blocks the current thread until the minimum interval between two of
+     * its requests has passed. A think time pending in a MarkovThinkTimer,
+     * which JMeter applies after this method returns, counts towards the
+     * interval. Time left unused, e.g., by think times or slow responses,
+     * is not saved up for bursts of later requests.
+     */
+    private void throttle(){
+        long pending = 0;
+        if (MarkovThinkTimer.isActive())
+            pending = TimeUnit.MILLISECONDS.toNanos(MarkovThinkTimer.getPendingDelay());
+        long start = System.nanoTime() + pending;
+        long wait = this.nextRequestStart - start;
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            start = System.nanoTime() + pending;
+        }
+        this.nextRequestStart = Math.max(this.nextRequestStart, start) + this.requestInterval;
+    }
+
+    /**
+     * Determines the intended start of the request to be executed next and
+     * publishes it together with the lag of the request. The intended start
+     * of the first request of a session is its actual start; each further
+     * request is intended to start after the expected service time of its
+     * predecessor plus the think times sampled in between. A request which
+     * starts ahead of its schedule, since the system under test responded
+     * faster than expected, resets the schedule.
+     */
+    private void updateSchedule(){
+        long start = System.currentTimeMillis();
+        if (MarkovThinkTimer.isActive())
+            start += MarkovThinkTimer.getPendingDelay(); // not applied yet
+        if (this.intendedStart < 0) {
+            this.intendedStart = start;
+        } else {
+            this.intendedStart = Math.min(start,
+                    this.intendedStart + this.expectedServiceTime + this.scheduledThinkTime);
+        }
+        this.scheduledThinkTime = 0;
+        JMeterVariables threadVars = this.getThreadContext().getVariables();
+        threadVars.put(INTENDED_START_VARIABLE, Long.toString(this.intendedStart));
+        threadVars.put(SCHEDULE_LAG_VARIABLE, Long.toString(start - this.intendedStart));
+    }
+
     /**
      * @see org.apache.jmeter.control.GenericController#next
      */
@@ -643,7 +1422,8 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
         if (this.sessionArrivalControllerEnabled && !this.inSession){
             this.mustReduceNumThreads = true;
             try{
-                /**  */
+                /* provide the current experiment time to the formula */
+                SessionArrivalController.updateExperimentTime();
                 this.sessionArrivalController.enterSession(Integer.parseInt(this.getArrivalCtrlNumSessions()));
                 this.inSession = true;
             }catch (Exception ex){
@@ -666,6 +1446,14 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
             returnValue = null;
         }
 
+        if (this.requestInterval > 0 && returnValue != null) {
+            this.throttle();
+        }
+
+        if (this.intendedSchedule && returnValue != null) {
+            this.updateSchedule();
+        }
+
         /* exit session. */
         /**
          * @TODO: check why returnValue==null occurs twice
@@ -704,6 +1492,21 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
      */
     @Override
     public void testStarted() {
+        /* Derive new random streams for all threads */
+        RandomStreams.testStarted();
+        ThinkTimeMetrics.testStarted();
+        BehaviorMixReloader.testStarted();
+        /* Report whether sessions are recorded or replayed */
+        SessionLog.testStarted();
+        File replayDirectory = SessionLog.getReplayDirectory();
+        File recordDirectory = SessionLog.getRecordDirectory();
+        if (replayDirectory != null) {
+            logger.info("Replaying sessions from \"" + replayDirectory + "\"");
+            if (recordDirectory != null)
+                logger.warn("Sessions will not be recorded while replaying");
+        } else if (recordDirectory != null) {
+            logger.info("Recording sessions to \"" + recordDirectory + "\"");
+        }
         /* Initialize whether needed or not  */
         SessionArrivalController.testStarted();
     }
@@ -716,12 +1519,12 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
         /* Reset behavior mixes for all applications. Forces a reload on each
            test start */
         this.testIteration = -1;
-        synchronized (this.getClass()){
-            MarkovController.applicationBehaviorMixes.clear();
-        }
+        MarkovController.applicationBehaviorMixes.clear();
 
         /* Notify arrival controller about test end */
         SessionArrivalController.testEnded();
+        ThinkTimeMetrics.testEnded();
+        BehaviorMixReloader.testEnded();
     }
 
     /**
@@ -760,8 +1563,7 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
     @Override
     public void clear() {
         super.clear();
-        if (this.stateMap != null) // required for distributed mode
-            this.stateMap.clear();
+        this.states = null;
         if (this.stateNames != null) // required for distributed mode
             this.stateNames.clear();
     }
@@ -772,7 +1574,7 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
 
     /**
      * Iff in session, the session arrival controller is notified about exiting
-     * the session.
+     * the session. The session log of the thread, if any, is closed.
      */
     @Override
     public void threadFinished() {
@@ -781,5 +1583,6 @@ public class MarkovController extends org.apache.jmeter.control.GenericControlle
             this.sessionArrivalController.exitSession();
             this.inSession = false;
         }
+        this.closeSessionLog();
     }
 }
@@ -0,0 +1,116 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control;
+
+import java.io.Serializable;
+
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jmeter.timers.Timer;
+
+/**
+ * <p>Timer which applies the think times of a {@link MarkovController}.</p>
+ *
+ * <p>Without this timer, the controller sleeps for the think time of a
+ * transition itself. If the timer is placed into the scope of the Markov
+ * States, i.e., as a child of the MarkovController, the controller only
+ * passes the think time to the timer, which returns it as delay of the
+ * next sampler. Thus, think times are applied by the JMeter engine like the
+ * delays of any other timer, and threads can be stopped during think
+ * times.</p>
+ *
+ * <p>Pending delays are kept per thread; delays of transitions which are
+ * not followed by any sampler are accumulated.</p>
+ */
+public class MarkovThinkTimer extends AbstractTestElement
+        implements Timer, ThreadListener, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pending delay of each thread which contains a timer, as a single
+     *  element array; not set for threads without timer. */
+    private static final ThreadLocal<long[]> pendingDelays =
+            new ThreadLocal<long[]>();
+
+    /**
+     * Creates a new instance of MarkovThinkTimer.
+     */
+    public MarkovThinkTimer() {
+    }
+
+    /**
+     * Checks whether the current thread contains a timer.
+     *
+     * @return true if and only if think times are to be passed to the timer.
+     */
+    static boolean isActive() {
+        return MarkovThinkTimer.pendingDelays.get() != null;
+    }
+
+    /**
+     * Adds a think time to the pending delay of the current thread; must
+     * only be called if {@link #isActive()} returns true.
+     *
+     * @param delay the think time in milliseconds.
+     */
+    static void addDelay(long delay) {
+        MarkovThinkTimer.pendingDelays.get()[0] += delay;
+    }
+
+    /**
+     * Returns the pending delay of the current thread without resetting it;
+     * must only be called if {@link #isActive()} returns true.
+     *
+     * @return the delay in milliseconds.
+     */
+    static long getPendingDelay() {
+        return MarkovThinkTimer.pendingDelays.get()[0];
+    }
+
+    /**
+     * Returns the pending delay of the current thread and resets it.
+     *
+     * @return the delay in milliseconds, 0 if no think time is pending.
+     */
+    @Override
+    public long delay() {
+        long[] pendingDelay = MarkovThinkTimer.pendingDelays.get();
+        if (pendingDelay == null)
+            return 0;
+        long delay = pendingDelay[0];
+        pendingDelay[0] = 0;
+        return delay;
+    }
+
+    /**
+     * Registers the timer for the current thread.
+     */
+    @Override
+    public void threadStarted() {
+        if (MarkovThinkTimer.pendingDelays.get() == null)
+            MarkovThinkTimer.pendingDelays.set(new long[1]);
+    }
+
+    /**
+     * Unregisters the timer; pending delays are discarded.
+     */
+    @Override
+    public void threadFinished() {
+        MarkovThinkTimer.pendingDelays.remove();
+    }
+}
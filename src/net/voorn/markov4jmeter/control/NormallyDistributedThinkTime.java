@@ -1,6 +1,6 @@
 package net.voorn.markov4jmeter.control;
 
-import java.util.Random;
+import net.voorn.markov4jmeter.util.RandomStreams;
 
 /**
  * This class represents a normally distributed think time.
@@ -20,9 +20,6 @@ public class NormallyDistributedThinkTime extends ThinkTime {
     /** Deviation value which might be even negative. */
     private final double deviation;
 
-    /** Random number generator. */
-    private final Random random = new Random();
-
     /**
      * Factor to be multiplied with the deviation;
      * in general, the following rules hold:
@@ -91,9 +88,9 @@ public class NormallyDistributedThinkTime extends ThinkTime {
     @Override
     public long getDelay() {
 
-        // nextGaussian() returns a value between 0 and 1;
+        // nextGaussian() returns a standard normally distributed value;
         final double value =
-                this.random.nextGaussian() *
+                RandomStreams.current().nextGaussian() *
                 this.deviation * NormallyDistributedThinkTime.DEVIATION_FACTOR +
                 this.mean;
 
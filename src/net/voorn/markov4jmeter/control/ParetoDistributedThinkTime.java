@@ -0,0 +1,92 @@
+package net.voorn.markov4jmeter.control;
+
+import net.voorn.markov4jmeter.util.RandomStreams;
+
+/**
+ * This class represents a Pareto distributed think time, which is
+ * heavy-tailed: few think times are much longer than the most. For shape
+ * values of 1 or less, the mean value is infinite; in that case, think
+ * times are likely to be unbounded for practical purposes.
+ */
+public class ParetoDistributedThinkTime extends ThinkTime {
+
+    /** Function descriptor which indicates the distribution function type.
+     *  This must be <code>protected</code> for the {@link ThinkTimeParser},
+     *  which needs access to it for identifying think time types. */
+    protected final static String FUNCTION_DESCRIPTOR = "pareto";
+
+    /** Scale value, i.e., the minimum think time, which is greater than 0. */
+    private final double scale;
+
+    /** Shape value which is greater than 0. */
+    private final double shape;
+
+    /** Negative reciprocal of the shape value, as used for sampling. */
+    private final double exponent;
+
+
+    /**
+     * Constructor for a Pareto distributed think time with scale and shape
+     * values.
+     *
+     * @param scale
+     *     A <code>double</code> value which is greater than 0; it denotes
+     *     the minimum think time.
+     * @param shape
+     *     A <code>double</code> value which is greater than 0.
+     */
+    public ParetoDistributedThinkTime (
+            final double scale,
+            final double shape) {
+
+        this.scale = scale;
+        this.shape = shape;
+        this.exponent = -1.0d / shape;
+    }
+
+
+    /**
+     * Returns the scale value.
+     *
+     * @return A <code>double</code> value which is greater than 0.
+     */
+    public double getScale() {
+
+        return this.scale;
+    }
+
+    /**
+     * Returns the shape value.
+     *
+     * @return A <code>double</code> value which is greater than 0.
+     */
+    public double getShape() {
+
+        return this.shape;
+    }
+
+    @Override
+    public String getFunctionDescriptor () {
+
+        return ParetoDistributedThinkTime.FUNCTION_DESCRIPTOR;
+    }
+
+    @Override
+    public String toString () {
+
+        return ParetoDistributedThinkTime.FUNCTION_DESCRIPTOR +
+                "(scale: " + this.scale + ", shape: " + this.shape + ")";
+    }
+
+    @Override
+    public long getDelay() {
+
+        // inversion method; 1 - nextDouble() lies in (0, 1]; values beyond
+        // Long.MAX_VALUE are capped by Math.round();
+        final double value = this.scale * Math.pow(
+                1.0d - RandomStreams.current().nextDouble(),
+                this.exponent);
+
+        return Math.round(value);
+    }
+}
\ No newline at end of file
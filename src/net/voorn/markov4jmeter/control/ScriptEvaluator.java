@@ -0,0 +1,310 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.control;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * <p>Evaluates JavaScript guards and actions of state transitions.</p>
+ *
+ * <p>Each source string is compiled once into a Rhino {@link Script} and
+ * cached; the cache is bounded, sources beyond the limit are compiled in
+ * interpreted mode on each evaluation. Scripts are executed against a
+ * per-thread scope whose prototype is a sealed scope holding the standard
+ * JavaScript objects, which is shared among all threads. Consequently,
+ * top-level variables declared by a script remain visible to subsequent
+ * scripts of the same thread, but never to other threads.</p>
+ */
+public final class ScriptEvaluator {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** Maximum number of cached scripts. */
+    private static final int MAX_CACHED_SCRIPTS = 4096;
+
+    /** Name of the script source, as reported in error messages. */
+    private static final String SOURCE_NAME = "<cmd>";
+
+    /** Compiled scripts, mapped by source string. */
+    private static final ConcurrentMap<String,Script> scripts =
+            new ConcurrentHashMap<String,Script>();
+
+    /** Whether the cache limit has been reported already. */
+    private static volatile boolean cacheLimitReported = false;
+
+    /** Sealed scope holding the standard objects; created lazily. */
+    private static volatile ScriptableObject sharedScope = null;
+
+    /** Per-thread scopes, using the shared scope as prototype. */
+    private static final ThreadLocal<Scriptable> threadScopes =
+            new ThreadLocal<Scriptable>();
+
+
+    /**
+     * Private constructor, since all methods are static.
+     */
+    private ScriptEvaluator () { }
+
+    /**
+     * Evaluates the given JavaScript expression.
+     *
+     * @param expr  the expression to be evaluated.
+     *
+     * @return  the result, converted to a <code>String</code>.
+     */
+    public static String evaluate (final String expr) {
+
+        final Context cx = Context.enter();
+
+        try {
+
+            final Script script = ScriptEvaluator.getScript(cx, expr);
+            final Object result =
+                    script.exec(cx, ScriptEvaluator.getThreadScope(cx));
+
+            return Context.toString(result);
+
+        } finally {
+
+            Context.exit();
+        }
+    }
+
+    /**
+     * Returns the number of cached scripts.
+     *
+     * @return  the cache size.
+     */
+    public static int getCacheSize () {
+
+        return ScriptEvaluator.scripts.size();
+    }
+
+    /**
+     * Removes all cached scripts; per-thread scopes remain untouched.
+     */
+    public static void clearCache () {
+
+        ScriptEvaluator.scripts.clear();
+        ScriptEvaluator.cacheLimitReported = false;
+    }
+
+    /**
+     * Returns the compiled script for the given source, compiling and
+     * caching it if necessary.
+     *
+     * @param cx      the current context.
+     * @param source  the script source.
+     *
+     * @return  the compiled script.
+     */
+    private static Script getScript (final Context cx, final String source) {
+
+        Script script = ScriptEvaluator.scripts.get(source);
+
+        if (script == null) {
+
+            if (ScriptEvaluator.scripts.size() < ScriptEvaluator.MAX_CACHED_SCRIPTS) {
+
+                script = cx.compileString(
+                        source, ScriptEvaluator.SOURCE_NAME, 1, null);
+
+                final Script cached =
+                        ScriptEvaluator.scripts.putIfAbsent(source, script);
+
+                if (cached != null) {
+
+                    script = cached;
+                }
+
+            } else {
+
+                if (!ScriptEvaluator.cacheLimitReported) {
+
+                    ScriptEvaluator.cacheLimitReported = true;
+                    ScriptEvaluator.logger.warn(
+                            "Script cache limit of "
+                            + ScriptEvaluator.MAX_CACHED_SCRIPTS
+                            + " entries reached; further expressions will be "
+                            + "interpreted without caching.");
+                }
+
+                // avoid generating a class for a script used only once;
+                final int optimizationLevel = cx.getOptimizationLevel();
+
+                cx.setOptimizationLevel(-1);
+
+                try {
+
+                    script = cx.compileString(
+                            source, ScriptEvaluator.SOURCE_NAME, 1, null);
+
+                } finally {
+
+                    cx.setOptimizationLevel(optimizationLevel);
+                }
+            }
+        }
+
+        return script;
+    }
+
+    /**
+     * Returns the scope of the current thread, creating it if necessary.
+     *
+     * @param cx  the current context.
+     *
+     * @return  a scope whose prototype is the shared standard scope.
+     */
+    private static Scriptable getThreadScope (final Context cx) {
+
+        Scriptable scope = ScriptEvaluator.threadScopes.get();
+
+        if (scope == null) {
+
+            final ScriptableObject shared = ScriptEvaluator.getSharedScope(cx);
+
+            scope = cx.newObject(shared);
+            scope.setPrototype(shared);
+            scope.setParentScope(null);
+
+            ScriptEvaluator.threadScopes.set(scope);
+        }
+
+        return scope;
+    }
+
+    /**
+     * Returns the shared standard scope, creating it if necessary.
+     *
+     * @param cx  the current context.
+     *
+     * @return  the sealed standard scope.
+     */
+    private static ScriptableObject getSharedScope (final Context cx) {
+
+        ScriptableObject scope = ScriptEvaluator.sharedScope;
+
+        if (scope == null) {
+
+            synchronized (ScriptEvaluator.class) {
+
+                scope = ScriptEvaluator.sharedScope;
+
+                if (scope == null) {
+
+                    scope = cx.initStandardObjects(null, true);
+                    scope.sealObject();
+
+                    ScriptEvaluator.sharedScope = scope;
+                }
+            }
+        }
+
+        return scope;
+    }
+
+    /**
+     * Evaluates an expression the way it was done before scripts were
+     * cached; used for comparison only.
+     *
+     * @param expr  the expression to be evaluated.
+     *
+     * @return  the result, converted to a <code>String</code>.
+     */
+    private static String evaluateUncached (final String expr) {
+
+        final Context cx = Context.enter();
+
+        try {
+
+            final Scriptable scope = cx.initStandardObjects(null);
+            final Object result =
+                    cx.evaluateString(scope, expr, SOURCE_NAME, 1, null);
+
+            return Context.toString(result);
+
+        } finally {
+
+            Context.exit();
+        }
+    }
+
+    /**
+     * Main method which compares the evaluation times of cached and
+     * uncached expressions; for testing purposes only. The number of
+     * evaluations per expression might be passed as first argument.
+     *
+     * @param argv  arguments; optionally the number of evaluations.
+     */
+    public static void main (final String[] argv) {
+
+        final String[] expressions = {
+                "3 < 5",
+                "'ACTIVE' == 'ACTIVE' && 12 > 10",
+                "Math.floor(42 / 5) % 2 == 0",
+                "parseInt('17') + 1"
+        };
+
+        final int n = (argv.length > 0) ? Integer.parseInt(argv[0]) : 20000;
+
+        for (int round = 1; round <= 2; round++) {  // round 1 ~ warm-up;
+
+            long uncachedTime = 0;
+            long cachedTime = 0;
+
+            for (final String expr : expressions) {
+
+                long start = System.nanoTime();
+
+                for (int i = 0; i < n; i++) {
+
+                    ScriptEvaluator.evaluateUncached(expr);
+                }
+
+                uncachedTime += System.nanoTime() - start;
+                start = System.nanoTime();
+
+                for (int i = 0; i < n; i++) {
+
+                    ScriptEvaluator.evaluate(expr);
+                }
+
+                cachedTime += System.nanoTime() - start;
+            }
+
+            final long evaluations = (long) n * expressions.length;
+
+            System.out.println(String.format(
+                    "round %d: uncached %.2f us/eval, cached %.2f us/eval "
+                    + "(speedup %.1fx)",
+                    round,
+                    uncachedTime / 1000.0d / evaluations,
+                    cachedTime / 1000.0d / evaluations,
+                    (double) uncachedTime / cachedTime));
+        }
+    }
+}
@@ -63,7 +63,13 @@ public class SessionArrivalController {
     /** Logger for this class */
     private static final Logger logger = LoggingManager.getLoggerForClass();
     
-    /** Random number generator to be used within this class. */
+    /** Name of the property which provides the elapsed experiment time in
+     *  milliseconds to arrival formulas; the experiment time passes at the
+     *  speed of the arrival time factor of the {@link TimeScale}. */
+    public static final String EXPERIMENT_TIME_PROPERTY = "TEST.EXPERIMENT.MS";
+    
+    /** Random number generator for the wait jitter; kept apart from the
+     *  per-thread streams, whose draws must not depend on timing. */
     private static java.util.Random rand = new java.util.Random();
     
     /** Whether logging is enabled or not. */
@@ -134,16 +140,26 @@ public class SessionArrivalController {
     }
     
     /**
-     * Returns the elapsed experiment time in minutes.
+     * Returns the elapsed experiment time in minutes, scaled by the arrival
+     * time factor.
      *
      * @return the elapsed time in minutes.
      */
     private static double getExpTimeInMinutes(){
         long curMs = System.currentTimeMillis();
-        double expMin = ((double)(curMs-startTime))/(1000*60);
+        double expMin = ((double)TimeScale.getInstance().getExperimentTime(curMs))/(1000*60);
         return expMin;
     }
     
+    /**
+     * Updates the experiment time property, which might be used by arrival
+     * formulas; must be called before a formula is evaluated.
+     */
+    public static void updateExperimentTime(){
+        long expMs = TimeScale.getInstance().getExperimentTime(System.currentTimeMillis());
+        JMeterUtils.setProperty(EXPERIMENT_TIME_PROPERTY, expMs+"");
+    }
+    
     /**
      * Dumps the current number of active sessions. Must be synchronized from
      * outside.
@@ -260,6 +276,8 @@ public class SessionArrivalController {
         logger.info("Using JMeter.Markov version " + Markov4JMeterVersion.getVERSION());
         System.out.println("Experiment start time (ms) test:" + startTime);
         JMeterUtils.setProperty("TEST.START.MS",startTime+"");
+        TimeScale.testStarted(startTime);
+        updateExperimentTime();
     }
     
     /**
@@ -271,6 +289,7 @@ public class SessionArrivalController {
         
         testEnded = true;
         System.out.println("Experiment stop time (ms):" + System.currentTimeMillis());
+        TimeScale.testEnded();
         if (SessionArrivalController.instance != null){
             SessionArrivalController instance = SessionArrivalController.instance;
             try {
@@ -0,0 +1,539 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.voorn.markov4jmeter.util.RandomStreams;
+
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * <p>Binary log of the decisions made by a {@link MarkovController} within
+ * a single thread, i.e., the behavior model chosen for each session, the
+ * sequence of visited states and the sampled think times. A log written in
+ * recording mode can be read in replay mode, so that a subsequent test run
+ * issues exactly the same request sequences.</p>
+ *
+ * <p>Recording is enabled by the JMeter property
+ * <code>markov4jmeter.record.dir</code>, replay by
+ * <code>markov4jmeter.replay.dir</code>; each property denotes a directory
+ * which contains one log file per thread and controller, named by thread
+ * group, thread number and controller name; hence, the controllers within
+ * a thread group must be named distinctly. States are identified by their
+ * index within the compiled application model, hence a log can only be
+ * replayed with an unmodified Markov State structure.</p>
+ *
+ * <p>A log starts with a header (magic number, format version, master seed),
+ * followed by a sequence of records. A behavior record consists of the tag
+ * <code>'B'</code> and the behavior name; a transition record consists of
+ * the tag <code>'T'</code>, the destination state index and the think time
+ * delay plus 1 (0 denoting no think time), both encoded as variable-length
+ * integers. The exit state is denoted by index 0, without delay.</p>
+ */
+public final class SessionLog {
+
+    /** Name of the property which defines the recording directory. */
+    public static final String RECORD_DIRECTORY_PROPERTY = "markov4jmeter.record.dir";
+
+    /** Name of the property which defines the replay directory. */
+    public static final String REPLAY_DIRECTORY_PROPERTY = "markov4jmeter.replay.dir";
+
+    /** Extension of log files. */
+    public static final String FILE_EXTENSION = ".m4jlog";
+
+    /** Magic number at the beginning of each log ("M4JL"). */
+    private static final int MAGIC = 0x4D344A4C;
+
+    /** Version of the log format. */
+    private static final int VERSION = 1;
+
+    /** Tag of behavior records. */
+    private static final int BEHAVIOR_RECORD = 'B';
+
+    /** Tag of transition records. */
+    private static final int TRANSITION_RECORD = 'T';
+
+    /** Size of the I/O buffers in bytes. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Absolute paths of the log files currently being recorded. */
+    private static final Set<String> recordedFiles = new HashSet<String>();
+
+
+    /**
+     * Private constructor, since all methods are static.
+     */
+    private SessionLog () { }
+
+    /**
+     * Returns the recording directory.
+     *
+     * @return  the directory, or <code>null</code> if recording is disabled.
+     */
+    public static File getRecordDirectory () {
+
+        return SessionLog.getDirectory(SessionLog.RECORD_DIRECTORY_PROPERTY);
+    }
+
+    /**
+     * Returns the replay directory.
+     *
+     * @return  the directory, or <code>null</code> if replay is disabled.
+     */
+    public static File getReplayDirectory () {
+
+        return SessionLog.getDirectory(SessionLog.REPLAY_DIRECTORY_PROPERTY);
+    }
+
+    /**
+     * Forgets the log files recorded in a previous test run; must be called
+     * on test start.
+     */
+    public static void testStarted () {
+
+        synchronized (SessionLog.recordedFiles) {
+
+            SessionLog.recordedFiles.clear();
+        }
+    }
+
+    /**
+     * Returns the log file of the current thread and the given controller
+     * within the given directory.
+     *
+     * @param directory       the directory of the log files.
+     * @param controllerName  the name of the controller.
+     *
+     * @return  the log file, named by thread group, thread number and
+     *          controller name.
+     */
+    public static File getThreadFile (
+            final File directory,
+            final String controllerName) {
+
+        final JMeterContext context = JMeterContextService.getContext();
+        final AbstractThreadGroup threadGroup = context.getThreadGroup();
+
+        final String name = ((threadGroup != null) ?
+                threadGroup.getName() + "-" + context.getThreadNum() :
+                Thread.currentThread().getName()) + "-" + controllerName;
+
+        return new File(directory,
+                name.replaceAll("[^A-Za-z0-9._-]", "_") + SessionLog.FILE_EXTENSION);
+    }
+
+    /**
+     * Reads a directory property.
+     *
+     * @param property  the name of the property.
+     *
+     * @return  the directory, or <code>null</code> if the property is empty
+     *          or undefined.
+     */
+    private static File getDirectory (final String property) {
+
+        final String value = JMeterUtils.getPropDefault(property, (String) null);
+
+        return (value != null && value.trim().length() > 0) ?
+                new File(value.trim()) : null;
+    }
+
+
+    /**
+     * Writes the decisions of a thread to a log file; instances must be used
+     * by a single thread only.
+     */
+    public static final class Recorder {
+
+        /** Stream of the log file. */
+        private final DataOutputStream out;
+
+        /** Buffer for variable-length integers. */
+        private final byte[] buffer = new byte[10];
+
+        /** Absolute path of the log file. */
+        private final String path;
+
+        /**
+         * Creates a log file, overwriting any existing file, and writes the
+         * header.
+         *
+         * @param file  the log file.
+         *
+         * @throws IOException  if the file cannot be written, or if it is
+         *                      being recorded by another controller already.
+         */
+        public Recorder (final File file) throws IOException {
+
+            this.path = file.getAbsolutePath();
+
+            synchronized (SessionLog.recordedFiles) {
+
+                if (!SessionLog.recordedFiles.add(this.path)) {
+
+                    throw new IOException("File is being recorded by another "
+                            + "controller already; controllers within a thread "
+                            + "group must be named distinctly");
+                }
+            }
+
+            try {
+
+                this.out = Recorder.create(file);
+
+            } catch (final IOException ex) {
+
+                this.release();
+                throw ex;
+            }
+        }
+
+        /**
+         * Creates a log file and writes the header.
+         */
+        private static DataOutputStream create (final File file)
+                throws IOException {
+
+            final File directory = file.getParentFile();
+
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+
+                throw new IOException(
+                        "Could not create directory \"" + directory + "\"");
+            }
+
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file),
+                            SessionLog.BUFFER_SIZE));
+
+            out.writeInt(SessionLog.MAGIC);
+            out.writeByte(SessionLog.VERSION);
+            out.writeLong(RandomStreams.getMasterSeed());
+
+            return out;
+        }
+
+        /**
+         * Records the behavior chosen for a new session.
+         *
+         * @param name  the name of the behavior.
+         *
+         * @throws IOException  if writing fails.
+         */
+        public void recordBehavior (final String name) throws IOException {
+
+            this.out.writeByte(SessionLog.BEHAVIOR_RECORD);
+            this.out.writeUTF(name);
+        }
+
+        /**
+         * Records a transition.
+         *
+         * @param destination  index of the destination state; 0 denotes the
+         *                     exit state.
+         * @param delay        the think time delay in milliseconds, or a
+         *                     negative value if no think time is defined.
+         *
+         * @throws IOException  if writing fails.
+         */
+        public void recordTransition (final int destination, final long delay)
+                throws IOException {
+
+            this.out.writeByte(SessionLog.TRANSITION_RECORD);
+            this.writeVarLong(destination);
+
+            if (destination != CompiledApplicationModel.EXIT_STATE_INDEX) {
+
+                this.writeVarLong((delay < 0) ? 0 : delay + 1);
+            }
+        }
+
+        /**
+         * Flushes and closes the log file.
+         *
+         * @throws IOException  if writing fails.
+         */
+        public void close () throws IOException {
+
+            try {
+
+                this.out.close();
+
+            } finally {
+
+                this.release();
+            }
+        }
+
+        /**
+         * Releases the log file for being recorded again.
+         */
+        private void release () {
+
+            synchronized (SessionLog.recordedFiles) {
+
+                SessionLog.recordedFiles.remove(this.path);
+            }
+        }
+
+        /**
+         * Writes a non-negative value in 7-bit groups, least significant
+         * group first.
+         */
+        private void writeVarLong (long value) throws IOException {
+
+            int length = 0;
+
+            while ((value & ~0x7FL) != 0) {
+
+                this.buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            this.buffer[length++] = (byte) value;
+            this.out.write(this.buffer, 0, length);
+        }
+    }
+
+
+    /**
+     * Reads the decisions of a thread from a log file; instances must be used
+     * by a single thread only.
+     */
+    public static final class Replayer {
+
+        /** Stream of the log file. */
+        private final DataInputStream in;
+
+        /** Master seed of the recorded test run. */
+        private final long masterSeed;
+
+        /** Destination of the transition read last. */
+        private int destination;
+
+        /** Delay of the transition read last; negative if undefined. */
+        private long delay;
+
+        /** Tag of the next record, -1 if the log is exhausted. */
+        private int nextTag;
+
+        /**
+         * Opens a log file and reads the header.
+         *
+         * @param file  the log file.
+         *
+         * @throws IOException  if the file cannot be read or is invalid.
+         */
+        public Replayer (final File file) throws IOException {
+
+            this.in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), SessionLog.BUFFER_SIZE));
+
+            try {
+
+                if (this.in.readInt() != SessionLog.MAGIC) {
+
+                    throw new IOException("\"" + file + "\" is no session log");
+                }
+
+                final int version = this.in.readUnsignedByte();
+
+                if (version != SessionLog.VERSION) {
+
+                    throw new IOException("Unsupported version " + version
+                            + " of session log \"" + file + "\"");
+                }
+
+                this.masterSeed = this.in.readLong();
+                this.nextTag = this.readTag();
+
+            } catch (final IOException ex) {
+
+                this.in.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Returns the master seed of the recorded test run.
+         *
+         * @return  the master seed.
+         */
+        public long getMasterSeed () {
+
+            return this.masterSeed;
+        }
+
+        /**
+         * Reads the behavior of the next session; remaining transitions of
+         * the current session are skipped.
+         *
+         * @return  the name of the behavior, or <code>null</code> if the log
+         *          contains no further session.
+         *
+         * @throws IOException  if reading fails.
+         */
+        public String nextBehavior () throws IOException {
+
+            while (this.nextTag == SessionLog.TRANSITION_RECORD) {
+
+                this.nextTransition();
+            }
+
+            if (this.nextTag != SessionLog.BEHAVIOR_RECORD) {
+
+                return null;
+            }
+
+            try {
+
+                final String name = this.in.readUTF();
+                this.nextTag = this.readTag();
+
+                // a session without any transition has not been started in
+                // the recorded run, since its thread had been stopped before;
+                return (this.nextTag == SessionLog.TRANSITION_RECORD) ?
+                        name : null;
+
+            } catch (final EOFException ex) {
+
+                this.nextTag = -1;  // truncated record;
+                return null;
+            }
+        }
+
+        /**
+         * Reads the next transition of the current session; its destination
+         * and delay are available via {@link #getDestination()} and
+         * {@link #getDelay()} afterwards.
+         *
+         * @return  <code>false</code> if the session has no further
+         *          transitions or the log is exhausted.
+         *
+         * @throws IOException  if reading fails.
+         */
+        public boolean nextTransition () throws IOException {
+
+            if (this.nextTag != SessionLog.TRANSITION_RECORD) {
+
+                return false;
+            }
+
+            try {
+
+                this.destination = (int) this.readVarLong();
+                this.delay = (this.destination !=
+                        CompiledApplicationModel.EXIT_STATE_INDEX) ?
+                        this.readVarLong() - 1 : -1;
+                this.nextTag = this.readTag();
+
+                return true;
+
+            } catch (final EOFException ex) {
+
+                this.nextTag = -1;  // truncated record;
+                return false;
+            }
+        }
+
+        /**
+         * Returns the destination of the transition read last.
+         *
+         * @return  the index of the destination state; 0 denotes the exit
+         *          state.
+         */
+        public int getDestination () {
+
+            return this.destination;
+        }
+
+        /**
+         * Returns the think time delay of the transition read last.
+         *
+         * @return  the delay in milliseconds, or a negative value if no think
+         *          time was defined.
+         */
+        public long getDelay () {
+
+            return this.delay;
+        }
+
+        /**
+         * Closes the log file.
+         *
+         * @throws IOException  if closing fails.
+         */
+        public void close () throws IOException {
+
+            this.in.close();
+        }
+
+        /**
+         * Reads the tag of the next record.
+         *
+         * @return  the tag, or -1 at the end of the log.
+         */
+        private int readTag () throws IOException {
+
+            final int tag = this.in.read();
+
+            if (tag >= 0 && tag != SessionLog.BEHAVIOR_RECORD &&
+                    tag != SessionLog.TRANSITION_RECORD) {
+
+                throw new IOException("Invalid record tag " + tag);
+            }
+
+            return tag;
+        }
+
+        /**
+         * Reads a value written by {@link Recorder#writeVarLong(long)}.
+         */
+        private long readVarLong () throws IOException {
+
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+
+                final int b = this.in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) {
+
+                    return value;
+                }
+            }
+
+            throw new IOException("Malformed variable-length integer");
+        }
+    }
+}
@@ -2,7 +2,9 @@ package net.voorn.markov4jmeter.control;
 
 /**
  * This is the <code>abstract</code> base class of all think time types,
- * regarding to a certain distribution type.
+ * regarding to a certain distribution type. Instances must be immutable,
+ * since they are shared among matrix cells and threads; random values are
+ * drawn from the stream of the calling thread.
  *
  * @author Eike Schulz (esc@informatik.uni-kiel.de)
  * @version 1.0 (2014-01-31)
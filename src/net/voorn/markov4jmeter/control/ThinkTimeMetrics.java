@@ -0,0 +1,363 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.voorn.markov4jmeter.util.LogLinearHistogram;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * <p>Accounting of think times: for each behavior and each transition, the
+ * requested delays, the actually elapsed delays and their overshoot are
+ * recorded into {@link LogLinearHistogram}s, which are written to the log
+ * on test end.</p>
+ *
+ * <p>A think time which takes noticeably longer than requested indicates
+ * that the load generator is saturated, e.g., since too many threads
+ * compete for the CPU; in that case, the workload is weaker than modeled.
+ * Therefore, the median overshoot of all think times is checked every
+ * {@value #CHECK_INTERVAL} milliseconds, and a warning is logged as soon as
+ * it exceeds a threshold.</p>
+ *
+ * <p>The metrics are enabled via the JMeter property
+ * <code>markov4jmeter.thinkTimeMetrics</code>; the threshold in
+ * milliseconds is defined by the property
+ * <code>markov4jmeter.saturationThreshold</code> (default 5). Only think
+ * times which are applied by the {@link MarkovController} itself are
+ * measured, not those passed to a {@link MarkovThinkTimer}.</p>
+ */
+public final class ThinkTimeMetrics {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** Name of the property which enables the metrics. */
+    public static final String ENABLED_PROPERTY = "markov4jmeter.thinkTimeMetrics";
+
+    /** Name of the property which defines the saturation threshold. */
+    public static final String SATURATION_THRESHOLD_PROPERTY = "markov4jmeter.saturationThreshold";
+
+    /** Default saturation threshold in milliseconds. */
+    private static final long DEFAULT_SATURATION_THRESHOLD = 5L;
+
+    /** Interval of saturation checks in milliseconds. */
+    public static final long CHECK_INTERVAL = 10000L;
+
+    /** Whether the metrics are enabled for the current test run. */
+    private static volatile boolean enabled = false;
+
+    /** Saturation threshold in microseconds. */
+    private static volatile long saturationThreshold =
+            ThinkTimeMetrics.DEFAULT_SATURATION_THRESHOLD * 1000L;
+
+    /** Metrics of all behaviors, mapped by application and behavior name. */
+    private static final ConcurrentMap<String,BehaviorMetrics> behaviors =
+            new ConcurrentHashMap<String,BehaviorMetrics>();
+
+    /** Overshoots since the last saturation check. */
+    private static final LogLinearHistogram recentOvershoots =
+            new LogLinearHistogram();
+
+    /** Time of the next saturation check in milliseconds. */
+    private static final AtomicLong nextCheck = new AtomicLong(0L);
+
+    /** Whether saturation has been reported by the last check. */
+    private static volatile boolean saturated = false;
+
+
+    /**
+     * Private constructor, since all methods are static.
+     */
+    private ThinkTimeMetrics () { }
+
+    /**
+     * Returns whether the metrics are enabled for the current test run.
+     *
+     * @return  <code>true</code> if and only if think times are to be
+     *          recorded.
+     */
+    public static boolean isEnabled () {
+
+        return ThinkTimeMetrics.enabled;
+    }
+
+    /**
+     * Reads the properties and removes the metrics of previous test runs;
+     * must be called on test start.
+     */
+    static synchronized void testStarted () {
+
+        ThinkTimeMetrics.enabled = JMeterUtils.getPropDefault(
+                ThinkTimeMetrics.ENABLED_PROPERTY, false);
+
+        ThinkTimeMetrics.saturationThreshold = 1000L * JMeterUtils.getPropDefault(
+                ThinkTimeMetrics.SATURATION_THRESHOLD_PROPERTY,
+                ThinkTimeMetrics.DEFAULT_SATURATION_THRESHOLD);
+
+        ThinkTimeMetrics.behaviors.clear();
+        ThinkTimeMetrics.recentOvershoots.reset();
+        ThinkTimeMetrics.nextCheck.set(
+                System.currentTimeMillis() + ThinkTimeMetrics.CHECK_INTERVAL);
+        ThinkTimeMetrics.saturated = false;
+    }
+
+    /**
+     * Writes the metrics to the log and removes them; must be called on
+     * test end.
+     */
+    static synchronized void testEnded () {
+
+        if (ThinkTimeMetrics.behaviors.isEmpty()) {
+
+            return;
+        }
+
+        final List<String> keys =
+                new ArrayList<String>(ThinkTimeMetrics.behaviors.keySet());
+
+        Collections.sort(keys);
+
+        for (final String key : keys) {
+
+            ThinkTimeMetrics.behaviors.get(key).dump(key);
+        }
+
+        ThinkTimeMetrics.behaviors.clear();
+    }
+
+    /**
+     * Returns the metrics of a behavior, creating them if necessary.
+     *
+     * @param application  the name of the application, i.e., the Markov
+     *                     Session Controller.
+     * @param behavior     the behavior.
+     * @param model        the compiled application model of the behavior.
+     *
+     * @return  the metrics of the behavior.
+     */
+    static BehaviorMetrics getBehaviorMetrics (
+            final String application,
+            final BehaviorMixEntry behavior,
+            final CompiledApplicationModel model) {
+
+        final String key = application + "/" + behavior.getBName();
+
+        BehaviorMetrics metrics = ThinkTimeMetrics.behaviors.get(key);
+
+        if (metrics == null) {
+
+            metrics = new BehaviorMetrics(model);
+
+            final BehaviorMetrics existing =
+                    ThinkTimeMetrics.behaviors.putIfAbsent(key, metrics);
+
+            if (existing != null) {
+
+                metrics = existing;
+            }
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Records an overshoot for the saturation check and performs the check
+     * if it is due.
+     */
+    private static void checkSaturation (final long overshoot) {
+
+        ThinkTimeMetrics.recentOvershoots.record(overshoot);
+
+        final long now = System.currentTimeMillis();
+        final long next = ThinkTimeMetrics.nextCheck.get();
+
+        if (now < next || !ThinkTimeMetrics.nextCheck.compareAndSet(
+                next, now + ThinkTimeMetrics.CHECK_INTERVAL)) {
+
+            return;  // not due, or checked by another thread;
+        }
+
+        final long median = ThinkTimeMetrics.recentOvershoots.getValueAtQuantile(0.5d);
+
+        ThinkTimeMetrics.recentOvershoots.reset();
+
+        if (median > ThinkTimeMetrics.saturationThreshold) {
+
+            if (!ThinkTimeMetrics.saturated) {
+
+                ThinkTimeMetrics.saturated = true;
+                ThinkTimeMetrics.logger.warn(String.format(
+                        "Load generator saturated: median think time "
+                        + "overshoot is %.1f ms (threshold %.1f ms); the "
+                        + "workload is weaker than modeled.",
+                        median / 1000.0d,
+                        ThinkTimeMetrics.saturationThreshold / 1000.0d));
+            }
+
+        } else if (ThinkTimeMetrics.saturated) {
+
+            ThinkTimeMetrics.saturated = false;
+            ThinkTimeMetrics.logger.info(String.format(
+                    "Load generator recovered: median think time overshoot "
+                    + "is %.1f ms.", median / 1000.0d));
+        }
+    }
+
+
+    /**
+     * Metrics of a single behavior.
+     */
+    static final class BehaviorMetrics {
+
+        /** The compiled application model, for resolving state names. */
+        private final CompiledApplicationModel model;
+
+        /** Metrics of all transitions of the behavior. */
+        private final TransitionMetrics total = new TransitionMetrics(-1, -1);
+
+        /** Metrics of each transition, indexed by transition offset;
+         *  created on first use. */
+        private final AtomicReferenceArray<TransitionMetrics> transitions;
+
+        BehaviorMetrics (final CompiledApplicationModel model) {
+
+            this.model = model;
+            this.transitions = new AtomicReferenceArray<TransitionMetrics>(
+                    model.getTransitionCount());
+        }
+
+        /**
+         * Records a think time.
+         *
+         * @param transition  the transition offset within the model.
+         * @param src         index of the source state.
+         * @param dst         index of the destination state.
+         * @param requested   the requested delay in milliseconds.
+         * @param actual      the elapsed delay in nanoseconds.
+         */
+        void record (
+                final int transition,
+                final int src,
+                final int dst,
+                final long requested,
+                final long actual) {
+
+            TransitionMetrics metrics = this.transitions.get(transition);
+
+            if (metrics == null) {
+
+                this.transitions.compareAndSet(
+                        transition, null, new TransitionMetrics(src, dst));
+                metrics = this.transitions.get(transition);
+            }
+
+            final long requestedMicros = requested * 1000L;
+            final long actualMicros = actual / 1000L;
+            final long overshoot = Math.max(0L, actualMicros - requestedMicros);
+
+            metrics.record(requestedMicros, actualMicros, overshoot);
+            this.total.record(requestedMicros, actualMicros, overshoot);
+
+            ThinkTimeMetrics.checkSaturation(overshoot);
+        }
+
+        /**
+         * Writes the metrics of the behavior and its transitions to the log.
+         */
+        private void dump (final String name) {
+
+            ThinkTimeMetrics.logger.info(
+                    "Think times of behavior \"" + name + "\": "
+                    + this.total.format());
+
+            for (int i = 0; i < this.transitions.length(); i++) {
+
+                final TransitionMetrics metrics = this.transitions.get(i);
+
+                if (metrics != null) {
+
+                    ThinkTimeMetrics.logger.info("  \""
+                            + this.model.getStateName(metrics.src) + "\" -> \""
+                            + this.model.getStateName(metrics.dst) + "\": "
+                            + metrics.format());
+                }
+            }
+        }
+    }
+
+    /**
+     * Histograms of the requested delays, elapsed delays and overshoots, in
+     * microseconds.
+     */
+    private static final class TransitionMetrics {
+
+        final int src;
+
+        final int dst;
+
+        final LogLinearHistogram requested = new LogLinearHistogram();
+
+        final LogLinearHistogram actual = new LogLinearHistogram();
+
+        final LogLinearHistogram overshoot = new LogLinearHistogram();
+
+        TransitionMetrics (final int src, final int dst) {
+
+            this.src = src;
+            this.dst = dst;
+        }
+
+        void record (final long requested, final long actual, final long overshoot) {
+
+            this.requested.record(requested);
+            this.actual.record(actual);
+            this.overshoot.record(overshoot);
+        }
+
+        String format () {
+
+            return String.format(
+                    "count %d, requested p50/p90/p99 %s ms, "
+                    + "actual p50/p90/p99 %s ms, overshoot p50/p99/max %.1f/%.1f/%.1f ms",
+                    this.requested.getCount(),
+                    TransitionMetrics.formatQuantiles(this.requested),
+                    TransitionMetrics.formatQuantiles(this.actual),
+                    this.overshoot.getValueAtQuantile(0.5d) / 1000.0d,
+                    this.overshoot.getValueAtQuantile(0.99d) / 1000.0d,
+                    this.overshoot.getMax() / 1000.0d);
+        }
+
+        private static String formatQuantiles (final LogLinearHistogram histogram) {
+
+            return String.format("%.1f/%.1f/%.1f",
+                    histogram.getValueAtQuantile(0.5d) / 1000.0d,
+                    histogram.getValueAtQuantile(0.9d) / 1000.0d,
+                    histogram.getValueAtQuantile(0.99d) / 1000.0d);
+        }
+    }
+}
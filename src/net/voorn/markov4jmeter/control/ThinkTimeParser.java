@@ -1,5 +1,8 @@
 package net.voorn.markov4jmeter.control;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Class for parsing a token of a CSV-file which denotes a user think time.
  * A token has to be formatted as
@@ -7,7 +10,26 @@ package net.voorn.markov4jmeter.control;
  *   <i>&#060;functionDescriptor&#062;</i>(<i>&#060;parameter1&#062; &#060;parameter2&#062; ... </i> )
  * </blockquote>
  * whereas <i>&#060;functionDescriptor&#062;</i> indicates the used distribution
- * function. The number of parameters depends on that distribution.
+ * function. The number of parameters depends on that distribution; all
+ * values are given in milliseconds:
+ * <ul>
+ *   <li> <code>norm(mean deviation)</code> -- normal distribution, negative
+ *        values are set to 0;
+ *   <li> <code>exp(mean)</code> -- exponential distribution;
+ *   <li> <code>lognorm(mu sigma)</code> -- log-normal distribution, with
+ *        mean and standard deviation of the logarithm;
+ *   <li> <code>uniform(min max)</code> -- uniform distribution;
+ *   <li> <code>weibull(shape scale)</code> -- Weibull distribution;
+ *   <li> <code>const(value)</code> -- constant think time;
+ *   <li> <code>pareto(scale shape)</code> -- Pareto distribution, with the
+ *        minimum think time as scale;
+ *   <li> <code>empirical(file)</code> -- empirical distribution, read from
+ *        a histogram or quantile table file (see
+ *        {@link EmpiricalThinkTime}).
+ * </ul>
+ * Parsing is lock-free. Since think times are immutable, parse results are
+ * interned by token, so that all matrix cells with the same token share a
+ * single {@link ThinkTime} instance.
  *
  * @author Eike Schulz (esc@informatik.uni-kiel.de)
  *
@@ -18,6 +40,13 @@ public class ThinkTimeParser {
     /** Regular expression specifying the separator for parameters. */
     private final static String PARAMETER_SEPARATOR = "\\s+";
 
+    /** Maximum number of interned think times. */
+    private final static int MAX_INTERNED_THINK_TIMES = 65536;
+
+    /** Interned think times, mapped by their (trimmed) tokens. */
+    private final static ConcurrentMap<String,ThinkTime> thinkTimes =
+            new ConcurrentHashMap<String,ThinkTime>();
+
     // TODO: static methods should be made non-static, and an instance of this class needs to be assigned to BehaviorMixEntry, to comply with the thesis documentation;
 
     /**
@@ -33,15 +62,23 @@ public class ThinkTimeParser {
      *     parsing starts.
      *
      * @return
-     *     A valid instance of a {@link ThinkTime} sub-class, or
-     *     <code>null</code> if parsing fails for any reason.
+     *     A valid instance of a {@link ThinkTime} sub-class, which might be
+     *     shared with other callers; <code>null</code> if parsing fails for
+     *     any reason.
      */
-    public synchronized static ThinkTime parse (String str) {
+    public static ThinkTime parse (String str) {
 
         if (str != null) {
 
             str = str.trim();
 
+            final ThinkTime interned = ThinkTimeParser.thinkTimes.get(str);
+
+            if (interned != null) {
+
+                return interned;
+            }
+
             // ensure that at least one leading character exists prior the
             // first opening bracket; closing bracket must be at last position;
             if ( str.indexOf('(') > 0 &&
@@ -53,15 +90,48 @@ public class ThinkTimeParser {
                 final String[] parameters =
                         ThinkTimeParser.extractParameters(str);
 
-                return ThinkTimeParser.createThinkTime(
+                final ThinkTime thinkTime = ThinkTimeParser.createThinkTime(
                         functionDescriptor,
                         parameters);
+
+                return ThinkTimeParser.intern(str, thinkTime);
             }
         }
 
         return null;  // invalid function String;
     }
 
+    /**
+     * Interns a parsed think time, unless the limit of interned think times
+     * has been reached. Empirical think times are not interned, since they
+     * are cached by file and reloaded if their file has been modified.
+     *
+     * @param str
+     *     The (trimmed) token of the think time.
+     * @param thinkTime
+     *     The parsed think time; might be <code>null</code>.
+     *
+     * @return
+     *     The interned think time for the given token, or the given think
+     *     time if it has not been interned.
+     */
+    private static ThinkTime intern (
+            final String str,
+            final ThinkTime thinkTime) {
+
+        if (thinkTime == null || thinkTime instanceof EmpiricalThinkTime ||
+                ThinkTimeParser.thinkTimes.size() >=
+                ThinkTimeParser.MAX_INTERNED_THINK_TIMES) {
+
+            return thinkTime;
+        }
+
+        final ThinkTime interned =
+                ThinkTimeParser.thinkTimes.putIfAbsent(str, thinkTime);
+
+        return (interned != null) ? interned : thinkTime;
+    }
+
     /**
      * Extracts the function descriptor which indicates the distribution type.
      *
@@ -126,6 +196,85 @@ public class ThinkTimeParser {
                     parameters);
         }
 
+        if (ExponentiallyDistributedThinkTime.FUNCTION_DESCRIPTOR.
+                equalsIgnoreCase(functionDescriptor)) {
+
+            final double[] values = ThinkTimeParser.parseValues(parameters, 1);
+
+            // mean >= 0;
+            return (values != null && values[0] >= 0) ?
+                    new ExponentiallyDistributedThinkTime(values[0]) : null;
+        }
+
+        if (LogNormallyDistributedThinkTime.FUNCTION_DESCRIPTOR.
+                equalsIgnoreCase(functionDescriptor)) {
+
+            final double[] values = ThinkTimeParser.parseValues(parameters, 2);
+
+            // sigma >= 0;
+            return (values != null && values[1] >= 0) ?
+                    new LogNormallyDistributedThinkTime(values[0], values[1]) :
+                    null;
+        }
+
+        if (UniformlyDistributedThinkTime.FUNCTION_DESCRIPTOR.
+                equalsIgnoreCase(functionDescriptor)) {
+
+            final double[] values = ThinkTimeParser.parseValues(parameters, 2);
+
+            // 0 <= min <= max;
+            return (values != null && values[0] >= 0 && values[1] >= values[0]) ?
+                    new UniformlyDistributedThinkTime(values[0], values[1]) :
+                    null;
+        }
+
+        if (WeibullDistributedThinkTime.FUNCTION_DESCRIPTOR.
+                equalsIgnoreCase(functionDescriptor)) {
+
+            final double[] values = ThinkTimeParser.parseValues(parameters, 2);
+
+            // shape > 0, scale >= 0;
+            return (values != null && values[0] > 0 && values[1] >= 0) ?
+                    new WeibullDistributedThinkTime(values[0], values[1]) :
+                    null;
+        }
+
+        if (ConstantThinkTime.FUNCTION_DESCRIPTOR.
+                equalsIgnoreCase(functionDescriptor)) {
+
+            final double[] values = ThinkTimeParser.parseValues(parameters, 1);
+
+            // value >= 0;
+            return (values != null && values[0] >= 0) ?
+                    new ConstantThinkTime(values[0]) : null;
+        }
+
+        if (ParetoDistributedThinkTime.FUNCTION_DESCRIPTOR.
+                equalsIgnoreCase(functionDescriptor)) {
+
+            final double[] values = ThinkTimeParser.parseValues(parameters, 2);
+
+            // scale > 0, shape > 0;
+            return (values != null && values[0] > 0 && values[1] > 0) ?
+                    new ParetoDistributedThinkTime(values[0], values[1]) :
+                    null;
+        }
+
+        if (EmpiricalThinkTime.FUNCTION_DESCRIPTOR.
+                equalsIgnoreCase(functionDescriptor)) {
+
+            // file paths might contain separated whitespace;
+            final StringBuilder path = new StringBuilder();
+
+            for (int i = 0; i < parameters.length; i++) {
+
+                path.append((i > 0) ? " " : "").append(parameters[i]);
+            }
+
+            return (path.length() > 0) ?
+                    EmpiricalThinkTime.load(path.toString()) : null;
+        }
+
         // more cases might be added for further distribution types;
 
         return null;  // null ~ unknown function descriptor;
@@ -165,6 +314,50 @@ public class ThinkTimeParser {
         return thinkTime;
     }
 
+    /**
+     * Parses the given parameters as <code>double</code> values.
+     *
+     * @param parameters
+     *     The (unparsed) function parameters.
+     * @param count
+     *     The number of parameters required by the distribution type.
+     *
+     * @return
+     *     The parsed values, or <code>null</code> if the number of parameters
+     *     does not match or any value is invalid; infinite and NaN values
+     *     are invalid as well.
+     */
+    private static double[] parseValues (
+            final String[] parameters,
+            final int count) {
+
+        if (parameters.length != count) {
+
+            return null;
+        }
+
+        final double[] values = new double[count];
+
+        try {
+
+            for (int i = 0; i < count; i++) {
+
+                values[i] = Double.parseDouble(parameters[i]);
+
+                if (Double.isNaN(values[i]) || Double.isInfinite(values[i])) {
+
+                    return null;
+                }
+            }
+
+        } catch (final NumberFormatException ex) {
+
+            return null;
+        }
+
+        return values;
+    }
+
     /**
      * This has just been added for testing purposes (could be implemented as
      * JUnit test).
@@ -183,6 +376,12 @@ public class ThinkTimeParser {
         System.out.println( ThinkTimeParser.parse("norm( 86 40 )") );
         System.out.println( ThinkTimeParser.parse(" norm(86 40.5) ") );
         System.out.println( ThinkTimeParser.parse("norm (86 40.5)") );
+        System.out.println( ThinkTimeParser.parse("exp(2500)") );
+        System.out.println( ThinkTimeParser.parse("lognorm(7.5 0.8)") );
+        System.out.println( ThinkTimeParser.parse("uniform(1000 5000)") );
+        System.out.println( ThinkTimeParser.parse("weibull(0.7 3000)") );
+        System.out.println( ThinkTimeParser.parse("const(1500)") );
+        System.out.println( ThinkTimeParser.parse("pareto(800 1.5)") );
 
         System.out.println("invalid formats:");
         System.out.println( ThinkTimeParser.parse("norm(45 24") );
@@ -191,6 +390,16 @@ public class ThinkTimeParser {
         System.out.println( ThinkTimeParser.parse("nor(45 24)") );
         System.out.println( ThinkTimeParser.parse("norm(45x 24)") );
         System.out.println( ThinkTimeParser.parse("norm(45 24x)") );
+        System.out.println( ThinkTimeParser.parse("exp(-1)") );
+        System.out.println( ThinkTimeParser.parse("lognorm(7.5)") );
+        System.out.println( ThinkTimeParser.parse("uniform(5000 1000)") );
+        System.out.println( ThinkTimeParser.parse("weibull(0 3000)") );
+        System.out.println( ThinkTimeParser.parse("const(NaN)") );
+        System.out.println( ThinkTimeParser.parse("pareto(800 0)") );
         System.out.println( ThinkTimeParser.parse(null) );
+
+        System.out.println("interned:");
+        System.out.println( ThinkTimeParser.parse("norm(86 40.5)") ==
+                            ThinkTimeParser.parse(" norm(86 40.5) ") );
     }
 }
\ No newline at end of file
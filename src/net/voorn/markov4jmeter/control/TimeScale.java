@@ -0,0 +1,266 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * <p>Test-level scale factors for compressing or stretching a workload in
+ * time, e.g., for running a 24-hour session pattern within 2 hours.</p>
+ *
+ * <p>The <i>think time factor</i> is multiplied with each think time; e.g.,
+ * a factor of 1/12 shortens all think times accordingly. The <i>arrival
+ * time factor</i> is the speed of the experiment clock which is provided to
+ * the arrival formulas of the session arrival controller via the property
+ * {@link SessionArrivalController#EXPERIMENT_TIME_PROPERTY}; e.g., with a
+ * factor of 12, the clock passes 12 minutes of the modeled day per real
+ * minute. Changes of the arrival time factor only affect the clock from then
+ * on, so the experiment time remains continuous.</p>
+ *
+ * <p>Initial factors are read from the JMeter properties
+ * <code>markov4jmeter.thinkTimeScale</code> and
+ * <code>markov4jmeter.arrivalTimeScale</code> on test start, defaulting to
+ * 1. During the test run, they can be adjusted via the functions
+ * <code>__ThinkTimeScale</code> and <code>__ArrivalTimeScale</code>, or via
+ * JMX, using the MBean registered as {@link #OBJECT_NAME}.</p>
+ */
+public final class TimeScale implements TimeScaleMBean {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** Name of the property which defines the initial think time factor. */
+    public static final String THINK_TIME_SCALE_PROPERTY = "markov4jmeter.thinkTimeScale";
+
+    /** Name of the property which defines the initial arrival time factor. */
+    public static final String ARRIVAL_TIME_SCALE_PROPERTY = "markov4jmeter.arrivalTimeScale";
+
+    /** Name of the MBean. */
+    public static final String OBJECT_NAME = "net.voorn.markov4jmeter:type=TimeScale";
+
+    /** The only instance of this class. */
+    private static final TimeScale instance = new TimeScale();
+
+    /** Factor by which think times are multiplied. */
+    private volatile double thinkTimeFactor = 1.0d;
+
+    /** Speed of the experiment clock. */
+    private double arrivalTimeFactor = 1.0d;
+
+    /** Real time in milliseconds at which the arrival time factor has been
+     *  set last. */
+    private long baseRealTime = 0L;
+
+    /** Experiment time in milliseconds at {@link #baseRealTime}. */
+    private long baseExperimentTime = 0L;
+
+
+    /**
+     * Private constructor, since the class is used in singleton mode.
+     */
+    private TimeScale () { }
+
+    /**
+     * Returns the only instance of this class.
+     *
+     * @return  the time scale of the test run.
+     */
+    public static TimeScale getInstance () {
+
+        return TimeScale.instance;
+    }
+
+    /**
+     * Initializes the factors from the JMeter properties, starts the
+     * experiment clock and registers the MBean; must be called on test
+     * start.
+     *
+     * @param startTime  the start time of the test in milliseconds.
+     */
+    static void testStarted (final long startTime) {
+
+        final TimeScale timeScale = TimeScale.instance;
+
+        timeScale.thinkTimeFactor =
+                TimeScale.readFactor(TimeScale.THINK_TIME_SCALE_PROPERTY);
+
+        synchronized (timeScale) {
+
+            timeScale.arrivalTimeFactor =
+                    TimeScale.readFactor(TimeScale.ARRIVAL_TIME_SCALE_PROPERTY);
+            timeScale.baseRealTime = startTime;
+            timeScale.baseExperimentTime = 0L;
+        }
+
+        try {
+
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(TimeScale.OBJECT_NAME);
+
+            if (!server.isRegistered(name)) {
+
+                server.registerMBean(timeScale, name);
+            }
+
+        } catch (final JMException ex) {
+
+            TimeScale.logger.warn("Could not register MBean "
+                    + TimeScale.OBJECT_NAME + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the MBean; must be called on test end.
+     */
+    static void testEnded () {
+
+        try {
+
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(TimeScale.OBJECT_NAME);
+
+            if (server.isRegistered(name)) {
+
+                server.unregisterMBean(name);
+            }
+
+        } catch (final JMException ex) {
+
+            TimeScale.logger.warn("Could not unregister MBean "
+                    + TimeScale.OBJECT_NAME + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads a factor from the JMeter properties.
+     *
+     * @param property  the name of the property.
+     *
+     * @return  the factor; 1 if the property is undefined or invalid.
+     */
+    private static double readFactor (final String property) {
+
+        final String value = JMeterUtils.getPropDefault(property, (String) null);
+
+        if (value == null || value.trim().length() == 0) {
+
+            return 1.0d;
+        }
+
+        try {
+
+            final double factor = Double.parseDouble(value.trim());
+
+            TimeScale.checkFactor(factor);
+            TimeScale.logger.info("Using " + property + " = " + factor);
+
+            return factor;
+
+        } catch (final IllegalArgumentException ex) {
+
+            // includes NumberFormatException;
+            TimeScale.logger.warn("Invalid value \"" + value + "\" of property "
+                    + property + "; will use 1.");
+
+            return 1.0d;
+        }
+    }
+
+    /**
+     * Ensures that the given factor is valid.
+     *
+     * @throws IllegalArgumentException  if the factor is negative, infinite
+     *                                   or NaN.
+     */
+    private static void checkFactor (final double factor) {
+
+        if (!(factor >= 0) || Double.isInfinite(factor)) {
+
+            throw new IllegalArgumentException(
+                    "scale factor must be non-negative and finite: " + factor);
+        }
+    }
+
+    /**
+     * Scales a think time by the think time factor.
+     *
+     * @param delay  the think time in milliseconds.
+     *
+     * @return  the scaled think time in milliseconds.
+     */
+    public long scaleThinkTime (final long delay) {
+
+        final double factor = this.thinkTimeFactor;
+
+        return (factor == 1.0d) ? delay : Math.round(delay * factor);
+    }
+
+    /**
+     * Returns the experiment time, which passes at the speed of the arrival
+     * time factor.
+     *
+     * @param realTime  the current time in milliseconds.
+     *
+     * @return  the elapsed experiment time in milliseconds.
+     */
+    public synchronized long getExperimentTime (final long realTime) {
+
+        return this.baseExperimentTime +
+                Math.round((realTime - this.baseRealTime) * this.arrivalTimeFactor);
+    }
+
+    @Override
+    public double getThinkTimeFactor () {
+
+        return this.thinkTimeFactor;
+    }
+
+    @Override
+    public void setThinkTimeFactor (final double factor) {
+
+        TimeScale.checkFactor(factor);
+        this.thinkTimeFactor = factor;
+    }
+
+    @Override
+    public synchronized double getArrivalTimeFactor () {
+
+        return this.arrivalTimeFactor;
+    }
+
+    @Override
+    public synchronized void setArrivalTimeFactor (final double factor) {
+
+        TimeScale.checkFactor(factor);
+
+        final long realTime = System.currentTimeMillis();
+
+        // continue the experiment clock at the new speed;
+        this.baseExperimentTime = this.getExperimentTime(realTime);
+        this.baseRealTime = realTime;
+        this.arrivalTimeFactor = factor;
+    }
+}
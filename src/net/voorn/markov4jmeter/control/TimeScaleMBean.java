@@ -0,0 +1,53 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control;
+
+/**
+ * Management interface of the {@link TimeScale}, for adjusting the scale
+ * factors during a test run via JMX.
+ */
+public interface TimeScaleMBean {
+
+    /**
+     * Returns the factor by which think times are multiplied.
+     *
+     * @return  a non-negative factor.
+     */
+    double getThinkTimeFactor ();
+
+    /**
+     * Sets the factor by which think times are multiplied.
+     *
+     * @param factor  a non-negative factor.
+     */
+    void setThinkTimeFactor (double factor);
+
+    /**
+     * Returns the speed of the experiment clock used by arrival formulas.
+     *
+     * @return  a non-negative factor.
+     */
+    double getArrivalTimeFactor ();
+
+    /**
+     * Sets the speed of the experiment clock used by arrival formulas.
+     *
+     * @param factor  a non-negative factor.
+     */
+    void setArrivalTimeFactor (double factor);
+}
@@ -0,0 +1,501 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.control;
+
+/**
+ * <p>Primitive storage of the transition probabilities and think times of a
+ * behavior model. States are addressed by their dense index within the
+ * compiled application model, whereas index 0 denotes the exit state.</p>
+ *
+ * <p>Depending on the fraction of non-zero probabilities, the matrix is
+ * stored either as a row-major <code>double</code> array, or in compressed
+ * sparse row (CSR) layout. Think times are kept in an array parallel to the
+ * probabilities. Instances are immutable and created through a
+ * {@link Builder}.</p>
+ */
+public abstract class TransitionMatrix {
+
+    /** Maximum fraction of non-zero probabilities for which the sparse
+     *  layout is chosen. */
+    private final static double SPARSE_DENSITY_THRESHOLD = 0.25d;
+
+    /** Number of states, including the exit state. */
+    protected final int size;
+
+    /** Flags indicating the states for which a row has been defined. */
+    private final boolean[] definedRows;
+
+    /**
+     * Constructor for a matrix with the given number of states.
+     *
+     * @param size         number of states, including the exit state.
+     * @param definedRows  flags indicating the defined rows.
+     */
+    protected TransitionMatrix (final int size, final boolean[] definedRows) {
+
+        this.size = size;
+        this.definedRows = definedRows;
+    }
+
+    /**
+     * Returns the number of states, including the exit state.
+     *
+     * @return  the number of rows (and columns).
+     */
+    public int size () {
+
+        return this.size;
+    }
+
+    /**
+     * Checks whether a row has been defined for the given source state.
+     *
+     * @param src  index of the source state.
+     *
+     * @return  <code>true</code> if and only if the row has been defined.
+     */
+    public boolean isRowDefined (final int src) {
+
+        return this.definedRows[src];
+    }
+
+    /**
+     * Returns the probability for a transition between two states.
+     *
+     * @param src  index of the source state.
+     * @param dst  index of the destination state.
+     *
+     * @return  the probability, 0 if undefined.
+     */
+    public abstract double getProbability (int src, int dst);
+
+    /**
+     * Returns the think time for a transition between two states.
+     *
+     * @param src  index of the source state.
+     * @param dst  index of the destination state.
+     *
+     * @return
+     *     the think time, or <code>null</code> if undefined; think times are
+     *     only kept for transitions with a non-zero probability.
+     */
+    public abstract ThinkTime getThinkTime (int src, int dst);
+
+    /**
+     * Returns whether the matrix is stored in sparse layout.
+     *
+     * @return  <code>true</code> if and only if the CSR layout is used.
+     */
+    public abstract boolean isSparse ();
+
+    /**
+     * Returns the number of stored non-zero probabilities.
+     *
+     * @return  the number of non-zero entries.
+     */
+    public abstract int getNonZeroCount ();
+
+    /**
+     * Returns an estimate of the memory occupied by the matrix arrays;
+     * think time instances are not included, since they might be shared.
+     *
+     * @return  the estimated size in bytes.
+     */
+    public abstract long getEstimatedSize ();
+
+
+    /**
+     * Matrix stored as row-major arrays.
+     */
+    private static final class DenseMatrix extends TransitionMatrix {
+
+        /** Probabilities, row-major. */
+        private final double[] probabilities;
+
+        /** Think times, row-major; <code>null</code> if none defined. */
+        private final ThinkTime[] thinkTimes;
+
+        /** Number of non-zero probabilities. */
+        private final int nonZeroCount;
+
+        DenseMatrix (
+                final int size,
+                final boolean[] definedRows,
+                final double[] probabilities,
+                final ThinkTime[] thinkTimes,
+                final int nonZeroCount) {
+
+            super(size, definedRows);
+
+            this.probabilities = probabilities;
+            this.thinkTimes = thinkTimes;
+            this.nonZeroCount = nonZeroCount;
+        }
+
+        @Override
+        public double getProbability (final int src, final int dst) {
+
+            return this.probabilities[src * this.size + dst];
+        }
+
+        @Override
+        public ThinkTime getThinkTime (final int src, final int dst) {
+
+            return (this.thinkTimes != null) ?
+                    this.thinkTimes[src * this.size + dst] :
+                    null;
+        }
+
+        @Override
+        public boolean isSparse () {
+
+            return false;
+        }
+
+        @Override
+        public int getNonZeroCount () {
+
+            return this.nonZeroCount;
+        }
+
+        @Override
+        public long getEstimatedSize () {
+
+            final long cells = (long) this.size * this.size;
+
+            // 8 bytes per reference, to be on the safe side;
+            return this.size + 8 * cells
+                    + ((this.thinkTimes != null) ? 8 * cells : 0);
+        }
+    }
+
+    /**
+     * Matrix stored in compressed sparse row layout.
+     */
+    private static final class SparseMatrix extends TransitionMatrix {
+
+        /** Offsets of the rows within the column and value arrays; the
+         *  entries of row <i>i</i> range from rowOffsets[i] (inclusive) to
+         *  rowOffsets[i + 1] (exclusive). */
+        private final int[] rowOffsets;
+
+        /** Column indices, ascending within each row. */
+        private final int[] columns;
+
+        /** Non-zero probabilities. */
+        private final double[] probabilities;
+
+        /** Think times; <code>null</code> if none defined. */
+        private final ThinkTime[] thinkTimes;
+
+        SparseMatrix (
+                final int size,
+                final boolean[] definedRows,
+                final int[] rowOffsets,
+                final int[] columns,
+                final double[] probabilities,
+                final ThinkTime[] thinkTimes) {
+
+            super(size, definedRows);
+
+            this.rowOffsets = rowOffsets;
+            this.columns = columns;
+            this.probabilities = probabilities;
+            this.thinkTimes = thinkTimes;
+        }
+
+        /**
+         * Returns the position of an entry within the value arrays.
+         *
+         * @return  the position, or -1 if the entry is 0.
+         */
+        private int find (final int src, final int dst) {
+
+            int low = this.rowOffsets[src];
+            int high = this.rowOffsets[src + 1] - 1;
+
+            while (low <= high) {
+
+                final int mid = (low + high) >>> 1;
+                final int column = this.columns[mid];
+
+                if (column < dst) {
+
+                    low = mid + 1;
+
+                } else if (column > dst) {
+
+                    high = mid - 1;
+
+                } else {
+
+                    return mid;
+                }
+            }
+
+            return -1;
+        }
+
+        @Override
+        public double getProbability (final int src, final int dst) {
+
+            final int position = this.find(src, dst);
+            return (position >= 0) ? this.probabilities[position] : 0.0d;
+        }
+
+        @Override
+        public ThinkTime getThinkTime (final int src, final int dst) {
+
+            if (this.thinkTimes == null) {
+
+                return null;
+            }
+
+            final int position = this.find(src, dst);
+            return (position >= 0) ? this.thinkTimes[position] : null;
+        }
+
+        @Override
+        public boolean isSparse () {
+
+            return true;
+        }
+
+        @Override
+        public int getNonZeroCount () {
+
+            return this.columns.length;
+        }
+
+        @Override
+        public long getEstimatedSize () {
+
+            final long entries = this.columns.length;
+
+            // 8 bytes per reference, to be on the safe side;
+            return this.size + 4L * (this.size + 1) + 12 * entries
+                    + ((this.thinkTimes != null) ? 8 * entries : 0);
+        }
+    }
+
+
+    /**
+     * Builder for collecting the matrix rows; the storage layout is chosen
+     * when {@link #build()} is called.
+     */
+    public static final class Builder {
+
+        /** Number of states, including the exit state. */
+        private final int size;
+
+        /** Column indices of the non-zero entries of each row. */
+        private final int[][] rowColumns;
+
+        /** Non-zero probabilities of each row. */
+        private final double[][] rowProbabilities;
+
+        /** Think times of each row. */
+        private final ThinkTime[][] rowThinkTimes;
+
+        /** Whether any think time has been defined. */
+        private boolean hasThinkTimes = false;
+
+        /** Number of non-zero entries collected so far. */
+        private int nonZeroCount = 0;
+
+        /**
+         * Creates a builder for a matrix with the given number of states.
+         *
+         * @param size  number of states, including the exit state.
+         */
+        public Builder (final int size) {
+
+            this.size = size;
+            this.rowColumns = new int[size][];
+            this.rowProbabilities = new double[size][];
+            this.rowThinkTimes = new ThinkTime[size][];
+        }
+
+        /**
+         * Sets the row of a source state; a previously set row for the same
+         * state will be replaced.
+         *
+         * @param src            index of the source state.
+         * @param probabilities
+         *     probabilities, indexed by destination state index.
+         * @param thinkTimes
+         *     think times, indexed by destination state index; might be
+         *     <code>null</code> if no think times are defined.
+         */
+        public void setRow (
+                final int src,
+                final double[] probabilities,
+                final ThinkTime[] thinkTimes) {
+
+            int count = 0;
+
+            for (int i = 0; i < this.size; i++) {
+
+                if (probabilities[i] != 0) {
+
+                    count++;
+                }
+            }
+
+            final int[] columns = new int[count];
+            final double[] values = new double[count];
+            final ThinkTime[] times =
+                    (thinkTimes != null) ? new ThinkTime[count] : null;
+
+            for (int i = 0, k = 0; i < this.size; i++) {
+
+                if (probabilities[i] != 0) {
+
+                    columns[k] = i;
+                    values[k] = probabilities[i];
+
+                    if (times != null) {
+
+                        times[k] = thinkTimes[i];
+                    }
+
+                    k++;
+                }
+            }
+
+            if (this.rowColumns[src] != null) {
+
+                this.nonZeroCount -= this.rowColumns[src].length;
+            }
+
+            this.nonZeroCount += count;
+            this.hasThinkTimes |= (times != null);
+
+            this.rowColumns[src] = columns;
+            this.rowProbabilities[src] = values;
+            this.rowThinkTimes[src] = times;
+        }
+
+        /**
+         * Creates the matrix, choosing the storage layout by density.
+         *
+         * @return  a valid instance of {@link TransitionMatrix}.
+         */
+        public TransitionMatrix build () {
+
+            final boolean[] definedRows = new boolean[this.size];
+
+            for (int i = 0; i < this.size; i++) {
+
+                definedRows[i] = (this.rowColumns[i] != null);
+            }
+
+            final double density =
+                    (double) this.nonZeroCount / ((double) this.size * this.size);
+
+            return (density <= TransitionMatrix.SPARSE_DENSITY_THRESHOLD) ?
+                    this.buildSparse(definedRows) :
+                    this.buildDense(definedRows);
+        }
+
+        /**
+         * Creates a matrix in row-major layout.
+         */
+        private TransitionMatrix buildDense (final boolean[] definedRows) {
+
+            final double[] probabilities = new double[this.size * this.size];
+            final ThinkTime[] thinkTimes = this.hasThinkTimes ?
+                    new ThinkTime[this.size * this.size] :
+                    null;
+
+            for (int src = 0; src < this.size; src++) {
+
+                if (definedRows[src]) {
+
+                    final int[] columns = this.rowColumns[src];
+
+                    for (int k = 0; k < columns.length; k++) {
+
+                        final int position = src * this.size + columns[k];
+
+                        probabilities[position] = this.rowProbabilities[src][k];
+
+                        if (thinkTimes != null && this.rowThinkTimes[src] != null) {
+
+                            thinkTimes[position] = this.rowThinkTimes[src][k];
+                        }
+                    }
+                }
+            }
+
+            return new DenseMatrix(
+                    this.size,
+                    definedRows,
+                    probabilities,
+                    thinkTimes,
+                    this.nonZeroCount);
+        }
+
+        /**
+         * Creates a matrix in compressed sparse row layout.
+         */
+        private TransitionMatrix buildSparse (final boolean[] definedRows) {
+
+            final int[] rowOffsets = new int[this.size + 1];
+            final int[] columns = new int[this.nonZeroCount];
+            final double[] probabilities = new double[this.nonZeroCount];
+            final ThinkTime[] thinkTimes = this.hasThinkTimes ?
+                    new ThinkTime[this.nonZeroCount] :
+                    null;
+
+            int offset = 0;
+
+            for (int src = 0; src < this.size; src++) {
+
+                rowOffsets[src] = offset;
+
+                if (definedRows[src]) {
+
+                    final int count = this.rowColumns[src].length;
+
+                    System.arraycopy(
+                            this.rowColumns[src], 0, columns, offset, count);
+                    System.arraycopy(
+                            this.rowProbabilities[src], 0, probabilities, offset, count);
+
+                    if (thinkTimes != null && this.rowThinkTimes[src] != null) {
+
+                        System.arraycopy(
+                                this.rowThinkTimes[src], 0, thinkTimes, offset, count);
+                    }
+
+                    offset += count;
+                }
+            }
+
+            rowOffsets[this.size] = offset;
+
+            return new SparseMatrix(
+                    this.size,
+                    definedRows,
+                    rowOffsets,
+                    columns,
+                    probabilities,
+                    thinkTimes);
+        }
+    }
+}
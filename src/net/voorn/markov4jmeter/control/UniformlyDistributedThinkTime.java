@@ -0,0 +1,84 @@
+package net.voorn.markov4jmeter.control;
+
+import net.voorn.markov4jmeter.util.RandomStreams;
+
+/**
+ * This class represents a think time which is uniformly distributed between
+ * a minimum and a maximum value.
+ */
+public class UniformlyDistributedThinkTime extends ThinkTime {
+
+    /** Function descriptor which indicates the distribution function type.
+     *  This must be <code>protected</code> for the {@link ThinkTimeParser},
+     *  which needs access to it for identifying think time types. */
+    protected final static String FUNCTION_DESCRIPTOR = "uniform";
+
+    /** Minimum value which is greater or equal 0. */
+    private final double min;
+
+    /** Maximum value which is greater or equal the minimum value. */
+    private final double max;
+
+
+    /**
+     * Constructor for a uniformly distributed think time with minimum and
+     * maximum values.
+     *
+     * @param min
+     *     A <code>double</code> value which is greater or equal 0.
+     * @param max
+     *     A <code>double</code> value which is greater or equal
+     *     <code>min</code>.
+     */
+    public UniformlyDistributedThinkTime (
+            final double min,
+            final double max) {
+
+        this.min = min;
+        this.max = max;
+    }
+
+
+    /**
+     * Returns the minimum value.
+     *
+     * @return A <code>double</code> value which is greater or equal 0.
+     */
+    public double getMin() {
+
+        return this.min;
+    }
+
+    /**
+     * Returns the maximum value.
+     *
+     * @return A <code>double</code> value which is greater or equal the
+     *         minimum value.
+     */
+    public double getMax() {
+
+        return this.max;
+    }
+
+    @Override
+    public String getFunctionDescriptor () {
+
+        return UniformlyDistributedThinkTime.FUNCTION_DESCRIPTOR;
+    }
+
+    @Override
+    public String toString () {
+
+        return UniformlyDistributedThinkTime.FUNCTION_DESCRIPTOR +
+                "(min: " + this.min + ", max: " + this.max + ")";
+    }
+
+    @Override
+    public long getDelay() {
+
+        final double value = this.min +
+                (this.max - this.min) * RandomStreams.current().nextDouble();
+
+        return Math.round(value);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+package net.voorn.markov4jmeter.control;
+
+import net.voorn.markov4jmeter.util.RandomStreams;
+
+/**
+ * This class represents a Weibull distributed think time. A shape value
+ * below 1 yields a heavier tail than the exponential distribution, a shape
+ * value of 1 equals the exponential distribution.
+ */
+public class WeibullDistributedThinkTime extends ThinkTime {
+
+    /** Function descriptor which indicates the distribution function type.
+     *  This must be <code>protected</code> for the {@link ThinkTimeParser},
+     *  which needs access to it for identifying think time types. */
+    protected final static String FUNCTION_DESCRIPTOR = "weibull";
+
+    /** Shape value which is greater than 0. */
+    private final double shape;
+
+    /** Scale value which is greater or equal 0. */
+    private final double scale;
+
+    /** Reciprocal of the shape value, as used for sampling. */
+    private final double inverseShape;
+
+
+    /**
+     * Constructor for a Weibull distributed think time with shape and scale
+     * values.
+     *
+     * @param shape
+     *     A <code>double</code> value which is greater than 0.
+     * @param scale
+     *     A <code>double</code> value which is greater or equal 0.
+     */
+    public WeibullDistributedThinkTime (
+            final double shape,
+            final double scale) {
+
+        this.shape = shape;
+        this.scale = scale;
+        this.inverseShape = 1.0d / shape;
+    }
+
+
+    /**
+     * Returns the shape value.
+     *
+     * @return A <code>double</code> value which is greater than 0.
+     */
+    public double getShape() {
+
+        return this.shape;
+    }
+
+    /**
+     * Returns the scale value.
+     *
+     * @return A <code>double</code> value which is greater or equal 0.
+     */
+    public double getScale() {
+
+        return this.scale;
+    }
+
+    @Override
+    public String getFunctionDescriptor () {
+
+        return WeibullDistributedThinkTime.FUNCTION_DESCRIPTOR;
+    }
+
+    @Override
+    public String toString () {
+
+        return WeibullDistributedThinkTime.FUNCTION_DESCRIPTOR +
+                "(shape: " + this.shape + ", scale: " + this.scale + ")";
+    }
+
+    @Override
+    public long getDelay() {
+
+        // inversion method; 1 - nextDouble() lies in (0, 1];
+        final double value = this.scale * Math.pow(
+                -Math.log(1.0d - RandomStreams.current().nextDouble()),
+                this.inverseShape);
+
+        return Math.round(value);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,170 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control.expression;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jmeter.threads.JMeterVariables;
+import org.mozilla.javascript.ScriptRuntime;
+
+/**
+ * <p>Natively compiled guard or action expression, as created by the
+ * {@link ExpressionCompiler}.</p>
+ *
+ * <p>In contrast to JMeter's own substitution, variable references are
+ * resolved against the current variable values on each evaluation. If a
+ * variable value cannot be handled natively, for example since it does not
+ * form a literal, evaluation fails with an {@link ExpressionException}; in
+ * that case, the expression text returned by
+ * {@link #substitute(JMeterVariables)} can be evaluated by the JavaScript
+ * engine instead. Instances are immutable and can be shared among
+ * threads.</p>
+ */
+public final class Expression {
+
+    /** Pattern for plain variable references. */
+    private static final Pattern VARIABLE_REFERENCE =
+            Pattern.compile("\\$\\{([^{}]+)\\}");
+
+    /** Source of the expression. */
+    private final String source;
+
+    /** Root node of the syntax tree. */
+    private final Node root;
+
+    /** Names of all referenced variables. */
+    private final Set<String> variableNames;
+
+    /**
+     * Creates a new expression.
+     *
+     * @param source  the source of the expression.
+     * @param root    the root node of the syntax tree.
+     */
+    Expression (final String source, final Node root) {
+
+        final Set<String> names = new HashSet<String>();
+
+        root.collectVariableNames(names);
+
+        this.source = source;
+        this.root = root;
+        this.variableNames = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Returns the source of the expression.
+     *
+     * @return  the source, as passed to the compiler.
+     */
+    public String getSource () {
+
+        return this.source;
+    }
+
+    /**
+     * Returns the names of all variables referenced by the expression.
+     *
+     * @return  an unmodifiable set of names.
+     */
+    public Set<String> getVariableNames () {
+
+        return this.variableNames;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param variables  the variables of the current thread.
+     *
+     * @return  the result, as <code>Double</code>, <code>Boolean</code> or
+     *          <code>String</code>.
+     *
+     * @throws ExpressionException
+     *     if a variable value cannot be handled natively.
+     */
+    public Object evaluate (final JMeterVariables variables)
+            throws ExpressionException {
+
+        return this.root.evaluate(variables);
+    }
+
+    /**
+     * Evaluates the expression and converts the result to a
+     * <code>String</code>, following the JavaScript conversion rules.
+     *
+     * @param variables  the variables of the current thread.
+     *
+     * @return  the result as <code>String</code>.
+     *
+     * @throws ExpressionException
+     *     if a variable value cannot be handled natively.
+     */
+    public String evaluateToString (final JMeterVariables variables)
+            throws ExpressionException {
+
+        return ScriptRuntime.toString(this.root.evaluate(variables));
+    }
+
+    /**
+     * Substitutes all variable references by the current variable values,
+     * the way JMeter does; references to undefined variables remain
+     * unchanged.
+     *
+     * @param variables  the variables of the current thread.
+     *
+     * @return  the expression text.
+     */
+    public String substitute (final JMeterVariables variables) {
+
+        if (this.variableNames.isEmpty()) {
+
+            return this.source;
+        }
+
+        final Matcher matcher = Expression.VARIABLE_REFERENCE.matcher(this.source);
+        final StringBuffer buffer = new StringBuffer();
+
+        while ( matcher.find() ) {
+
+            final String value = variables.get(matcher.group(1));
+
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement(
+                    (value != null) ? value : matcher.group()));
+        }
+
+        matcher.appendTail(buffer);
+
+        return buffer.toString();
+    }
+
+    /**
+     * Returns a string representation of the expression.
+     *
+     * @return  the source of the expression.
+     */
+    @Override
+    public String toString () {
+
+        return this.source;
+    }
+}
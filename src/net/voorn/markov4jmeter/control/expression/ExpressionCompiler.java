@@ -0,0 +1,240 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control.expression;
+
+/**
+ * <p>Compiles guard and action expressions which consist of a simple subset
+ * of JavaScript only, for being evaluated without a JavaScript engine.</p>
+ *
+ * <p>Supported are number, string and boolean literals, variable references
+ * of the form <code>${name}</code> (also within string literals), the
+ * comparison operators <code>== != === !== &lt; &lt;= &gt; &gt;=</code>,
+ * the logical operators <code>&amp;&amp; || !</code>, the arithmetic
+ * operators <code>+ - * / %</code> and parentheses. The operators follow the
+ * JavaScript conversion rules. Function references such as
+ * <code>${__Random(1,10)}</code>, identifiers and any other syntax are
+ * rejected, in which case the expression needs to be evaluated by the
+ * JavaScript engine.</p>
+ */
+public final class ExpressionCompiler {
+
+    /** Lexer providing the tokens of the expression being compiled. */
+    private final Lexer lexer;
+
+
+    /**
+     * Private constructor, use {@link #compile(String)} for compiling
+     * expressions.
+     */
+    private ExpressionCompiler (final String source) {
+
+        this.lexer = new Lexer(source);
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @param source  the expression to be compiled.
+     *
+     * @return  a valid instance of {@link Expression}.
+     *
+     * @throws ExpressionException
+     *     if the expression uses any unsupported syntax; the message
+     *     denotes the reason.
+     */
+    public static Expression compile (final String source)
+            throws ExpressionException {
+
+        final ExpressionCompiler compiler = new ExpressionCompiler(source);
+
+        compiler.lexer.next();
+
+        final Node root = compiler.parseOr();
+
+        if (compiler.lexer.type != Lexer.EOF) {
+
+            throw new ExpressionException("Unexpected token.");
+        }
+
+        return new Expression(source, root);
+    }
+
+    /**
+     * Parses a logical OR expression.
+     */
+    private Node parseOr () throws ExpressionException {
+
+        Node node = this.parseAnd();
+
+        while (this.lexer.type == Lexer.OR) {
+
+            this.lexer.next();
+            node = new Node.Logical(false, node, this.parseAnd());
+        }
+
+        return node;
+    }
+
+    /**
+     * Parses a logical AND expression.
+     */
+    private Node parseAnd () throws ExpressionException {
+
+        Node node = this.parseEquality();
+
+        while (this.lexer.type == Lexer.AND) {
+
+            this.lexer.next();
+            node = new Node.Logical(true, node, this.parseEquality());
+        }
+
+        return node;
+    }
+
+    /**
+     * Parses an equality expression.
+     */
+    private Node parseEquality () throws ExpressionException {
+
+        Node node = this.parseRelational();
+
+        while (this.lexer.type == Lexer.EQ || this.lexer.type == Lexer.NE ||
+                this.lexer.type == Lexer.SHEQ || this.lexer.type == Lexer.SHNE) {
+
+            final int operator = this.lexer.type;
+
+            this.lexer.next();
+            node = new Node.Binary(operator, node, this.parseRelational());
+        }
+
+        return node;
+    }
+
+    /**
+     * Parses a relational expression.
+     */
+    private Node parseRelational () throws ExpressionException {
+
+        Node node = this.parseAdditive();
+
+        while (this.lexer.type == Lexer.LT || this.lexer.type == Lexer.LE ||
+                this.lexer.type == Lexer.GT || this.lexer.type == Lexer.GE) {
+
+            final int operator = this.lexer.type;
+
+            this.lexer.next();
+            node = new Node.Binary(operator, node, this.parseAdditive());
+        }
+
+        return node;
+    }
+
+    /**
+     * Parses an additive expression.
+     */
+    private Node parseAdditive () throws ExpressionException {
+
+        Node node = this.parseMultiplicative();
+
+        while (this.lexer.type == Lexer.PLUS || this.lexer.type == Lexer.MINUS) {
+
+            final int operator = this.lexer.type;
+
+            this.lexer.next();
+            node = new Node.Binary(operator, node, this.parseMultiplicative());
+        }
+
+        return node;
+    }
+
+    /**
+     * Parses a multiplicative expression.
+     */
+    private Node parseMultiplicative () throws ExpressionException {
+
+        Node node = this.parseUnary();
+
+        while (this.lexer.type == Lexer.MUL || this.lexer.type == Lexer.DIV ||
+                this.lexer.type == Lexer.MOD) {
+
+            final int operator = this.lexer.type;
+
+            this.lexer.next();
+            node = new Node.Binary(operator, node, this.parseUnary());
+        }
+
+        return node;
+    }
+
+    /**
+     * Parses a unary expression.
+     */
+    private Node parseUnary () throws ExpressionException {
+
+        final int operator = this.lexer.type;
+
+        if (operator == Lexer.NOT || operator == Lexer.MINUS ||
+                operator == Lexer.PLUS) {
+
+            this.lexer.next();
+            return new Node.Unary(operator, this.parseUnary());
+        }
+
+        return this.parsePrimary();
+    }
+
+    /**
+     * Parses a literal, a variable reference or a parenthesized expression.
+     */
+    private Node parsePrimary () throws ExpressionException {
+
+        final Node node;
+
+        switch (this.lexer.type) {
+
+            case Lexer.LITERAL:
+                node = new Node.Literal(this.lexer.value);
+                break;
+
+            case Lexer.VARIABLE:
+                node = new Node.VariableReference((String) this.lexer.value);
+                break;
+
+            case Lexer.TEMPLATE:
+                node = (Node) this.lexer.value;
+                break;
+
+            case Lexer.LPAREN:
+                this.lexer.next();
+                node = this.parseOr();
+
+                if (this.lexer.type != Lexer.RPAREN) {
+
+                    throw new ExpressionException("Missing ')'.");
+                }
+                break;
+
+            default:
+                throw new ExpressionException("Unexpected token.");
+        }
+
+        this.lexer.next();
+
+        return node;
+    }
+}
@@ -0,0 +1,36 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.control.expression;
+
+/**
+ * Exception to be thrown when an expression cannot be compiled or evaluated
+ * natively; callers are expected to fall back to JavaScript evaluation.
+ */
+public class ExpressionException extends Exception {
+
+    /** Default serial version ID. */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new instance of ExpressionException.
+     *
+     * @param msg the message.
+     */
+    public ExpressionException(String msg){
+        super(msg);
+    }
+}
@@ -0,0 +1,532 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the source of an expression into tokens. Only a subset of the
+ * JavaScript syntax is recognized; any other input results in an
+ * {@link ExpressionException}.
+ */
+final class Lexer {
+
+    /* token types; */
+    static final int EOF      = 0;
+    static final int LITERAL  = 1;
+    static final int VARIABLE = 2;
+    static final int TEMPLATE = 3;
+    static final int LPAREN   = 4;
+    static final int RPAREN   = 5;
+    static final int NOT      = 6;
+    static final int PLUS     = 7;
+    static final int MINUS    = 8;
+    static final int MUL      = 9;
+    static final int DIV      = 10;
+    static final int MOD      = 11;
+    static final int EQ       = 12;
+    static final int NE       = 13;
+    static final int SHEQ     = 14;
+    static final int SHNE     = 15;
+    static final int LT       = 16;
+    static final int LE       = 17;
+    static final int GT       = 18;
+    static final int GE       = 19;
+    static final int AND      = 20;
+    static final int OR       = 21;
+
+    /** Source to be split. */
+    private final String source;
+
+    /** Current position within the source. */
+    private int position = 0;
+
+    /** Type of the current token. */
+    int type;
+
+    /** Value of the current token: the literal value, the variable name,
+     *  or the template node. */
+    Object value;
+
+    /**
+     * Creates a lexer for the given source; {@link #next()} must be called
+     * for reading the first token.
+     *
+     * @param source  the source to be split.
+     */
+    Lexer (final String source) {
+
+        this.source = source;
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @throws ExpressionException  in case of unsupported input.
+     */
+    void next () throws ExpressionException {
+
+        final String s = this.source;
+        final int length = s.length();
+
+        while (this.position < length
+                && Character.isWhitespace(s.charAt(this.position))) {
+
+            this.position++;
+        }
+
+        this.value = null;
+
+        if (this.position >= length) {
+
+            this.type = Lexer.EOF;
+            return;
+        }
+
+        final char c = s.charAt(this.position);
+
+        if ((c >= '0' && c <= '9') || (c == '.' && this.position + 1 < length
+                && Lexer.isDigit(s.charAt(this.position + 1)))) {
+
+            this.readNumber();
+
+        } else if (c == '\'' || c == '"') {
+
+            this.readString(c);
+
+        } else if (s.startsWith("${", this.position)) {
+
+            this.type = Lexer.VARIABLE;
+            this.value = this.readVariableName();
+
+        } else if (Character.isJavaIdentifierStart(c)) {
+
+            this.readKeyword();
+
+        } else {
+
+            this.readOperator(c);
+        }
+    }
+
+    /**
+     * Reads a decimal number literal.
+     */
+    private void readNumber () throws ExpressionException {
+
+        final int start = this.position;
+        final int end = Lexer.scanNumber(this.source, start);
+
+        if (end < 0 || (end < this.source.length() &&
+                Character.isJavaIdentifierPart(this.source.charAt(end)))) {
+
+            throw new ExpressionException("Unsupported number literal.");
+        }
+
+        this.position = end;
+        this.type = Lexer.LITERAL;
+        this.value = Double.valueOf(this.source.substring(start, end));
+    }
+
+    /**
+     * Reads a string literal, which might contain variable references.
+     */
+    private void readString (final char quote) throws ExpressionException {
+
+        final String s = this.source;
+        final List<String> fragments = new ArrayList<String>();
+        final List<String> names = new ArrayList<String>();
+
+        StringBuilder fragment = new StringBuilder();
+
+        this.position++;  // skip opening quote;
+
+        while (true) {
+
+            if (this.position >= s.length()) {
+
+                throw new ExpressionException("Unterminated string literal.");
+            }
+
+            final char c = s.charAt(this.position);
+
+            if (c == quote) {
+
+                this.position++;
+                break;
+
+            } else if (c == '\\') {
+
+                fragment.append(this.readEscapeSequence());
+
+            } else if (s.startsWith("${", this.position)) {
+
+                fragments.add(fragment.toString());
+                names.add(this.readVariableName());
+                fragment = new StringBuilder();
+
+            } else if (c == '\n' || c == '\r') {
+
+                throw new ExpressionException("Unterminated string literal.");
+
+            } else {
+
+                fragment.append(c);
+                this.position++;
+            }
+        }
+
+        fragments.add(fragment.toString());
+
+        if (names.isEmpty()) {
+
+            this.type = Lexer.LITERAL;
+            this.value = fragments.get(0);
+
+        } else {
+
+            this.type = Lexer.TEMPLATE;
+            this.value = new Node.StringTemplate(
+                    fragments.toArray(new String[fragments.size()]),
+                    names.toArray(new String[names.size()]),
+                    quote);
+        }
+    }
+
+    /**
+     * Reads an escape sequence within a string literal.
+     */
+    private char readEscapeSequence () throws ExpressionException {
+
+        if (this.position + 1 >= this.source.length()) {
+
+            throw new ExpressionException("Unterminated string literal.");
+        }
+
+        final char c = this.source.charAt(this.position + 1);
+
+        this.position += 2;
+
+        switch (c) {
+
+            case '\\': return '\\';
+            case '\'': return '\'';
+            case '"':  return '"';
+            case 'n':  return '\n';
+            case 'r':  return '\r';
+            case 't':  return '\t';
+
+            default:
+                throw new ExpressionException(
+                        "Unsupported escape sequence \"\\" + c + "\".");
+        }
+    }
+
+    /**
+     * Reads a variable reference of the form <code>${name}</code>; function
+     * references are not supported.
+     *
+     * @return  the variable name.
+     */
+    private String readVariableName () throws ExpressionException {
+
+        final int start = this.position + 2;
+        final int end = this.source.indexOf('}', start);
+
+        if (end < 0) {
+
+            throw new ExpressionException("Unterminated variable reference.");
+        }
+
+        final String name = this.source.substring(start, end);
+
+        if ( !Lexer.isVariableName(name) ) {
+
+            throw new ExpressionException(
+                    "Unsupported reference \"${" + name + "}\".");
+        }
+
+        this.position = end + 1;
+
+        return name;
+    }
+
+    /**
+     * Reads the keywords <code>true</code> and <code>false</code>; any other
+     * identifier is unsupported.
+     */
+    private void readKeyword () throws ExpressionException {
+
+        final int start = this.position;
+
+        while (this.position < this.source.length() &&
+                Character.isJavaIdentifierPart(this.source.charAt(this.position))) {
+
+            this.position++;
+        }
+
+        final String word = this.source.substring(start, this.position);
+
+        if ("true".equals(word)) {
+
+            this.value = Boolean.TRUE;
+
+        } else if ("false".equals(word)) {
+
+            this.value = Boolean.FALSE;
+
+        } else {
+
+            throw new ExpressionException(
+                    "Unsupported identifier \"" + word + "\".");
+        }
+
+        this.type = Lexer.LITERAL;
+    }
+
+    /**
+     * Reads an operator or a parenthesis.
+     */
+    private void readOperator (final char c) throws ExpressionException {
+
+        final char c1 = this.charAt(this.position + 1);
+        final char c2 = this.charAt(this.position + 2);
+
+        int length = 1;
+
+        switch (c) {
+
+            case '(': this.type = Lexer.LPAREN; break;
+            case ')': this.type = Lexer.RPAREN; break;
+            case '*': this.type = Lexer.MUL;    break;
+            case '/': this.type = Lexer.DIV;    break;
+            case '%': this.type = Lexer.MOD;    break;
+
+            case '+':
+            case '-':
+                if (c1 == c || c1 == '=') {
+
+                    throw new ExpressionException("Unsupported operator.");
+                }
+                this.type = (c == '+') ? Lexer.PLUS : Lexer.MINUS;
+                break;
+
+            case '!':
+                if (c1 == '=') {
+
+                    length = (c2 == '=') ? 3 : 2;
+                    this.type = (c2 == '=') ? Lexer.SHNE : Lexer.NE;
+
+                } else {
+
+                    this.type = Lexer.NOT;
+                }
+                break;
+
+            case '=':
+                if (c1 != '=') {
+
+                    throw new ExpressionException("Unsupported assignment.");
+                }
+                length = (c2 == '=') ? 3 : 2;
+                this.type = (c2 == '=') ? Lexer.SHEQ : Lexer.EQ;
+                break;
+
+            case '<':
+            case '>':
+                if (c1 == c) {
+
+                    throw new ExpressionException("Unsupported shift operator.");
+                }
+                length = (c1 == '=') ? 2 : 1;
+                this.type = (c == '<') ?
+                        ((c1 == '=') ? Lexer.LE : Lexer.LT) :
+                        ((c1 == '=') ? Lexer.GE : Lexer.GT);
+                break;
+
+            case '&':
+            case '|':
+                if (c1 != c) {
+
+                    throw new ExpressionException("Unsupported bitwise operator.");
+                }
+                length = 2;
+                this.type = (c == '&') ? Lexer.AND : Lexer.OR;
+                break;
+
+            default:
+                throw new ExpressionException(
+                        "Unsupported character '" + c + "'.");
+        }
+
+        this.position += length;
+    }
+
+    /**
+     * Returns the character at the given position, or 0 beyond the end.
+     */
+    private char charAt (final int index) {
+
+        return (index < this.source.length()) ? this.source.charAt(index) : 0;
+    }
+
+    /**
+     * Checks whether the given name is a plain variable name, in contrast
+     * to a function reference such as <code>__Random(1,10)</code>.
+     *
+     * @param name  the name to be checked.
+     *
+     * @return  <code>true</code> if and only if the name is supported.
+     */
+    static boolean isVariableName (final String name) {
+
+        if (name.length() == 0 || name.startsWith("__")) {
+
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+
+            final char c = name.charAt(i);
+
+            if ( !(Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-') ) {
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Scans an unsigned decimal number literal, as defined by JavaScript;
+     * literals with leading zeros, which might denote octal numbers, are
+     * rejected.
+     *
+     * @param s      the text to be scanned.
+     * @param start  the start position.
+     *
+     * @return  the end position (exclusive), or -1 if no valid literal has
+     *          been found.
+     */
+    static int scanNumber (final String s, final int start) {
+
+        final int length = s.length();
+        int i = start;
+        int digits = 0;
+
+        while (i < length && Lexer.isDigit(s.charAt(i))) {
+
+            i++;
+            digits++;
+        }
+
+        if (digits > 1 && s.charAt(start) == '0') {
+
+            return -1;
+        }
+
+        if (i < length && s.charAt(i) == '.') {
+
+            i++;
+
+            while (i < length && Lexer.isDigit(s.charAt(i))) {
+
+                i++;
+                digits++;
+            }
+        }
+
+        if (digits == 0) {
+
+            return -1;
+        }
+
+        if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+
+            int j = i + 1;
+
+            if (j < length && (s.charAt(j) == '+' || s.charAt(j) == '-')) {
+
+                j++;
+            }
+
+            final int exponentStart = j;
+
+            while (j < length && Lexer.isDigit(s.charAt(j))) {
+
+                j++;
+            }
+
+            if (j == exponentStart) {
+
+                return -1;
+            }
+
+            i = j;
+        }
+
+        return i;
+    }
+
+    /**
+     * Checks whether a character is an ASCII digit; unlike
+     * {@link Character#isDigit(char)}, other Unicode digits are excluded,
+     * as neither JavaScript nor {@link Double#valueOf(String)} accepts them
+     * in number literals.
+     *
+     * @param c  the character to be checked.
+     *
+     * @return  <code>true</code> if and only if the character is a digit.
+     */
+    private static boolean isDigit (final char c) {
+
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Parses a variable value which is inserted as source text; only
+     * unsigned number literals and boolean literals are supported.
+     *
+     * @param value  the variable value.
+     *
+     * @return  the literal value, or <code>null</code> if unsupported.
+     */
+    static Object parseValueLiteral (final String value) {
+
+        final String s = value.trim();
+
+        if ("true".equals(s)) {
+
+            return Boolean.TRUE;
+        }
+
+        if ("false".equals(s)) {
+
+            return Boolean.FALSE;
+        }
+
+        if (s.length() > 0 && Lexer.scanNumber(s, 0) == s.length()) {
+
+            return Double.valueOf(s);
+        }
+
+        return null;
+    }
+}
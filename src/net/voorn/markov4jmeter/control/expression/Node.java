@@ -0,0 +1,354 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control.expression;
+
+import java.util.Set;
+
+import org.apache.jmeter.threads.JMeterVariables;
+import org.mozilla.javascript.ScriptRuntime;
+
+/**
+ * Node of a natively compiled expression. Values are represented the same
+ * way as JavaScript primitives in Rhino, that is as <code>Double</code>,
+ * <code>Boolean</code> or <code>String</code> instances, which allows using
+ * Rhino's conversion rules for the operators.
+ */
+abstract class Node {
+
+    /**
+     * Evaluates the node.
+     *
+     * @param variables  the variables of the current thread.
+     *
+     * @return  the value of the node.
+     *
+     * @throws ExpressionException
+     *     if a variable value cannot be handled natively.
+     */
+    abstract Object evaluate (JMeterVariables variables)
+            throws ExpressionException;
+
+    /**
+     * Adds the names of all variables referenced by this node.
+     *
+     * @param names  the set of names to be extended.
+     */
+    void collectVariableNames (final Set<String> names) {
+
+        // no references by default;
+    }
+
+
+    /**
+     * Constant value.
+     */
+    static final class Literal extends Node {
+
+        private final Object value;
+
+        Literal (final Object value) {
+
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate (final JMeterVariables variables) {
+
+            return this.value;
+        }
+    }
+
+    /**
+     * Variable reference outside of a string literal, such as
+     * <code>${cartItems}</code>. The variable value is inserted as source
+     * text by JMeter, hence only values which form a number or boolean
+     * literal can be handled natively.
+     */
+    static final class VariableReference extends Node {
+
+        private final String name;
+
+        VariableReference (final String name) {
+
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate (final JMeterVariables variables)
+                throws ExpressionException {
+
+            final String value = variables.get(this.name);
+
+            if (value == null) {
+
+                throw new ExpressionException(
+                        "Variable \"" + this.name + "\" is undefined.");
+            }
+
+            final Object literal = Lexer.parseValueLiteral(value);
+
+            if (literal == null) {
+
+                throw new ExpressionException(
+                        "Value of variable \"" + this.name
+                        + "\" is no number or boolean literal.");
+            }
+
+            return literal;
+        }
+
+        @Override
+        void collectVariableNames (final Set<String> names) {
+
+            names.add(this.name);
+        }
+    }
+
+    /**
+     * String literal containing variable references, such as
+     * <code>'${status}'</code>.
+     */
+    static final class StringTemplate extends Node {
+
+        /** Text fragments; there is one more fragment than names. */
+        private final String[] fragments;
+
+        /** Names of the referenced variables. */
+        private final String[] names;
+
+        /** Quote character of the literal. */
+        private final char quote;
+
+        StringTemplate (
+                final String[] fragments,
+                final String[] names,
+                final char quote) {
+
+            this.fragments = fragments;
+            this.names = names;
+            this.quote = quote;
+        }
+
+        @Override
+        Object evaluate (final JMeterVariables variables)
+                throws ExpressionException {
+
+            final StringBuilder builder = new StringBuilder(this.fragments[0]);
+
+            for (int i = 0; i < this.names.length; i++) {
+
+                final String value = variables.get(this.names[i]);
+
+                if (value == null) {
+
+                    throw new ExpressionException(
+                            "Variable \"" + this.names[i] + "\" is undefined.");
+                }
+
+                // characters which would change the meaning of the literal;
+                if (value.indexOf(this.quote) >= 0 || value.indexOf('\\') >= 0
+                        || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+
+                    throw new ExpressionException(
+                            "Value of variable \"" + this.names[i]
+                            + "\" contains special characters.");
+                }
+
+                builder.append(value).append(this.fragments[i + 1]);
+            }
+
+            return builder.toString();
+        }
+
+        @Override
+        void collectVariableNames (final Set<String> names) {
+
+            for (final String name : this.names) {
+
+                names.add(name);
+            }
+        }
+    }
+
+    /**
+     * Unary operation.
+     */
+    static final class Unary extends Node {
+
+        private final int operator;
+
+        private final Node operand;
+
+        Unary (final int operator, final Node operand) {
+
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        Object evaluate (final JMeterVariables variables)
+                throws ExpressionException {
+
+            final Object value = this.operand.evaluate(variables);
+
+            switch (this.operator) {
+
+                case Lexer.NOT:
+                    return Boolean.valueOf(!ScriptRuntime.toBoolean(value));
+
+                case Lexer.MINUS:
+                    return Double.valueOf(-ScriptRuntime.toNumber(value));
+
+                default:  // Lexer.PLUS;
+                    return Double.valueOf(ScriptRuntime.toNumber(value));
+            }
+        }
+
+        @Override
+        void collectVariableNames (final Set<String> names) {
+
+            this.operand.collectVariableNames(names);
+        }
+    }
+
+    /**
+     * Binary operation, apart from the logical ones.
+     */
+    static final class Binary extends Node {
+
+        private final int operator;
+
+        private final Node left;
+
+        private final Node right;
+
+        Binary (final int operator, final Node left, final Node right) {
+
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate (final JMeterVariables variables)
+                throws ExpressionException {
+
+            final Object l = this.left.evaluate(variables);
+            final Object r = this.right.evaluate(variables);
+
+            switch (this.operator) {
+
+                case Lexer.EQ:
+                    return Boolean.valueOf(ScriptRuntime.eq(l, r));
+
+                case Lexer.NE:
+                    return Boolean.valueOf(!ScriptRuntime.eq(l, r));
+
+                case Lexer.SHEQ:
+                    return Boolean.valueOf(ScriptRuntime.shallowEq(l, r));
+
+                case Lexer.SHNE:
+                    return Boolean.valueOf(!ScriptRuntime.shallowEq(l, r));
+
+                case Lexer.LT:
+                    return Boolean.valueOf(ScriptRuntime.cmp_LT(l, r));
+
+                case Lexer.LE:
+                    return Boolean.valueOf(ScriptRuntime.cmp_LE(l, r));
+
+                case Lexer.GT:
+                    return Boolean.valueOf(ScriptRuntime.cmp_LT(r, l));
+
+                case Lexer.GE:
+                    return Boolean.valueOf(ScriptRuntime.cmp_LE(r, l));
+
+                case Lexer.PLUS:
+
+                    if (l instanceof String || r instanceof String) {
+
+                        return ScriptRuntime.toString(l)
+                                .concat(ScriptRuntime.toString(r));
+                    }
+
+                    return Double.valueOf(
+                            ScriptRuntime.toNumber(l) + ScriptRuntime.toNumber(r));
+
+                case Lexer.MINUS:
+                    return Double.valueOf(
+                            ScriptRuntime.toNumber(l) - ScriptRuntime.toNumber(r));
+
+                case Lexer.MUL:
+                    return Double.valueOf(
+                            ScriptRuntime.toNumber(l) * ScriptRuntime.toNumber(r));
+
+                case Lexer.DIV:
+                    return Double.valueOf(
+                            ScriptRuntime.toNumber(l) / ScriptRuntime.toNumber(r));
+
+                default:  // Lexer.MOD;
+                    return Double.valueOf(
+                            ScriptRuntime.toNumber(l) % ScriptRuntime.toNumber(r));
+            }
+        }
+
+        @Override
+        void collectVariableNames (final Set<String> names) {
+
+            this.left.collectVariableNames(names);
+            this.right.collectVariableNames(names);
+        }
+    }
+
+    /**
+     * Logical operation; as in JavaScript, the right operand is evaluated
+     * only if required, and the value of the deciding operand is returned.
+     */
+    static final class Logical extends Node {
+
+        private final boolean and;
+
+        private final Node left;
+
+        private final Node right;
+
+        Logical (final boolean and, final Node left, final Node right) {
+
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate (final JMeterVariables variables)
+                throws ExpressionException {
+
+            final Object l = this.left.evaluate(variables);
+
+            return (ScriptRuntime.toBoolean(l) == this.and) ?
+                    this.right.evaluate(variables) :
+                    l;
+        }
+
+        @Override
+        void collectVariableNames (final Set<String> names) {
+
+            this.left.collectVariableNames(names);
+            this.right.collectVariableNames(names);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * The package contains a compiler for simple guard and action expressions,
+ * which are evaluated without a JavaScript engine.
+ */
+package net.voorn.markov4jmeter.control.expression;
@@ -56,6 +56,7 @@ import org.apache.jorphan.gui.ObjectTableModel;
 import org.apache.jorphan.reflect.Functor;
 
 import net.voorn.markov4jmeter.control.BehaviorMixEntry;
+import net.voorn.markov4jmeter.control.BehaviorModelFile;
 import net.voorn.markov4jmeter.control.BehaviorMix;
 import net.voorn.markov4jmeter.control.MarkovController;
 import net.voorn.markov4jmeter.util.Markov4JMeterFileFilter;
@@ -82,6 +83,8 @@ public class BehaviorMixPanel extends JPanel implements ActionListener {
     private JButton template;
     /** A button for exporting a visualization of the application model. */
     private JButton exportAppModel;
+
+    private JButton compileModels;
     /** List of state names. Needed for generating template file */
     private List<String> stateNames;
     /**
@@ -96,6 +99,8 @@ public class BehaviorMixPanel extends JPanel implements ActionListener {
     private static final String GEN_TEMPLATE = "template"; // $NON-NLS-1$
     /** Command for exporting a visualization of the application model. */
     private static final String EXPORT_APPMODEL = "export"; // $NON-NLS-1$
+
+    private static final String COMPILE_MODELS = "compile"; // $NON-NLS-1$
     /** Label for the behavior name column. */
     public static final String COLUMN_NAMES_0 = JMeterUtils.getResString("name"); // $NON-NLS-1$
     /** Label for the relative frequency column. */
@@ -241,6 +246,8 @@ public class BehaviorMixPanel extends JPanel implements ActionListener {
             genTemplate();
         } else if (action.equals(EXPORT_APPMODEL)) {
             exportModels();
+        } else if (action.equals(COMPILE_MODELS)) {
+            compileModels();
         }
     }
 
@@ -455,6 +462,35 @@ public class BehaviorMixPanel extends JPanel implements ActionListener {
         }
     }
 
+    /**
+     * Compiles the behavior models of all entries into precompiled behavior
+     * models (.m4jb), which are stored next to the CSV files; the entries
+     * are switched to the compiled files.
+     */
+    private void compileModels() {
+        stopTableEditing();
+        List<String> names = (this.stateNames != null && !this.stateNames.isEmpty()) ? this.stateNames : null;
+        StringBuffer compiled = new StringBuffer();
+        Iterator<?> modelData = tableModel.iterator();
+        try {
+            while (modelData.hasNext()) {
+                BehaviorMixEntry entry = (BehaviorMixEntry) modelData.next();
+                if (BehaviorModelFile.isCompiled(entry.getFilename())) {
+                    continue;
+                }
+                File output = BehaviorModelFile.compile(new File(entry.getFilename()), names, null);
+                entry.setFilename(output.getPath());
+                compiled.append("\n '").append(output.getPath()).append("'");
+            }
+            tableModel.fireTableDataChanged();
+            GuiPackage.showInfoMessage((compiled.length() > 0 ? "Compiled behavior models into" + compiled : "No behavior models to compile.") , "Compile Models");
+        } catch (Exception ex) {
+            tableModel.fireTableDataChanged();
+            GuiPackage.showErrorMessage("Failed to compile behavior models: " + ex.getMessage(), "Compile Models");
+            ex.printStackTrace();
+        }
+    }
+
     /**
      * Generate a template file for user behavior.
      *
@@ -539,7 +575,7 @@ public class BehaviorMixPanel extends JPanel implements ActionListener {
         stopTableEditing();
 
         filename = pickBehaviorFile(new Markov4JMeterFileFilter("Markov4JMeter Behavior Model",
-                new String[]{".csv"}, true), // keep true for being able to open dirs
+                new String[]{".csv", BehaviorModelFile.FILE_EXTENSION}, true), // keep true for being able to open dirs
                 true);
         if (filename == null) // no file has been selected
         {
@@ -672,6 +708,10 @@ public class BehaviorMixPanel extends JPanel implements ActionListener {
         exportAppModel.setActionCommand(EXPORT_APPMODEL);
         exportAppModel.setEnabled(true);
 
+        compileModels = new JButton("Compile Models (.m4jb)");
+        compileModels.setActionCommand(COMPILE_MODELS);
+        compileModels.setEnabled(true);
+
         checkDeleteStatus();
 
         JPanel buttonPanel = new JPanel();
@@ -683,10 +723,12 @@ public class BehaviorMixPanel extends JPanel implements ActionListener {
         delete.addActionListener(this);
         template.addActionListener(this);
         exportAppModel.addActionListener(this);
+        compileModels.addActionListener(this);
         buttonPanel.add(add);
         buttonPanel.add(delete);
         buttonPanel.add(template);
         buttonPanel.add(exportAppModel);
+        buttonPanel.add(compileModels);
         return buttonPanel;
     }
 
@@ -82,6 +82,27 @@ public class MarkovControllerGui extends org.apache.jmeter.control.gui.AbstractC
 
     private JTextArea logTextArea;
 
+    /** The check box to enable/disable lazy guard evaluation. */
+    private JCheckBox enableLazyGuards;
+
+    /** The check box to enable/disable precise think times. */
+    private JCheckBox enablePreciseThinkTimes;
+
+    /** The check box to enable/disable the stress mode. */
+    private JCheckBox enableStressMode;
+
+    /** The text field to contain the maximum number of requests per second. */
+    private JTextField maxRequestsPerSecond;
+
+    /** The check box to enable/disable the intended session schedule. */
+    private JCheckBox enableIntendedSchedule;
+
+    /** The panel containing the intended schedule properties. */
+    private JPanel intendedSchedulePanel;
+
+    /** The text field to contain the expected service time. */
+    private JTextField expectedServiceTime;
+
     /** Creates a new instance of ApplicationControllerGUI */
     public MarkovControllerGui() {
         init();
@@ -124,6 +145,13 @@ public class MarkovControllerGui extends org.apache.jmeter.control.gui.AbstractC
             enableLogging.setSelected(ctrl.isArrivalCtrlLoggingEnabled());
             arrivalCtrlLoggingPanel.setVisible(enableLogging.isSelected());
             logFilename.setText(ctrl.getArrivalCtrlLogfile());
+            enableLazyGuards.setSelected(ctrl.isLazyGuardEvaluationEnabled());
+            enablePreciseThinkTimes.setSelected(ctrl.isPreciseThinkTimesEnabled());
+            enableStressMode.setSelected(ctrl.isStressModeEnabled());
+            maxRequestsPerSecond.setText(ctrl.getMaxRequestsPerSecond());
+            enableIntendedSchedule.setSelected(ctrl.isIntendedScheduleEnabled());
+            intendedSchedulePanel.setVisible(enableIntendedSchedule.isSelected());
+            expectedServiceTime.setText(ctrl.getExpectedServiceTime());
         }
     }
 
@@ -139,6 +167,12 @@ public class MarkovControllerGui extends org.apache.jmeter.control.gui.AbstractC
             ctrl.setArrivalCtrlNumSessions(arrivalFormula.getText());
             ctrl.setArrivalCtrlLoggingEnabled(enableLogging.isSelected());
             ctrl.setArrivalCtrlLogfile(logFilename.getText());
+            ctrl.setLazyGuardEvaluationEnabled(enableLazyGuards.isSelected());
+            ctrl.setPreciseThinkTimesEnabled(enablePreciseThinkTimes.isSelected());
+            ctrl.setStressModeEnabled(enableStressMode.isSelected());
+            ctrl.setMaxRequestsPerSecond(maxRequestsPerSecond.getText());
+            ctrl.setIntendedScheduleEnabled(enableIntendedSchedule.isSelected());
+            ctrl.setExpectedServiceTime(expectedServiceTime.getText());
         }
     }
 
@@ -163,6 +197,9 @@ public class MarkovControllerGui extends org.apache.jmeter.control.gui.AbstractC
                 arrivalCtrlLoggingPanel.setVisible(false);
             }
         }
+        if (ie.getItem().equals(enableIntendedSchedule)) {
+            intendedSchedulePanel.setVisible(enableIntendedSchedule.isSelected());
+        }
     }
 
     /**
@@ -255,6 +292,49 @@ public class MarkovControllerGui extends org.apache.jmeter.control.gui.AbstractC
         return arrivalCtrlPanel;
     }
 
+    /**
+     * Create a panel for options concerning the test execution.
+     *
+     * @return the panel.
+     */
+    private JPanel createExecutionOptionsPanel(){
+        VerticalPanel executionOptionsPanel = new VerticalPanel();
+        executionOptionsPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(),
+                "Execution Options"));
+
+        enableLazyGuards = new JCheckBox("Lazy Guard Evaluation (evaluate the guard of the sampled transition only)");
+        executionOptionsPanel.add(enableLazyGuards);
+
+        enablePreciseThinkTimes = new JCheckBox("Precise Think Times (sub-millisecond pacing, unless a Markov Think Timer is used)");
+        executionOptionsPanel.add(enablePreciseThinkTimes);
+
+        enableStressMode = new JCheckBox("Stress Mode (ignore think times, keep transition probabilities)");
+        executionOptionsPanel.add(enableStressMode);
+
+        JPanel maxRequestsPanel = new JPanel(new BorderLayout(5, 0));
+        JLabel maxRequestsLabel = new JLabel("Max. Requests per Second and Thread (0 = unlimited)");
+        maxRequestsPanel.add(maxRequestsLabel, BorderLayout.WEST);
+        maxRequestsPerSecond = new JTextField("0", 5);
+        maxRequestsLabel.setLabelFor(maxRequestsPerSecond);
+        maxRequestsPanel.add(maxRequestsPerSecond, BorderLayout.CENTER);
+        executionOptionsPanel.add(maxRequestsPanel);
+
+        enableIntendedSchedule = new JCheckBox("Intended Schedule (publish intended start and lag of each request for coordinated omission correction)");
+        enableIntendedSchedule.addItemListener(this);
+        executionOptionsPanel.add(enableIntendedSchedule);
+
+        intendedSchedulePanel = new JPanel(new BorderLayout(5, 0));
+        JLabel serviceTimeLabel = new JLabel("Expected Service Time (ms)");
+        intendedSchedulePanel.add(serviceTimeLabel, BorderLayout.WEST);
+        expectedServiceTime = new JTextField("0", 5);
+        serviceTimeLabel.setLabelFor(expectedServiceTime);
+        intendedSchedulePanel.add(expectedServiceTime, BorderLayout.CENTER);
+        executionOptionsPanel.add(intendedSchedulePanel);
+        intendedSchedulePanel.setVisible(false);
+
+        return executionOptionsPanel;
+    }
+
     private JPanel createLogPanel () {
 
         final JPanel panel = new JPanel();
@@ -306,6 +386,7 @@ public class MarkovControllerGui extends org.apache.jmeter.control.gui.AbstractC
 
         VerticalPanel footer = new VerticalPanel(); // just to add the version info
         JLabel versionInfo = new JLabel("Markov4JMeter version: " + Markov4JMeterVersion.getVERSION());
+        footer.add(createExecutionOptionsPanel());
         footer.add(createArrivalCtrlPanel());
         footer.add(versionInfo);
         add(footer, BorderLayout.SOUTH);
@@ -0,0 +1,93 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.control.gui;
+
+import java.awt.BorderLayout;
+import javax.swing.JLabel;
+
+import net.voorn.markov4jmeter.control.MarkovThinkTimer;
+import net.voorn.markov4jmeter.util.Markov4JMeterVersion;
+import org.apache.jmeter.gui.util.VerticalPanel;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jmeter.timers.gui.AbstractTimerGui;
+
+/**
+ * GUI element to create a MarkovThinkTimer. The timer has no properties;
+ * it applies the think times of the Markov Session Controller whose
+ * states are in its scope.
+ */
+public class MarkovThinkTimerGui extends AbstractTimerGui {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new instance of MarkovThinkTimerGui
+     */
+    public MarkovThinkTimerGui() {
+        init();
+    }
+
+    /**
+     * @see org.apache.jmeter.gui.AbstractJMeterGuiComponent#getStaticLabel
+     */
+    @Override
+    public String getStaticLabel(){
+        return "Markov Think Timer";
+    }
+
+   /**
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#getLabelResource
+     */
+    public String getLabelResource() {
+        return "markov_think_timer";
+    }
+
+   /**
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#createTestElement
+     */
+    public TestElement createTestElement() {
+        MarkovThinkTimer timer = new MarkovThinkTimer();
+        modifyTestElement(timer);
+        return timer;
+    }
+
+   /**
+     * @see org.apache.jmeter.gui.JMeterGUIComponent#modifyTestElement
+     */
+    public void modifyTestElement(TestElement elt) {
+        super.configureTestElement(elt);
+    }
+
+    /**
+     * Initialize the components and layout of this component.
+     */
+    private void init() {
+        setLayout(new BorderLayout(0, 5));
+        setBorder(makeBorder());
+
+        add(makeTitlePanel(), BorderLayout.NORTH);
+
+        VerticalPanel infoPanel = new VerticalPanel();
+        infoPanel.add(new JLabel("Applies the think times of the Markov Session "
+                + "Controller whose states are in the scope of this timer."));
+        infoPanel.add(new JLabel("Without this timer, the controller sleeps "
+                + "for the think times itself."));
+        add(infoPanel, BorderLayout.CENTER);
+        add(new JLabel("Markov4JMeter version: " + Markov4JMeterVersion.getVERSION()), BorderLayout.SOUTH);
+    }
+}
@@ -0,0 +1,117 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.functions;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.voorn.markov4jmeter.control.TimeScale;
+
+import org.apache.jmeter.engine.util.CompoundVariable;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.functions.AbstractFunction;
+import org.apache.jmeter.functions.InvalidVariableException;
+
+/**
+ * Provides a function which returns and optionally sets the speed of the
+ * experiment clock used by arrival formulas, for adjusting the
+ * {@link TimeScale} during a test run.
+ * 
+ */
+public class ArrivalTimeScaleFunction extends AbstractFunction implements Serializable {
+
+	/**
+	 * DefaultId;
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private static final List<String> desc = new LinkedList<String>();
+
+	private static final String KEY = "__ArrivalTimeScale"; //$NON-NLS-1$
+
+	static {
+		desc.add("New factor (optional)"); //$NON-NLS-1$
+	}
+
+	private CompoundVariable factor;
+        
+	/**
+	 * No-arg constructor.
+	 */
+	public ArrivalTimeScaleFunction() {
+	}
+
+	/**
+	 *
+	 */
+    @Override
+	public Object clone() {
+		return new ArrivalTimeScaleFunction();
+	}
+
+	/**
+	 * Execute the function; sets the factor if given and returns the current
+	 * factor.
+	 */
+	public synchronized String execute(SampleResult previousResult, Sampler currentSampler)
+			throws InvalidVariableException {
+            TimeScale timeScale = TimeScale.getInstance();
+            if (this.factor != null) {
+                String value = this.factor.execute().trim();
+                if (value.length() > 0) {
+                    try {
+                        timeScale.setArrivalTimeFactor(Double.parseDouble(value));
+                    } catch (IllegalArgumentException ex) {
+                        throw new InvalidVariableException("Invalid factor \"" + value + "\"");
+                    }
+                }
+            }
+            return String.valueOf(timeScale.getArrivalTimeFactor());
+	}
+
+	/**
+	 * Set the parameters for the function.
+	 */
+	public synchronized void setParameters(Collection<CompoundVariable> parameters) throws InvalidVariableException {
+		Object[] values = parameters.toArray();
+
+		if (values.length > 1) {
+			throw new InvalidVariableException("Expected at most 1 got " 
+                                + values.length);
+		}
+		
+        this.factor = (values.length > 0) ? (CompoundVariable) values[0] : null;
+	}
+
+	/**
+	 * Get the invocation key for this function.
+	 */
+	public String getReferenceKey() {
+		return KEY;
+	}
+
+	/**
+	 * Get the description of this function.
+	 */
+	public List<String> getArgumentDesc() {
+		return desc;
+	}
+
+}
@@ -6,6 +6,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import net.voorn.markov4jmeter.util.RandomStreams;
+
 import org.apache.jmeter.engine.util.CompoundVariable;
 import org.apache.jmeter.functions.AbstractFunction;
 import org.apache.jmeter.functions.InvalidVariableException;
@@ -34,7 +36,6 @@ public class RandomStringAddFunction extends AbstractFunction implements
 	private String[] tokens;
 	private String parameterName;
 	private String delimiter;
-	private static java.util.Random rand = new java.util.Random();
 
 	/**
 	 * No-arg constructor.
@@ -50,7 +51,7 @@ public class RandomStringAddFunction extends AbstractFunction implements
 	@Override
 	public String execute(SampleResult previousResult, Sampler currentSampler)
 			throws InvalidVariableException {
-		int rnd = rand.nextInt(this.tokens.length);
+		int rnd = RandomStreams.current().nextInt(this.tokens.length);
 		String returnString = "";
 		if (this.tokens.length > 0) {
 			returnString = this.tokens[rnd];
@@ -22,6 +22,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import net.voorn.markov4jmeter.util.RandomStreams;
+
 import org.apache.jmeter.engine.util.CompoundVariable;
 import org.apache.jmeter.samplers.SampleResult;
 import org.apache.jmeter.samplers.Sampler;
@@ -49,7 +51,6 @@ public class RandomStringFunction extends AbstractFunction implements Serializab
 	}
 
 	private String[] tokens;
-        private static java.util.Random rand = new java.util.Random();
         
 	/**
 	 * No-arg constructor.
@@ -70,7 +71,7 @@ public class RandomStringFunction extends AbstractFunction implements Serializab
 	 */
 	public synchronized String execute(SampleResult previousResult, Sampler currentSampler)
 			throws InvalidVariableException {
-            int rnd = rand.nextInt(this.tokens.length);
+            int rnd = RandomStreams.current().nextInt(this.tokens.length);
             return this.tokens[rnd];
 	}
 
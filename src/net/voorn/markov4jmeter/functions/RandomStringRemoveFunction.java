@@ -6,6 +6,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import net.voorn.markov4jmeter.util.RandomStreams;
+
 import org.apache.jmeter.engine.util.CompoundVariable;
 import org.apache.jmeter.functions.AbstractFunction;
 import org.apache.jmeter.functions.InvalidVariableException;
@@ -31,7 +33,6 @@ public class RandomStringRemoveFunction extends AbstractFunction implements
 	}
 
 	private String[] tokens;
-	private static java.util.Random rand = new java.util.Random();
 	private String delimiter;
 	private String parameterName;
 	private Object[] values;
@@ -68,7 +69,7 @@ public class RandomStringRemoveFunction extends AbstractFunction implements
 		String returnString = "";
 		if (this.tokens.length > 0) {
 			// getReturnString
-			int rnd = rand.nextInt(this.tokens.length);
+			int rnd = RandomStreams.current().nextInt(this.tokens.length);
 			returnString = this.tokens[rnd];
 
 			// create new String without returnString
@@ -0,0 +1,194 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Lock-free histogram of non-negative <code>long</code> values with
+ * logarithmic-linear buckets, similar to an HDR histogram.</p>
+ *
+ * <p>Values below 64 are counted exactly; above, each power of two is
+ * divided into 32 buckets of equal width, so that the relative error of
+ * reported values is below 3.2%. Values of 2<sup>36</sup> and more are
+ * counted in the last bucket. Recording a value is a single atomic
+ * increment; a histogram occupies 8 KB.</p>
+ */
+public final class LogLinearHistogram {
+
+    /** Number of bits which select the bucket within a power of two. */
+    private static final int SUB_BITS = 5;
+
+    /** Number of buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << LogLinearHistogram.SUB_BITS;
+
+    /** Number of values which are counted exactly. */
+    private static final int LINEAR = 2 * LogLinearHistogram.SUB_BUCKETS;
+
+    /** Values of 2<sup>MAX_BITS</sup> and more fall into the last bucket. */
+    private static final int MAX_BITS = 36;
+
+    /** Total number of buckets. */
+    private static final int BUCKETS = LogLinearHistogram.LINEAR +
+            (LogLinearHistogram.MAX_BITS - LogLinearHistogram.SUB_BITS - 1)
+            * LogLinearHistogram.SUB_BUCKETS;
+
+    /** Count of each bucket. */
+    private final AtomicLongArray counts =
+            new AtomicLongArray(LogLinearHistogram.BUCKETS);
+
+
+    /**
+     * Records a value.
+     *
+     * @param value  the value; negative values are counted as 0.
+     */
+    public void record (final long value) {
+
+        this.counts.incrementAndGet(LogLinearHistogram.index(value));
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return  the total count.
+     */
+    public long getCount () {
+
+        long count = 0;
+
+        for (int i = 0; i < LogLinearHistogram.BUCKETS; i++) {
+
+            count += this.counts.get(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the value at the given quantile.
+     *
+     * @param quantile  the quantile in the range from 0.0 to 1.0.
+     *
+     * @return  the (approximated) value, 0 if no value has been recorded.
+     */
+    public long getValueAtQuantile (final double quantile) {
+
+        final long[] snapshot = new long[LogLinearHistogram.BUCKETS];
+        long count = 0;
+
+        for (int i = 0; i < LogLinearHistogram.BUCKETS; i++) {
+
+            snapshot[i] = this.counts.get(i);
+            count += snapshot[i];
+        }
+
+        if (count == 0) {
+
+            return 0L;
+        }
+
+        // rank of the requested value, starting at 1;
+        final long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+        long cumulated = 0;
+
+        for (int i = 0; i < LogLinearHistogram.BUCKETS; i++) {
+
+            cumulated += snapshot[i];
+
+            if (cumulated >= rank) {
+
+                return LogLinearHistogram.value(i);
+            }
+        }
+
+        return LogLinearHistogram.value(LogLinearHistogram.BUCKETS - 1);
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return  the (approximated) value, 0 if no value has been recorded.
+     */
+    public long getMax () {
+
+        for (int i = LogLinearHistogram.BUCKETS - 1; i >= 0; i--) {
+
+            if (this.counts.get(i) > 0) {
+
+                return LogLinearHistogram.value(i);
+            }
+        }
+
+        return 0L;
+    }
+
+    /**
+     * Removes all recorded values; values recorded concurrently might get
+     * lost.
+     */
+    public void reset () {
+
+        for (int i = 0; i < LogLinearHistogram.BUCKETS; i++) {
+
+            this.counts.set(i, 0L);
+        }
+    }
+
+    /**
+     * Returns the bucket of a value.
+     */
+    private static int index (final long value) {
+
+        if (value < LogLinearHistogram.LINEAR) {
+
+            return (value < 0) ? 0 : (int) value;
+        }
+
+        final int msb = 63 - Long.numberOfLeadingZeros(value);
+
+        if (msb >= LogLinearHistogram.MAX_BITS) {
+
+            return LogLinearHistogram.BUCKETS - 1;
+        }
+
+        final int shift = msb - LogLinearHistogram.SUB_BITS;
+
+        return LogLinearHistogram.LINEAR
+                + (shift - 1) * LogLinearHistogram.SUB_BUCKETS
+                + (int) (value >>> shift) - LogLinearHistogram.SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the value which represents a bucket, i.e., its midpoint.
+     */
+    private static long value (final int index) {
+
+        if (index < LogLinearHistogram.LINEAR) {
+
+            return index;
+        }
+
+        final int offset = index - LogLinearHistogram.LINEAR;
+        final int shift = offset / LogLinearHistogram.SUB_BUCKETS + 1;
+        final long lower = (long) (offset % LogLinearHistogram.SUB_BUCKETS
+                + LogLinearHistogram.SUB_BUCKETS) << shift;
+
+        return lower + (1L << (shift - 1));
+    }
+}
@@ -0,0 +1,651 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+package net.voorn.markov4jmeter.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * <p>Reads a CSV file in a single pass over a memory-mapped buffer, without
+ * decoding it into lines or tokens first. Numbers are decoded in place;
+ * strings are only created on request.</p>
+ *
+ * <p>Fields are separated by a separator character; like with
+ * <code>java.util.StringTokenizer</code>, empty fields are skipped. Each
+ * field might further consist of a value and a suffix, divided by a
+ * secondary separator. Quotes are not interpreted, apart from being
+ * removed from the beginning and end of string fields on request. Lines
+ * are terminated by <code>\n</code>, <code>\r\n</code> or <code>\r</code>;
+ * blank lines are skipped. Strings are decoded with the platform's default
+ * charset, which must encode the separators, quotes and line terminators
+ * as single ASCII bytes, as UTF-8 and the ISO-8859 charsets do.</p>
+ *
+ * <p>Line numbers and columns are counted from 1; columns are counted in
+ * bytes, which equals characters for ASCII content. Instances are not
+ * thread-safe.</p>
+ */
+public final class MappedCsvReader implements Closeable {
+
+    /** Powers of 10 which are exactly representable as doubles. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21,
+        1e22
+    };
+
+    /** Largest mantissa which is exactly representable as a double. */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /** Charset for decoding strings. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final FileInputStream input;
+    private final ByteBuffer buffer;
+    private final int limit;
+    private final byte separator;
+    private final byte suffixSeparator;
+
+    /** Current position within the buffer. */
+    private int position;
+    /** Whether the end of the current line has been reached. */
+    private boolean endOfLine = true;
+    /** Number of the current line; 0 before the first line. */
+    private int lineNumber = 0;
+    /** Position of the first byte of the current line. */
+    private int lineStart = 0;
+    /** Bounds of the current field, excluding surrounding whitespace. */
+    private int fieldStart = 0;
+    private int fieldEnd = 0;
+    /** Position of the first suffix separator of the current field; -1 if none. */
+    private int suffixSeparatorPosition = -1;
+
+    /** Last suffix returned, with its bounds; re-used for equal suffixes. */
+    private String lastSuffix = null;
+    private int lastSuffixStart = 0;
+    private int lastSuffixEnd = 0;
+
+    /** Buffer for decoding strings. */
+    private byte[] bytes = new byte[64];
+
+    /**
+     * Maps the given file into memory.
+     *
+     * @param file             the file to be read.
+     * @param separator        the field separator, e.g., <code>','</code>.
+     * @param suffixSeparator  the separator of a field's value and suffix,
+     *                         e.g., <code>';'</code>.
+     *
+     * @throws IOException if the file cannot be opened or mapped, or if it
+     *     is larger than 2 GB.
+     */
+    public MappedCsvReader (
+            final File file,
+            final char separator,
+            final char suffixSeparator) throws IOException {
+
+        this.input = new FileInputStream(file);
+
+        try {
+
+            final FileChannel channel = this.input.getChannel();
+            final long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+
+                throw new IOException("File too large: " + file);
+            }
+
+            final MappedByteBuffer mapped =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            this.buffer = mapped;
+            this.limit = (int) size;
+
+        } catch (final IOException ex) {
+
+            this.input.close();
+            throw ex;
+        }
+
+        this.separator = (byte) separator;
+        this.suffixSeparator = (byte) suffixSeparator;
+
+        // skip a UTF-8 byte order mark;
+        if (this.limit >= 3
+                && this.buffer.get(0) == (byte) 0xEF
+                && this.buffer.get(1) == (byte) 0xBB
+                && this.buffer.get(2) == (byte) 0xBF) {
+
+            this.position = 3;
+        }
+    }
+
+    /**
+     * Moves to the beginning of the next non-blank line; the rest of the
+     * current line is skipped.
+     *
+     * @return  <code>true</code> if and only if a further line exists.
+     */
+    public boolean nextLine () {
+
+        final ByteBuffer buf = this.buffer;
+        int pos = this.position;
+
+        if (this.lineNumber > 0) {
+
+            pos = this.skipLine(pos);
+        }
+
+        while (pos < this.limit) {
+
+            this.lineNumber++;
+            this.lineStart = pos;
+
+            // blank line?
+            int p = pos;
+            byte b = 0;
+
+            while (p < this.limit
+                    && ((b = buf.get(p)) == ' ' || b == '\t')) {
+
+                p++;
+            }
+
+            if (p < this.limit && b != '\n' && b != '\r') {
+
+                this.position = pos;
+                this.endOfLine = false;
+                return true;
+            }
+
+            pos = this.skipLine(p);
+        }
+
+        this.position = this.limit;
+        this.endOfLine = true;
+        return false;
+    }
+
+    /**
+     * Returns the position after the line terminator following the given
+     * position.
+     *
+     * @param pos  a position within the current line.
+     *
+     * @return  the position of the next line.
+     */
+    private int skipLine (int pos) {
+
+        final ByteBuffer buf = this.buffer;
+
+        while (pos < this.limit) {
+
+            final byte b = buf.get(pos++);
+
+            if (b == '\n') {
+
+                break;
+            }
+
+            if (b == '\r') {
+
+                if (pos < this.limit && buf.get(pos) == '\n') {
+
+                    pos++;
+                }
+
+                break;
+            }
+        }
+
+        return pos;
+    }
+
+    /**
+     * Moves to the next non-empty field of the current line.
+     *
+     * @return  <code>true</code> if and only if a further field exists.
+     */
+    public boolean nextField () {
+
+        if (this.endOfLine) {
+
+            return false;
+        }
+
+        final ByteBuffer buf = this.buffer;
+        final byte sep = this.separator;
+        int pos = this.position;
+
+        // skip empty fields;
+        while (pos < this.limit && buf.get(pos) == sep) {
+
+            pos++;
+        }
+
+        int start = pos;
+        int suffixSep = -1;
+        byte b = 0;
+
+        while (pos < this.limit
+                && (b = buf.get(pos)) != sep && b != '\n' && b != '\r') {
+
+            if (b == this.suffixSeparator && suffixSep < 0) {
+
+                suffixSep = pos;
+            }
+
+            pos++;
+        }
+
+        if (pos == start) {  // end of line;
+
+            this.position = pos;
+            this.endOfLine = true;
+            return false;
+        }
+
+        int end = pos;
+
+        if (pos >= this.limit || b != sep) {
+
+            this.endOfLine = true;
+
+        } else {
+
+            pos++;
+
+            // a separator followed by empty fields only ends the line;
+            int p = pos;
+
+            while (p < this.limit && buf.get(p) == sep) {
+
+                p++;
+            }
+
+            if (p >= this.limit || (b = buf.get(p)) == '\n' || b == '\r') {
+
+                pos = p;
+                this.endOfLine = true;
+            }
+        }
+
+        this.position = pos;
+
+        // trim whitespace;
+        while (start < end && MappedCsvReader.isWhitespace(buf.get(start))) {
+
+            start++;
+        }
+
+        while (end > start && MappedCsvReader.isWhitespace(buf.get(end - 1))) {
+
+            end--;
+        }
+
+        this.fieldStart = start;
+        this.fieldEnd = end;
+        this.suffixSeparatorPosition = suffixSep;
+
+        return true;
+    }
+
+    /**
+     * Counts the non-empty fields of the current line, including the
+     * current one, without moving to the next line; intended for error
+     * messages.
+     *
+     * @return  the number of fields.
+     */
+    public int countFields () {
+
+        final ByteBuffer buf = this.buffer;
+        int count = 0;
+        boolean inField = false;
+
+        for (int pos = this.lineStart; pos < this.limit; pos++) {
+
+            final byte b = buf.get(pos);
+
+            if (b == '\n' || b == '\r') {
+
+                break;
+            }
+
+            if (b == this.separator) {
+
+                inField = false;
+
+            } else if (!inField) {
+
+                inField = true;
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the current field as string.
+     *
+     * @param removeQuotes  whether a leading and a trailing quote shall be
+     *                      removed.
+     *
+     * @return  the field, without surrounding whitespace.
+     */
+    public String getString (final boolean removeQuotes) {
+
+        int start = this.fieldStart;
+        int end = this.fieldEnd;
+
+        if (removeQuotes) {
+
+            if (start < end && this.buffer.get(start) == '"') {
+
+                start++;
+            }
+
+            if (end > start && this.buffer.get(end - 1) == '"') {
+
+                end--;
+            }
+        }
+
+        return this.decode(start, end);
+    }
+
+    /**
+     * Decodes the value of the current field, i.e., the part before the
+     * first suffix separator, as double. Plain decimal numbers are decoded
+     * in place; any other notation is passed to
+     * {@link Double#parseDouble(String)}, yielding identical results.
+     *
+     * @return  the value.
+     *
+     * @throws NumberFormatException if the value is no valid number.
+     */
+    public double getDouble () {
+
+        int pos = this.fieldStart;
+        final int end = (this.suffixSeparatorPosition >= 0) ?
+                this.suffixSeparatorPosition : this.fieldEnd;
+
+        final ByteBuffer buf = this.buffer;
+
+        boolean negative = false;
+
+        if (pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+
+            negative = buf.get(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean point = false;
+        boolean exact = true;
+
+        for (; pos < end; pos++) {
+
+            final byte b = buf.get(pos);
+
+            if (b >= '0' && b <= '9') {
+
+                digits++;
+
+                if (mantissa < MappedCsvReader.MAX_EXACT_MANTISSA / 10) {
+
+                    mantissa = mantissa * 10 + (b - '0');
+
+                    if (point) {
+
+                        exponent--;
+                    }
+
+                } else if (b != '0' || !point) {
+
+                    exact = false;  // too many significant digits;
+                    break;
+                }
+
+            } else if (b == '.' && !point) {
+
+                point = true;
+
+            } else {
+
+                break;
+            }
+        }
+
+        if (pos < end && digits > 0 && exact) {
+
+            final byte b = buf.get(pos);
+
+            if (b == 'e' || b == 'E') {
+
+                pos++;
+
+                boolean negativeExponent = false;
+
+                if (pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+
+                    negativeExponent = buf.get(pos) == '-';
+                    pos++;
+                }
+
+                int e = 0;
+                final int exponentStart = pos;
+
+                for (; pos < end && e < 1000; pos++) {
+
+                    final byte d = buf.get(pos);
+
+                    if (d < '0' || d > '9') {
+
+                        break;
+                    }
+
+                    e = e * 10 + (d - '0');
+                }
+
+                if (pos == exponentStart) {
+
+                    exact = false;
+                }
+
+                exponent += negativeExponent ? -e : e;
+            }
+        }
+
+        // fast path, correctly rounded since mantissa and power of 10 are
+        // both exact;
+        if (pos == end && digits > 0 && exact
+                && exponent >= -22 && exponent <= 22) {
+
+            double value = (double) mantissa;
+
+            value = (exponent < 0) ?
+                    value / MappedCsvReader.POWERS_OF_TEN[-exponent] :
+                    value * MappedCsvReader.POWERS_OF_TEN[exponent];
+
+            return negative ? -value : value;
+        }
+
+        // throws a NumberFormatException if invalid;
+        return Double.parseDouble(this.decode(this.fieldStart, end));
+    }
+
+    /**
+     * Returns the suffix of the current field, i.e., the part between the
+     * first and an optional second suffix separator. Like with
+     * <code>String.split()</code>, a suffix is only regarded as present if
+     * any non-separator character follows the first suffix separator. If
+     * the suffix equals the suffix returned before, the same instance is
+     * returned, which allows callers to re-use values derived from it.
+     *
+     * @return  the suffix, or <code>null</code> if the field has no suffix.
+     */
+    public String getSuffix () {
+
+        if (this.suffixSeparatorPosition < 0) {
+
+            return null;
+        }
+
+        final ByteBuffer buf = this.buffer;
+        final int start = this.suffixSeparatorPosition + 1;
+        int end = start;
+
+        while (end < this.fieldEnd && buf.get(end) != this.suffixSeparator) {
+
+            end++;
+        }
+
+        if (end == start) {
+
+            // only separators left?
+            int p = end;
+
+            while (p < this.fieldEnd && buf.get(p) == this.suffixSeparator) {
+
+                p++;
+            }
+
+            if (p == this.fieldEnd) {
+
+                return null;
+            }
+        }
+
+        if (this.lastSuffix != null && this.equalRegions(start, end)) {
+
+            return this.lastSuffix;
+        }
+
+        this.lastSuffix = this.decode(start, end);
+        this.lastSuffixStart = start;
+        this.lastSuffixEnd = end;
+
+        return this.lastSuffix;
+    }
+
+    /**
+     * Checks whether the given region equals the region of the last suffix.
+     *
+     * @param start  the first position of the region.
+     * @param end    the position after the region.
+     *
+     * @return  <code>true</code> if and only if the regions are equal.
+     */
+    private boolean equalRegions (final int start, final int end) {
+
+        if (end - start != this.lastSuffixEnd - this.lastSuffixStart) {
+
+            return false;
+        }
+
+        final ByteBuffer buf = this.buffer;
+
+        for (int i = start, j = this.lastSuffixStart; i < end; i++, j++) {
+
+            if (buf.get(i) != buf.get(j)) {
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the number of the current line.
+     *
+     * @return  the line number, counted from 1.
+     */
+    public int getLineNumber () {
+
+        return this.lineNumber;
+    }
+
+    /**
+     * Returns the column of the current field.
+     *
+     * @return  the column, counted from 1.
+     */
+    public int getColumn () {
+
+        return this.fieldStart - this.lineStart + 1;
+    }
+
+    /**
+     * Closes the underlying file; the mapped buffer is released by the
+     * garbage collector.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    public void close () throws IOException {
+
+        this.input.close();
+    }
+
+    /**
+     * Decodes the given region into a string.
+     *
+     * @param start  the first position of the region.
+     * @param end    the position after the region.
+     *
+     * @return  the decoded string.
+     */
+    private String decode (final int start, final int end) {
+
+        final int length = end - start;
+
+        if (this.bytes.length < length) {
+
+            this.bytes = new byte[Math.max(length, this.bytes.length * 2)];
+        }
+
+        for (int i = 0; i < length; i++) {
+
+            this.bytes[i] = this.buffer.get(start + i);
+        }
+
+        return new String(this.bytes, 0, length, MappedCsvReader.CHARSET);
+    }
+
+    /**
+     * Checks whether the given byte denotes whitespace, as removed by
+     * <code>String.trim()</code>.
+     *
+     * @param b  the byte to be checked.
+     *
+     * @return  <code>true</code> if and only if the byte is whitespace.
+     */
+    private static boolean isWhitespace (final byte b) {
+
+        return b >= 0 && b <= ' ';
+    }
+}
@@ -0,0 +1,151 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Applies delays with sub-millisecond precision, e.g., short think
+ * times in the range of a few milliseconds, where the granularity of
+ * <code>Thread.sleep()</code> would distort the request rate.</p>
+ *
+ * <p>For each delay, an absolute deadline is computed. The thread is parked
+ * until shortly before the deadline and busy-waits for the remaining
+ * time. Since the thread might still wake up late, e.g., due to scheduling,
+ * the overshoot is carried over and subtracted from subsequent delays, so
+ * that the long-run average delay matches the requested one. The carried
+ * overshoot is bounded, so that a single long stall, like a garbage
+ * collection pause, does not result in a burst of undelayed requests.</p>
+ *
+ * <p>Instances are not thread-safe and are intended to be used by a single
+ * thread only.</p>
+ */
+public final class Pacer {
+
+    /** Remaining time in nanoseconds for which the thread busy-waits
+     *  instead of being parked. */
+    private static final long SPIN_NANOS = 200000L;
+
+    /** Maximum overshoot in nanoseconds to be carried over. */
+    private static final long MAX_CARRY_NANOS = 1000000000L;
+
+    /** Overshoot of previous delays in nanoseconds, not yet compensated. */
+    private long carryNanos = 0L;
+
+    /**
+     * Delays the current thread for the given time, minus the overshoot of
+     * previous delays.
+     *
+     * @param millis  the delay in milliseconds; must not be negative.
+     *
+     * @throws InterruptedException  if the thread is interrupted; the
+     *                               overshoot is reset in that case.
+     */
+    public void pause (final long millis) throws InterruptedException {
+
+        if (millis < 0) {
+
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+
+        final long delayNanos = millis * 1000000L - this.carryNanos;
+
+        if (delayNanos <= 0) {
+
+            // compensated by previous overshoot completely;
+            this.carryNanos = -delayNanos;
+            return;
+        }
+
+        final long deadline = System.nanoTime() + delayNanos;
+
+        long remaining = delayNanos;
+
+        while (remaining > Pacer.SPIN_NANOS) {
+
+            LockSupport.parkNanos(remaining - Pacer.SPIN_NANOS);
+
+            if (Thread.interrupted()) {
+
+                this.carryNanos = 0L;
+                throw new InterruptedException();
+            }
+
+            remaining = deadline - System.nanoTime();
+        }
+
+        while (remaining > 0) {
+
+            remaining = deadline - System.nanoTime();
+        }
+
+        this.carryNanos = Math.min(-remaining, Pacer.MAX_CARRY_NANOS);
+    }
+
+    /**
+     * Returns the overshoot which will be subtracted from the next delay.
+     *
+     * @return  the overshoot in nanoseconds.
+     */
+    public long getCarryNanos () {
+
+        return this.carryNanos;
+    }
+
+    /**
+     * Main method which compares the precision of <code>Thread.sleep()</code>
+     * with the pacer; for testing purposes only. The delay in milliseconds
+     * and the number of delays might be passed as arguments.
+     *
+     * @param argv  arguments; optionally the delay and the number of delays.
+     *
+     * @throws InterruptedException  if the main thread is interrupted.
+     */
+    public static void main (final String[] argv) throws InterruptedException {
+
+        final long millis = (argv.length > 0) ? Long.parseLong(argv[0]) : 5L;
+        final int n = (argv.length > 1) ? Integer.parseInt(argv[1]) : 500;
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < n; i++) {
+
+            Thread.sleep(millis);
+        }
+
+        final long sleepTime = System.nanoTime() - start;
+
+        final Pacer pacer = new Pacer();
+        start = System.nanoTime();
+
+        for (int i = 0; i < n; i++) {
+
+            pacer.pause(millis);
+        }
+
+        final long pacerTime = System.nanoTime() - start;
+        final double expected = millis * 1000000.0d * n;
+
+        System.out.println(String.format(
+                "%d delays of %d ms: Thread.sleep() error %+.2f%%, "
+                + "pacer error %+.2f%%",
+                n, millis,
+                100.0d * (sleepTime - expected) / expected,
+                100.0d * (pacerTime - expected) / expected));
+    }
+}
@@ -0,0 +1,109 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.util;
+
+/**
+ * <p>Base class of all pseudo random number streams used by Markov4JMeter.</p>
+ *
+ * <p>Subclasses only need to provide 64 random bits per call of
+ * {@link #nextLong()}; all other values are derived from those bits.
+ * Instances are not thread-safe and are intended to be used by a single
+ * thread only, see {@link RandomStreams}.</p>
+ */
+public abstract class RandomStream {
+
+    /**
+     * Returns 64 uniformly distributed random bits.
+     *
+     * @return  a random <code>long</code> value.
+     */
+    public abstract long nextLong ();
+
+    /**
+     * Returns a uniformly distributed value in the range from 0.0 to 1.0
+     * (exclusive), using the upper 53 bits of {@link #nextLong()}.
+     *
+     * @return  a random <code>double</code> value.
+     */
+    public double nextDouble () {
+
+        return (this.nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a uniformly distributed value in the range from 0 to the given
+     * bound (exclusive).
+     *
+     * @param bound  the upper bound; must be positive.
+     *
+     * @return  a random <code>int</code> value.
+     *
+     * @throws IllegalArgumentException  if the bound is not positive.
+     */
+    public int nextInt (final int bound) {
+
+        if (bound <= 0) {
+
+            throw new IllegalArgumentException("bound must be positive");
+        }
+
+        // upper 31 bits; reject values of the incomplete last interval;
+        int bits;
+        int value;
+
+        do {
+
+            bits = (int) (this.nextLong() >>> 33);
+            value = bits % bound;
+
+        } while (bits - value + (bound - 1) < 0);
+
+        return value;
+    }
+
+    /**
+     * Returns a normally distributed value with mean 0.0 and standard
+     * deviation 1.0, using the ziggurat method.
+     *
+     * @return  a random <code>double</code> value.
+     *
+     * @see ZigguratGaussian
+     */
+    public double nextGaussian () {
+
+        return ZigguratGaussian.next(this);
+    }
+
+    /**
+     * Scrambles the bits of the given value, following the finalizer of
+     * SplitMix64; used for deriving seeds.
+     *
+     * @param value  the value to be scrambled.
+     *
+     * @return  the scrambled value.
+     */
+    public static long mix (final long value) {
+
+        long z = value;
+
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,265 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.util;
+
+import java.util.Properties;
+
+import org.apache.jmeter.threads.AbstractThreadGroup;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * <p>Provides each thread with its own {@link RandomStream}, so that virtual
+ * users do not contend on a shared generator.</p>
+ *
+ * <p>The seed of a stream is derived from a test-level master seed, the name
+ * of the thread group and the thread number. Hence, with a fixed master seed,
+ * each virtual user draws the same sequence of random numbers in every test
+ * run. The master seed is read from the JMeter property
+ * <code>markov4jmeter.seed</code>; if the property is undefined, a seed is
+ * generated and logged, so that a test run can be reproduced afterwards. The
+ * generator type can be selected via the property
+ * <code>markov4jmeter.rng</code>, which might be
+ * <code>xoroshiro128plus</code> (default) or <code>splitmix64</code>. In
+ * distributed mode, each engine should be assigned a different master
+ * seed, since thread numbers are the same on all engines.</p>
+ */
+public final class RandomStreams {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggingManager.getLoggerForClass();
+
+    /** Name of the property which defines the master seed. */
+    public static final String SEED_PROPERTY = "markov4jmeter.seed";
+
+    /** Name of the property which defines the generator type. */
+    public static final String GENERATOR_PROPERTY = "markov4jmeter.rng";
+
+    /** Master seed of the current test run. */
+    private static long masterSeed;
+
+    /** Generator type of the current test run. */
+    private static String generator;
+
+    /** Number of the current test run; streams of previous runs are
+     *  replaced on their next use. 0 denotes that no seed has been
+     *  resolved yet. */
+    private static volatile int generation = 0;
+
+    /** Streams of all threads. */
+    private static final ThreadLocal<Holder> streams = new ThreadLocal<Holder>();
+
+
+    /**
+     * Private constructor, since all methods are static.
+     */
+    private RandomStreams () { }
+
+    /**
+     * Returns the stream of the current thread, creating it if necessary.
+     *
+     * @return  a stream to be used by the current thread only.
+     */
+    public static RandomStream current () {
+
+        int generation = RandomStreams.generation;
+
+        if (generation == 0) {
+
+            generation = RandomStreams.initialize();
+        }
+
+        Holder holder = RandomStreams.streams.get();
+
+        if (holder == null || holder.generation != generation) {
+
+            holder = new Holder(generation, RandomStreams.createStream(
+                    RandomStreams.deriveSeed(RandomStreams.getMasterSeed())));
+
+            RandomStreams.streams.set(holder);
+        }
+
+        return holder.stream;
+    }
+
+    /**
+     * Resolves the master seed for a new test run; all streams are derived
+     * anew afterwards. Must be called on test start.
+     */
+    public static synchronized void testStarted () {
+
+        RandomStreams.resolveProperties();
+        RandomStreams.generation++;
+    }
+
+    /**
+     * Returns the master seed of the current test run.
+     *
+     * @return  the master seed.
+     */
+    public static synchronized long getMasterSeed () {
+
+        return RandomStreams.masterSeed;
+    }
+
+    /**
+     * Creates a stream of the configured generator type.
+     *
+     * @param seed  the seed of the stream.
+     *
+     * @return  a new stream.
+     */
+    public static RandomStream createStream (final long seed) {
+
+        final String generator;
+
+        synchronized (RandomStreams.class) {
+
+            generator = RandomStreams.generator;
+        }
+
+        return SplitMix64Stream.NAME.equals(generator) ?
+                new SplitMix64Stream(seed) :
+                new Xoroshiro128PlusStream(seed);
+    }
+
+    /**
+     * Resolves the properties once, if no test run has been started yet.
+     *
+     * @return  the current generation.
+     */
+    private static synchronized int initialize () {
+
+        if (RandomStreams.generation == 0) {
+
+            RandomStreams.resolveProperties();
+            RandomStreams.generation = 1;
+        }
+
+        return RandomStreams.generation;
+    }
+
+    /**
+     * Reads the master seed and generator type from the JMeter properties;
+     * generates a master seed if none is defined.
+     */
+    private static void resolveProperties () {
+
+        final Properties properties = JMeterUtils.getJMeterProperties();
+
+        final String seedString = (properties != null) ?
+                properties.getProperty(RandomStreams.SEED_PROPERTY) : null;
+
+        final String generatorString = (properties != null) ?
+                properties.getProperty(RandomStreams.GENERATOR_PROPERTY) : null;
+
+        RandomStreams.generator = (generatorString != null) ?
+                generatorString.trim().toLowerCase() :
+                Xoroshiro128PlusStream.NAME;
+
+        if ( !SplitMix64Stream.NAME.equals(RandomStreams.generator) &&
+                !Xoroshiro128PlusStream.NAME.equals(RandomStreams.generator) ) {
+
+            RandomStreams.logger.warn("Unknown random number generator \""
+                    + generatorString + "\"; will use "
+                    + Xoroshiro128PlusStream.NAME + ".");
+
+            RandomStreams.generator = Xoroshiro128PlusStream.NAME;
+        }
+
+        if (seedString != null) {
+
+            try {
+
+                RandomStreams.masterSeed = Long.parseLong(seedString.trim());
+
+                RandomStreams.logger.info("Using master seed "
+                        + RandomStreams.masterSeed + " ("
+                        + RandomStreams.generator + ").");
+                return;
+
+            } catch (final NumberFormatException ex) {
+
+                RandomStreams.logger.warn("Invalid master seed \""
+                        + seedString + "\"; will generate a seed.");
+            }
+        }
+
+        RandomStreams.masterSeed =
+                RandomStream.mix(System.nanoTime() ^ System.currentTimeMillis());
+
+        RandomStreams.logger.info("Generated master seed "
+                + RandomStreams.masterSeed + " (" + RandomStreams.generator
+                + "); set property " + RandomStreams.SEED_PROPERTY
+                + " to this value for reproducing the test run.");
+    }
+
+    /**
+     * Derives the seed of the current thread from the master seed, the name
+     * of its thread group and its thread number.
+     *
+     * @param masterSeed  the master seed.
+     *
+     * @return  the seed.
+     */
+    private static long deriveSeed (final long masterSeed) {
+
+        final JMeterContext context = JMeterContextService.getContext();
+        final AbstractThreadGroup threadGroup = context.getThreadGroup();
+
+        final long groupHash;
+        final long threadNum;
+
+        if (threadGroup != null) {
+
+            groupHash = threadGroup.getName().hashCode();
+            threadNum = context.getThreadNum();
+
+        } else {
+
+            // no virtual user, e.g. a GUI or test thread;
+            groupHash = Thread.currentThread().getName().hashCode();
+            threadNum = Thread.currentThread().getId();
+        }
+
+        final long seed = RandomStream.mix(
+                masterSeed ^ RandomStream.mix(groupHash + 0x9E3779B97F4A7C15L));
+
+        return RandomStream.mix(seed + threadNum * 0xD1B54A32D192ED03L);
+    }
+
+
+    /**
+     * Stream of a thread, together with the test run it belongs to.
+     */
+    private static final class Holder {
+
+        final int generation;
+
+        final RandomStream stream;
+
+        Holder (final int generation, final RandomStream stream) {
+
+            this.generation = generation;
+            this.stream = stream;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.util;
+
+/**
+ * Random stream based on the SplitMix64 generator, which adds a constant to
+ * a 64-bit state and scrambles the result.
+ */
+public final class SplitMix64Stream extends RandomStream {
+
+    /** Identifier of this generator, as used in the related property. */
+    public static final String NAME = "splitmix64";
+
+    /** Golden ratio increment. */
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** Current state. */
+    private long state;
+
+    /**
+     * Creates a stream with the given seed.
+     *
+     * @param seed  the seed.
+     */
+    public SplitMix64Stream (final long seed) {
+
+        this.state = seed;
+    }
+
+    @Override
+    public long nextLong () {
+
+        this.state += SplitMix64Stream.GAMMA;
+
+        return RandomStream.mix(this.state);
+    }
+}
@@ -0,0 +1,68 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.util;
+
+/**
+ * Random stream based on the xoroshiro128+ generator by Blackman and Vigna,
+ * which has a period of 2^128 - 1. The state is initialized from the seed
+ * via SplitMix64, as recommended by the authors.
+ */
+public final class Xoroshiro128PlusStream extends RandomStream {
+
+    /** Identifier of this generator, as used in the related property. */
+    public static final String NAME = "xoroshiro128plus";
+
+    /** First half of the state. */
+    private long s0;
+
+    /** Second half of the state. */
+    private long s1;
+
+    /**
+     * Creates a stream with the given seed.
+     *
+     * @param seed  the seed.
+     */
+    public Xoroshiro128PlusStream (final long seed) {
+
+        final SplitMix64Stream seeder = new SplitMix64Stream(seed);
+
+        this.s0 = seeder.nextLong();
+        this.s1 = seeder.nextLong();
+
+        if (this.s0 == 0 && this.s1 == 0) {  // the all-zero state is invalid;
+
+            this.s1 = 1;
+        }
+    }
+
+    @Override
+    public long nextLong () {
+
+        final long s0 = this.s0;
+        long s1 = this.s1;
+
+        final long result = s0 + s1;
+
+        s1 ^= s0;
+        this.s0 = Long.rotateLeft(s0, 24) ^ s1 ^ (s1 << 16);
+        this.s1 = Long.rotateLeft(s1, 37);
+
+        return result;
+    }
+}
@@ -0,0 +1,274 @@
+/***************************************************************************
+ * Copyright (c) 2016 the WESSBAS project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ***************************************************************************/
+
+
+package net.voorn.markov4jmeter.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * <p>Sampler for normally distributed values, following the ziggurat method
+ * of Marsaglia and Tsang (2000) with 128 layers.</p>
+ *
+ * <p>About 98.8% of all samples require a single call of
+ * {@link RandomStream#nextLong()}, a table lookup and a multiplication; the
+ * remaining samples fall into a wedge or the tail of the distribution and
+ * are handled by rejection. In contrast to the original method, the layer
+ * and the sample value are taken from disjoint bits of a 64-bit random
+ * value, and the value has a resolution of 53 bits. The tables are
+ * immutable, so the sampler is lock-free and can be shared among
+ * threads.</p>
+ */
+public final class ZigguratGaussian {
+
+    /** Number of layers. */
+    private static final int LAYERS = 128;
+
+    /** Start of the right tail, i.e., the right edge of the base layer. */
+    private static final double R = 3.442619855899d;
+
+    /** Area of each layer. */
+    private static final double V = 9.91256303526217e-3d;
+
+    /** Scale of the signed 53-bit sample value. */
+    private static final double SCALE = 0x1.0p52;
+
+    /** Thresholds of the layers; samples below are accepted directly. */
+    private static final long[] k = new long[ZigguratGaussian.LAYERS];
+
+    /** Widths of the layers, divided by {@link #SCALE}. */
+    private static final double[] w = new double[ZigguratGaussian.LAYERS];
+
+    /** Density values at the layer edges. */
+    private static final double[] f = new double[ZigguratGaussian.LAYERS];
+
+    static {
+
+        double dn = ZigguratGaussian.R;
+        double tn = dn;
+
+        final double q = ZigguratGaussian.V / Math.exp(-0.5d * dn * dn);
+
+        ZigguratGaussian.k[0] = (long) ((dn / q) * ZigguratGaussian.SCALE);
+        ZigguratGaussian.k[1] = 0;
+
+        ZigguratGaussian.w[0] = q / ZigguratGaussian.SCALE;
+        ZigguratGaussian.w[ZigguratGaussian.LAYERS - 1] = dn / ZigguratGaussian.SCALE;
+
+        ZigguratGaussian.f[0] = 1.0d;
+        ZigguratGaussian.f[ZigguratGaussian.LAYERS - 1] = Math.exp(-0.5d * dn * dn);
+
+        for (int i = ZigguratGaussian.LAYERS - 2; i >= 1; i--) {
+
+            dn = Math.sqrt(-2.0d * Math.log(
+                    ZigguratGaussian.V / dn + Math.exp(-0.5d * dn * dn)));
+
+            ZigguratGaussian.k[i + 1] = (long) ((dn / tn) * ZigguratGaussian.SCALE);
+            tn = dn;
+
+            ZigguratGaussian.f[i] = Math.exp(-0.5d * dn * dn);
+            ZigguratGaussian.w[i] = dn / ZigguratGaussian.SCALE;
+        }
+    }
+
+
+    /**
+     * Private constructor, since all methods are static.
+     */
+    private ZigguratGaussian () { }
+
+    /**
+     * Returns a normally distributed value with mean 0.0 and standard
+     * deviation 1.0.
+     *
+     * @param random  the stream which provides the random bits.
+     *
+     * @return  a random <code>double</code> value.
+     */
+    public static double next (final RandomStream random) {
+
+        while (true) {
+
+            final long bits = random.nextLong();
+
+            // bits 3..9 select the layer, bits 11..63 the signed value; the
+            // lowest bits are skipped, since they are the weakest ones of
+            // some generators;
+            final int i = (int) (bits >>> 3) & (ZigguratGaussian.LAYERS - 1);
+            final long j = bits >> 11;
+
+            final double x = j * ZigguratGaussian.w[i];
+
+            if (Math.abs(j) < ZigguratGaussian.k[i]) {
+
+                return x;  // inside the rectangle of the layer;
+            }
+
+            if (i == 0) {
+
+                return ZigguratGaussian.nextTail(random, j < 0);
+            }
+
+            // wedge between the rectangle and the density curve;
+            final double y = ZigguratGaussian.f[i] + random.nextDouble()
+                    * (ZigguratGaussian.f[i - 1] - ZigguratGaussian.f[i]);
+
+            if (y < Math.exp(-0.5d * x * x)) {
+
+                return x;
+            }
+        }
+    }
+
+    /**
+     * Returns a value from the tail beyond {@link #R}, following Marsaglia's
+     * method.
+     */
+    private static double nextTail (final RandomStream random, final boolean negative) {
+
+        double x, y;
+
+        do {
+
+            // 1 - nextDouble() lies in (0, 1], thus the logarithms are finite;
+            x = -Math.log(1.0d - random.nextDouble()) / ZigguratGaussian.R;
+            y = -Math.log(1.0d - random.nextDouble());
+
+        } while (y + y < x * x);
+
+        return negative ? -(ZigguratGaussian.R + x) : ZigguratGaussian.R + x;
+    }
+
+    /**
+     * Returns the value of the standard normal distribution function.
+     *
+     * @param x  the argument.
+     *
+     * @return  the probability of a value less or equal <code>x</code>.
+     */
+    private static double cdf (final double x) {
+
+        // Abramowitz and Stegun 7.1.26 for erf(|x| / sqrt(2)), error < 1.5e-7;
+        final double z = Math.abs(x) / Math.sqrt(2.0d);
+        final double t = 1.0d / (1.0d + 0.3275911d * z);
+        final double erf = 1.0d - t * (0.254829592d + t * (-0.284496736d
+                + t * (1.421413741d + t * (-1.453152027d + t * 1.061405429d))))
+                * Math.exp(-z * z);
+
+        return (x >= 0) ? 0.5d * (1.0d + erf) : 0.5d * (1.0d - erf);
+    }
+
+    /**
+     * Main method which checks the distribution of the sampled values and
+     * compares the sampling times with <code>java.util.Random</code>; for
+     * testing purposes only. Reports the first four moments, the fractions
+     * of values beyond 1, 2 and 3 standard deviations and the
+     * Kolmogorov-Smirnov statistic, whose critical value at the 1% level is
+     * about 1.63 / sqrt(n). The number of samples might be passed as first
+     * argument.
+     *
+     * @param argv  arguments; optionally the number of samples.
+     */
+    public static void main (final String[] argv) {
+
+        final int n = (argv.length > 0) ? Integer.parseInt(argv[0]) : 1000000;
+
+        final RandomStream random = new Xoroshiro128PlusStream(42L);
+        final double[] values = new double[n];
+
+        double m1 = 0, m2 = 0, m3 = 0, m4 = 0;
+        final int[] beyond = new int[3];
+
+        for (int i = 0; i < n; i++) {
+
+            final double x = ZigguratGaussian.next(random);
+            values[i] = x;
+
+            m1 += x;
+            m2 += x * x;
+            m3 += x * x * x;
+            m4 += x * x * x * x;
+
+            for (int s = 0; s < beyond.length; s++) {
+
+                if (Math.abs(x) > s + 1) {
+
+                    beyond[s]++;
+                }
+            }
+        }
+
+        Arrays.sort(values);
+
+        double d = 0.0d;
+
+        for (int i = 0; i < n; i++) {
+
+            final double p = ZigguratGaussian.cdf(values[i]);
+            d = Math.max(d, Math.max(p - (double) i / n, (double) (i + 1) / n - p));
+        }
+
+        System.out.println(String.format(
+                "n = %d: mean %.5f (0), variance %.5f (1), "
+                + "skewness %.5f (0), kurtosis %.5f (3)",
+                n, m1 / n, m2 / n, m3 / n, m4 / n));
+
+        System.out.println(String.format(
+                "beyond 1/2/3 sd: %.5f (0.31731), %.5f (0.04550), %.6f (0.002700)",
+                (double) beyond[0] / n, (double) beyond[1] / n, (double) beyond[2] / n));
+
+        System.out.println(String.format(
+                "Kolmogorov-Smirnov: D = %.6f, critical value (1%%) = %.6f",
+                d, 1.63d / Math.sqrt(n)));
+
+        final Random legacy = new Random(42L);
+        double sink = 0.0d;
+
+        for (int round = 1; round <= 2; round++) {  // round 1 ~ warm-up;
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < n; i++) {
+
+                sink += legacy.nextGaussian();
+            }
+
+            final long legacyTime = System.nanoTime() - start;
+            start = System.nanoTime();
+
+            for (int i = 0; i < n; i++) {
+
+                sink += ZigguratGaussian.next(random);
+            }
+
+            final long zigguratTime = System.nanoTime() - start;
+
+            System.out.println(String.format(
+                    "round %d: java.util.Random %.2f ns/sample, "
+                    + "ziggurat %.2f ns/sample (speedup %.1fx)",
+                    round,
+                    (double) legacyTime / n,
+                    (double) zigguratTime / n,
+                    (double) legacyTime / zigguratTime));
+        }
+
+        if (Double.isNaN(sink)) {
+
+            System.out.println();  // keeps the loops from being eliminated;
+        }
+    }
+}